@@ -0,0 +1,53 @@
+package com.amap.loc.diagnose.permission;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * PermissionHelper创建时移除同一权限组中重复权限的耗时
+ */
+@State(Scope.Thread)
+public class PermissionDedupBenchmark {
+
+    private static final String[] PERMISSIONS = new String[]{
+            "android.permission.ACCESS_FINE_LOCATION",
+            "android.permission.WRITE_EXTERNAL_STORAGE",
+            "android.permission.READ_PHONE_STATE",
+            "android.permission.ACCESS_COARSE_LOCATION",
+            "android.permission.READ_EXTERNAL_STORAGE",
+            "android.permission.CALL_PHONE",
+            "android.permission.CAMERA",
+            "android.permission.RECORD_AUDIO",
+            "android.permission.READ_CONTACTS",
+            "android.permission.GET_ACCOUNTS",
+            "android.permission.INTERNET",
+            "android.permission.ACCESS_WIFI_STATE",
+    };
+
+    @Param({"3", "12"})
+    public int permissionCount;
+
+    private final Map<String, String> template = new HashMap<>();
+    private final Map<String, String> permissionHintMap = new HashMap<>();
+
+    @Setup
+    public void setUp() {
+        for (int i = 0; i < permissionCount; i++) {
+            template.put(PERMISSIONS[i], "hint" + i);
+        }
+    }
+
+    @Benchmark
+    public Map<String, String> removeDuplicates() {
+        permissionHintMap.clear();
+        permissionHintMap.putAll(template);
+        PermissionGroups.removeDuplicates(permissionHintMap);
+        return permissionHintMap;
+    }
+}
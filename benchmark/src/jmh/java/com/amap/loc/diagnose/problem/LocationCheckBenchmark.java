@@ -0,0 +1,93 @@
+package com.amap.loc.diagnose.problem;
+
+import com.amap.loc.diagnose.platform.FakePlatform;
+import com.amap.loc.diagnose.platform.FakeTimeline;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * 完整的定位检测流程，在FakePlatform上按时间线回放，虚拟时间跳过所有等待，只测量检测流程本身的开销
+ *
+ * 每个场景覆盖GPS、wifi、基站的不同分支，某个分支变慢或分配变多时jmhCheck会失败
+ */
+@State(Scope.Thread)
+public class LocationCheckBenchmark {
+
+    /**
+     * 室外正常：卫星达标提前结束，wifi主动扫描成功，获取到基站
+     */
+    private static final String OUTDOOR = ""
+            + "50 cell.info 5\n"
+            + "1000 gps.satellites 12 4 28\n"
+            + "2000 gps.satellites 20 9 32\n"
+            + "2100 wifi.scan 12\n";
+    /**
+     * 室内：GPS一直搜不到卫星直到超时，wifi扫描被系统限制只有1个缓存热点，需要等待基站结果
+     */
+    private static final String INDOOR = ""
+            + "wifi.cached 1\n"
+            + "300 cell.info 2\n";
+    /**
+     * 弱信号：卫星信号不达标，等到定位回调，wifi扫描超时，sim卡异常
+     */
+    private static final String WEAK = ""
+            + "sim.ready false\n"
+            + "wifi.cached 3\n"
+            + "100 cell.info 0\n"
+            + "1000 gps.satellites 8 3 18\n"
+            + "2000 gps.satellites 10 4 19\n"
+            + "3000 gps.satellites 11 5 21\n"
+            + "4000 gps.satellites 11 5 22\n"
+            + "5000 gps.satellites 12 5 22\n"
+            + "6000 gps.location\n"
+            + "5000 wifi.disabled\n";
+
+    @Param({"outdoor", "indoor", "weak"})
+    public String scenario;
+
+    private FakeTimeline timeline;
+    private DiagnoseResultItem result;
+
+    private final LocationCheck.Listener listener = new LocationCheck.Listener() {
+        @Override
+        public void onCheckProgress(DiagnoseResultItem item) {
+        }
+
+        @Override
+        public void onCheckFinish(DiagnoseResultItem item) {
+            result = item;
+        }
+    };
+
+    @Setup
+    public void setUp() {
+        switch (scenario) {
+            case "outdoor":
+                timeline = FakeTimeline.parse(OUTDOOR);
+                break;
+            case "indoor":
+                timeline = FakeTimeline.parse(INDOOR);
+                break;
+            default:
+                timeline = FakeTimeline.parse(WEAK);
+                break;
+        }
+    }
+
+    @Benchmark
+    public DiagnoseResultItem check() {
+        FakePlatform platform = new FakePlatform(timeline);
+        LocationCheck check = new LocationCheck();
+        result = null;
+        check.start(platform, listener);
+        platform.fakeClock.runUntilIdle(1000);
+        if (result == null) {
+            throw new IllegalStateException("check not finished");
+        }
+        return result;
+    }
+}
@@ -0,0 +1,79 @@
+package com.amap.loc.diagnose.problem;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Collections;
+
+/**
+ * 网络探测中读取HTTP响应的耗时，响应来自内存，不包括网络IO
+ */
+@State(Scope.Thread)
+public class ResponseParseBenchmark {
+
+    private static final String HEADERS = "HTTP/1.1 200 OK\r\n"
+            + "Server: Tengine\r\n"
+            + "Date: Mon, 01 Jan 2018 00:00:00 GMT\r\n"
+            + "Content-Type: text/html; charset=utf-8\r\n"
+            + "Connection: keep-alive\r\n"
+            + "Vary: Accept-Encoding\r\n"
+            + "Strict-Transport-Security: max-age=31536000\r\n";
+
+    @Param({"head", "contentLength", "chunked"})
+    public String response;
+
+    private NetworkProbe probe;
+    private ByteArrayInputStream in;
+
+    @Setup
+    public void setUp() {
+        probe = new NetworkProbe(Collections.singletonList(
+                new NetworkProbe.Endpoint("benchmark", "https://example.com/")), 1, 1000);
+        StringBuilder sb = new StringBuilder(HEADERS);
+        switch (response) {
+            case "head":
+                probe.setMethod(NetworkProbe.METHOD_HEAD);
+                sb.append("Content-Length: 1024\r\n\r\n");
+                break;
+            case "contentLength":
+                probe.setMethod(NetworkProbe.METHOD_GET);
+                sb.append("Content-Length: 1024\r\n\r\n");
+                appendBody(sb, 1024);
+                break;
+            default:
+                probe.setMethod(NetworkProbe.METHOD_GET);
+                sb.append("Transfer-Encoding: chunked\r\n\r\n");
+                for (int i = 0; i < 4; i++) {
+                    sb.append("100\r\n");
+                    appendBody(sb, 256);
+                    sb.append("\r\n");
+                }
+                sb.append("0\r\n\r\n");
+                break;
+        }
+        probe.setKeepAlive(true);
+        byte[] bytes = new byte[sb.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) sb.charAt(i);
+        }
+        in = new ByteArrayInputStream(bytes);
+    }
+
+    private static void appendBody(StringBuilder sb, int length) {
+        for (int i = 0; i < length; i++) {
+            sb.append((char) ('a' + i % 26));
+        }
+    }
+
+    @Benchmark
+    public boolean readResponse() throws IOException {
+        in.reset();
+        String statusLine = NetworkProbe.readLine(in, in.read());
+        return probe.readToEnd(in, statusLine, NetworkProbe.parseResponseCode(statusLine));
+    }
+}
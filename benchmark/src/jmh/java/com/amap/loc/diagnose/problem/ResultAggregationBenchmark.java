@@ -0,0 +1,87 @@
+package com.amap.loc.diagnose.problem;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * 检测结果的汇总、编码和描述文字生成
+ *
+ * aggregate与DefaultLocationDiagnoser.checkResult()中汇总定位检测结果的方式相同；encode和decode为追加日志和上报时的
+ * 编解码；renderDescriptions为展示结果时生成描述文字
+ */
+@State(Scope.Thread)
+public class ResultAggregationBenchmark {
+
+    private static final long TIME = 1500000000000L;
+
+    private List<DiagnoseResultItem> results;
+    private ByteBuffer buffer;
+    private byte[] encoded;
+
+    @Setup
+    public void setUp() {
+        results = new ArrayList<>();
+        results.add(aggregate());
+        DiagnoseResultItem netItem = DiagnoseResultItem.checkOk();
+        netItem.code = DiagnoseCode.NET_OK;
+        netItem.metrics = new DiagnoseMetrics().put(DiagnoseMetrics.NET_TOTAL_P50_MS, 180)
+                .put(DiagnoseMetrics.NET_RTT_MS, 40);
+        results.add(netItem);
+        buffer = ByteBuffer.allocate(DiagnoseResultCodec.encodedSize(TIME, results));
+        encoded = DiagnoseResultCodec.encode(TIME, results);
+    }
+
+    @Benchmark
+    public DiagnoseResultItem aggregate() {
+        DiagnoseResultItem.SubItem gpsItem = new DiagnoseResultItem.SubItem(DiagnoseResultItem.CheckResult.Ok,
+                DiagnoseCode.GPS_OK, null);
+        gpsItem.metrics = new DiagnoseMetrics()
+                .put(DiagnoseMetrics.GPS_SATELLITES, 9)
+                .put(DiagnoseMetrics.GPS_VISIBLE_SATELLITES, 24)
+                .put(DiagnoseMetrics.GPS_TTFF_MS, 3200)
+                .putDouble(DiagnoseMetrics.GPS_CN0_MEAN_DBHZ, 31.5);
+        DiagnoseResultItem.SubItem wifiItem = new DiagnoseResultItem.SubItem(DiagnoseResultItem.CheckResult.Ok,
+                DiagnoseCode.WIFI_OK, null);
+        wifiItem.metrics = new DiagnoseMetrics().put(DiagnoseMetrics.WIFI_AP_COUNT, 17)
+                .put(DiagnoseMetrics.WIFI_SCAN_MS, 2100);
+        DiagnoseResultItem.SubItem apItem = new DiagnoseResultItem.SubItem(DiagnoseResultItem.CheckResult.Ok,
+                DiagnoseCode.CELL_OK, null);
+        apItem.metrics = new DiagnoseMetrics().put(DiagnoseMetrics.CELL_COUNT, 5);
+
+        DiagnoseResultItem result = DiagnoseResultItem.checkOk();
+        result.code = DiagnoseCode.LOCATION_OK;
+        result.subItems = new LinkedList<>();
+        result.subItems.add(gpsItem);
+        result.subItems.add(wifiItem);
+        result.subItems.add(apItem);
+        return result;
+    }
+
+    @Benchmark
+    public ByteBuffer encode() {
+        buffer.clear();
+        DiagnoseResultCodec.encode(TIME, results, buffer);
+        return buffer;
+    }
+
+    @Benchmark
+    public DiagnoseResultCodec.Record decode() throws IOException {
+        return DiagnoseResultCodec.decode(ByteBuffer.wrap(encoded));
+    }
+
+    @Benchmark
+    public void renderDescriptions(Blackhole blackhole) {
+        for (DiagnoseResultItem.SubItem subItem : results.get(0).subItems) {
+            blackhole.consume(DiagnoseText.render(subItem.code, subItem.metrics));
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.amap.loc.diagnose.problem;
+
+import com.amap.loc.diagnose.platform.SatelliteStatus;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+
+/**
+ * 卫星状态回调中的卫星统计，每秒执行一次，长时间监测时需要关注
+ *
+ * 用数组模拟GnssStatus中的卫星，统计方式与LocationCheck中的卫星状态回调相同；collectStatistics为
+ * {@link SatelliteStatistics}的完整统计，每次操作不应有内存分配
+ */
+@State(Scope.Thread)
+public class SatelliteCountBenchmark {
+
+    @Param({"12", "40"})
+    public int satelliteCount;
+
+    private final GnssFixCriteria criteria = GnssFixCriteria.DEFAULT;
+    private boolean[] usedInFix;
+    private float[] cn0DbHz;
+    private final SatelliteStatus status = new SatelliteStatus();
+    private final SatelliteStatistics statistics = new SatelliteStatistics();
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        usedInFix = new boolean[satelliteCount];
+        cn0DbHz = new float[satelliteCount];
+        for (int i = 0; i < satelliteCount; i++) {
+            usedInFix[i] = random.nextInt(3) > 0;
+            cn0DbHz[i] = 10 + random.nextFloat() * 35;
+            status.add(usedInFix[i], cn0DbHz[i], 1 + random.nextInt(SatelliteStatus.CONSTELLATION_COUNT - 1),
+                    random.nextFloat() * 360, random.nextFloat() * 90);
+        }
+    }
+
+    @Benchmark
+    public void collectStatistics(Blackhole blackhole) {
+        statistics.add(status);
+        blackhole.consume(statistics.getUsedCount());
+    }
+
+    @Benchmark
+    public void countSatellites(Blackhole blackhole) {
+        int numOfSatellites = 0;
+        int numOfQualified = 0;
+        float totalCn0 = 0;
+        for (int i = 0; i < satelliteCount; i++) {
+            boolean used = usedInFix[i];
+            float cn0 = cn0DbHz[i];
+            if (used) {
+                numOfSatellites++;
+                totalCn0 += cn0;
+            }
+            if (criteria.isQualified(used, cn0)) {
+                numOfQualified++;
+            }
+        }
+        blackhole.consume(numOfSatellites);
+        blackhole.consume(numOfSatellites > 0 ? totalCn0 / numOfSatellites : 0);
+        blackhole.consume(criteria.isSatisfied(numOfQualified));
+    }
+}
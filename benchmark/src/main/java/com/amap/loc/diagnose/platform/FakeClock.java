@@ -0,0 +1,110 @@
+package com.amap.loc.diagnose.platform;
+
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+/**
+ * 虚拟时钟，时间只在执行任务时跳到任务的计划时间，不真正等待，用于在JVM中快速回放检测流程
+ *
+ * 不是线程安全的，所有方法都必须在同一线程中调用
+ */
+public class FakeClock implements DiagnoseClock {
+
+    private static class Task implements Comparable<Task> {
+        final long time;
+        final long seq;
+        final Runnable runnable;
+
+        Task(long time, long seq, Runnable runnable) {
+            this.time = time;
+            this.seq = seq;
+            this.runnable = runnable;
+        }
+
+        @Override
+        public int compareTo(Task another) {
+            if (time != another.time) {
+                return time < another.time ? -1 : 1;
+            }
+            return seq < another.seq ? -1 : (seq == another.seq ? 0 : 1);
+        }
+    }
+
+    private final PriorityQueue<Task> tasks = new PriorityQueue<>();
+    private long now;
+    private long seq;
+
+    public FakeClock() {
+        this(0);
+    }
+
+    /**
+     * @param startTime 初始时间，单位毫秒
+     */
+    public FakeClock(long startTime) {
+        this.now = startTime;
+    }
+
+    @Override
+    public long elapsedRealtime() {
+        return now;
+    }
+
+    @Override
+    public void postDelayed(Runnable runnable, long delayMillis) {
+        tasks.add(new Task(now + Math.max(delayMillis, 0), seq++, runnable));
+    }
+
+    @Override
+    public void removeCallbacks(Runnable runnable) {
+        Iterator<Task> iterator = tasks.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().runnable == runnable) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * @return 尚未执行的任务数
+     */
+    public int getPendingCount() {
+        return tasks.size();
+    }
+
+    /**
+     * 执行计划时间不晚于当前时间+duration的任务，时间前进duration
+     * @param duration 前进的时间，单位毫秒
+     */
+    public void advance(long duration) {
+        long end = now + duration;
+        runUntil(end);
+        now = end;
+    }
+
+    /**
+     * 按计划时间依次执行任务，直到没有任务，时间停在最后一个任务的计划时间
+     * @param maxTasks 最多执行的任务数，用于防止任务不断提交新任务导致无法结束
+     * @return 执行的任务数
+     */
+    public int runUntilIdle(int maxTasks) {
+        int count = 0;
+        while (!tasks.isEmpty() && count < maxTasks) {
+            runNext();
+            count++;
+        }
+        return count;
+    }
+
+    private void runUntil(long end) {
+        while (!tasks.isEmpty() && tasks.peek().time <= end) {
+            runNext();
+        }
+    }
+
+    private void runNext() {
+        Task task = tasks.poll();
+        now = Math.max(now, task.time);
+        task.runnable.run();
+    }
+}
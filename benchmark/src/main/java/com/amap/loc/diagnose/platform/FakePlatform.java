@@ -0,0 +1,269 @@
+package com.amap.loc.diagnose.platform;
+
+import java.util.List;
+
+/**
+ * 按{@link FakeTimeline}回放的{@link DiagnosePlatform}，不依赖Android，可以在JVM中运行检测流程
+ *
+ * 时间由{@link FakeClock}控制，各数据源开始工作时按时间线中的相对时间提交事件，调用
+ * {@link FakeClock#runUntilIdle(int)}即可跳过所有等待，瞬间完成一次检测。不是线程安全的
+ */
+public class FakePlatform extends DiagnosePlatform {
+
+    public final FakeClock fakeClock;
+    public final FakeTimeline timeline;
+
+    public FakePlatform(FakeTimeline timeline) {
+        this(new FakeClock(), timeline);
+    }
+
+    private FakePlatform(FakeClock clock, FakeTimeline timeline) {
+        super(clock, new FakeLocationSource(clock, timeline), new FakeWifiSource(clock, timeline),
+                new FakeCellSource(clock, timeline), new FakeConnectivitySource(timeline));
+        this.fakeClock = clock;
+        this.timeline = timeline;
+    }
+
+    /**
+     * 在时间线中的事件时间执行的任务，stop后不再回调
+     */
+    private abstract static class Replay implements Runnable {
+        final FakeTimeline.Event event;
+
+        Replay(FakeTimeline.Event event) {
+            this.event = event;
+        }
+    }
+
+    private static class FakeLocationSource implements LocationSource {
+
+        private final FakeClock clock;
+        private final FakeTimeline timeline;
+        private final SatelliteStatus satelliteStatus = new SatelliteStatus();
+        private final List<FakeTimeline.Event> events;
+        private final Runnable[] replays;
+        private Listener listener;
+
+        FakeLocationSource(FakeClock clock, FakeTimeline timeline) {
+            this.clock = clock;
+            this.timeline = timeline;
+            this.events = timeline.getEvents("gps.");
+            this.replays = new Runnable[events.size()];
+            for (int i = 0; i < replays.length; i++) {
+                replays[i] = new Replay(events.get(i)) {
+                    @Override
+                    public void run() {
+                        dispatch(event);
+                    }
+                };
+            }
+        }
+
+        private void dispatch(FakeTimeline.Event event) {
+            if (listener == null) {
+                return;
+            }
+            switch (event.type) {
+                case FakeTimeline.GPS_SATELLITES:
+                    int visible = (int) event.arg(0, 0);
+                    int used = (int) event.arg(1, 0);
+                    float cn0 = (float) event.arg(2, 0);
+                    // 参与定位的卫星使用给定的信号强度，其余卫星弱10dB-Hz；卫星交替属于GPS和北斗，方位角均匀分布，
+                    // 高度角在15~85度之间
+                    satelliteStatus.clear();
+                    for (int i = 0; i < visible; i++) {
+                        satelliteStatus.add(i < used, i < used ? cn0 : Math.max(cn0 - 10, 0),
+                                i % 2 == 0 ? SatelliteStatus.CONSTELLATION_GPS : SatelliteStatus.CONSTELLATION_BEIDOU,
+                                360f * i / visible, 15 + (i * 37) % 71);
+                    }
+                    listener.onSatelliteStatus(satelliteStatus);
+                    break;
+                case FakeTimeline.GPS_LOCATION:
+                    listener.onLocationChanged();
+                    break;
+                case FakeTimeline.GPS_STOPPED:
+                    listener.onGpsStopped();
+                    break;
+                case FakeTimeline.GPS_DISABLED:
+                    listener.onProviderDisabled();
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        @Override
+        public boolean hasLocationPermission() {
+            return timeline.locationPermission;
+        }
+
+        @Override
+        public boolean start(Listener listener) {
+            if (!timeline.locationAvailable) {
+                return false;
+            }
+            this.listener = listener;
+            for (int i = 0; i < replays.length; i++) {
+                clock.postDelayed(replays[i], events.get(i).time);
+            }
+            return true;
+        }
+
+        @Override
+        public void stop() {
+            listener = null;
+            for (Runnable replay : replays) {
+                clock.removeCallbacks(replay);
+            }
+        }
+    }
+
+    private static class FakeWifiSource implements WifiSource {
+
+        private final FakeClock clock;
+        private final FakeTimeline timeline;
+        private final List<FakeTimeline.Event> events;
+        private final Runnable[] replays;
+        private boolean hasScanEvent;
+        private int apCount;
+        private Listener listener;
+
+        FakeWifiSource(FakeClock clock, FakeTimeline timeline) {
+            this.clock = clock;
+            this.timeline = timeline;
+            this.events = timeline.getEvents("wifi.");
+            this.replays = new Runnable[events.size()];
+            for (int i = 0; i < replays.length; i++) {
+                FakeTimeline.Event event = events.get(i);
+                if (FakeTimeline.WIFI_SCAN.equals(event.type)) {
+                    hasScanEvent = true;
+                }
+                replays[i] = new Replay(event) {
+                    @Override
+                    public void run() {
+                        dispatch(event);
+                    }
+                };
+            }
+            apCount = timeline.wifiCachedApCount;
+        }
+
+        private void dispatch(FakeTimeline.Event event) {
+            if (listener == null) {
+                return;
+            }
+            switch (event.type) {
+                case FakeTimeline.WIFI_SCAN:
+                    apCount = (int) event.arg(0, 0);
+                    listener.onScanResults();
+                    break;
+                case FakeTimeline.WIFI_DISABLED:
+                    listener.onWifiDisabled();
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        @Override
+        public int getState() {
+            return timeline.wifiState;
+        }
+
+        @Override
+        public boolean startScan(Listener listener) {
+            apCount = timeline.wifiCachedApCount;
+            if (!hasScanEvent) {
+                return false;
+            }
+            this.listener = listener;
+            for (int i = 0; i < replays.length; i++) {
+                clock.postDelayed(replays[i], events.get(i).time);
+            }
+            return true;
+        }
+
+        @Override
+        public void stopScan() {
+            listener = null;
+            for (Runnable replay : replays) {
+                clock.removeCallbacks(replay);
+            }
+        }
+
+        @Override
+        public int getScanResultCount() {
+            return apCount;
+        }
+    }
+
+    private static class FakeCellSource implements CellSource {
+
+        private final FakeClock clock;
+        private final FakeTimeline timeline;
+        private final FakeTimeline.Event event;
+
+        FakeCellSource(FakeClock clock, FakeTimeline timeline) {
+            this.clock = clock;
+            this.timeline = timeline;
+            List<FakeTimeline.Event> events = timeline.getEvents(FakeTimeline.CELL_INFO);
+            this.event = events.isEmpty() ? null : events.get(0);
+        }
+
+        @Override
+        public boolean isAvailable() {
+            return timeline.cellAvailable;
+        }
+
+        @Override
+        public void requestCellInfo(final Callback callback) {
+            if (event == null) {
+                callback.onCellInfo(new CellStatus());
+                return;
+            }
+            clock.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    callback.onCellInfo(createStatus());
+                }
+            }, event.time);
+        }
+
+        /**
+         * 第一个基站为服务小区，其余为同制式的邻区，信号比服务小区弱10dBm
+         */
+        private CellStatus createStatus() {
+            int count = (int) event.arg(0, 0);
+            if (count < 0) {
+                return null;
+            }
+            int rat = (int) event.arg(1, CellStatus.RAT_UNKNOWN);
+            int dbm = (int) event.arg(2, CellStatus.DBM_UNKNOWN);
+            long age = (long) event.arg(3, 0);
+            CellStatus status = new CellStatus(Math.max(count, 1));
+            for (int i = 0; i < count; i++) {
+                status.add(rat, i == 0, i == 0 || dbm == CellStatus.DBM_UNKNOWN ? dbm : dbm - 10, age);
+            }
+            return status;
+        }
+
+        @Override
+        public boolean isSimReady() {
+            return timeline.simReady;
+        }
+    }
+
+    private static class FakeConnectivitySource implements ConnectivitySource {
+
+        private final FakeTimeline timeline;
+
+        FakeConnectivitySource(FakeTimeline timeline) {
+            this.timeline = timeline;
+        }
+
+        @Override
+        public boolean isAirplaneModeOn() {
+            return timeline.airplaneMode;
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package com.amap.loc.diagnose.platform;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * {@link FakePlatform}回放的时间线：设备的初始状态，以及开始检测后各个时间点发生的事件
+ *
+ * 文本格式，每行一条，#开头为注释：
+ * <pre>
+ * # 初始状态，未设置时为括号中的默认值
+ * location.permission false    # 是否有定位权限（true）
+ * location.available false     # 定位服务是否可用（true）
+ * airplane true                # 飞行模式（false）
+ * cell.available false         # 电话服务是否可用（true）
+ * sim.ready false              # sim卡是否可用（true）
+ * wifi.state disabled          # enabled、disabled、unavailable（enabled）
+ * wifi.cached 3                # 系统缓存的扫描结果热点数（0）
+ *
+ * # 事件：时间（毫秒，相对开始检测） 事件 参数
+ * 1000 gps.satellites 24 9 32.5   # 搜索到的卫星数、参与定位的卫星数、参与定位卫星的平均信号强度
+ * 3200 gps.location               # GPS定位成功
+ * 5000 gps.stopped                # GPS停止工作
+ * 5000 gps.disabled               # GPS定位开关被关闭
+ * 2100 wifi.scan 12               # 扫描完成，热点数；没有该事件时主动扫描失败
+ * 2100 wifi.disabled              # wifi被关闭
+ * 50 cell.info 5                  # 获取到基站信息，基站数，0为未获取到，-1为获取失败；没有该事件时为0
+ * 50 cell.info 5 5 -98 1200       # 同上，另外给出服务小区的制式（CellStatus.RAT_*）、信号强度（dBm）和信息时效（毫秒）
+ * </pre>
+ * 可以通过{@link TimelineRecorder}在设备上录制，{@link TimelineRecorder#getTimeline()}即为该格式
+ */
+public class FakeTimeline {
+
+    public static final String GPS_SATELLITES = TimelineRecorder.GPS_SATELLITES;
+    public static final String GPS_LOCATION = TimelineRecorder.GPS_LOCATION;
+    public static final String GPS_STOPPED = TimelineRecorder.GPS_STOPPED;
+    public static final String GPS_DISABLED = TimelineRecorder.GPS_DISABLED;
+    public static final String WIFI_SCAN = TimelineRecorder.WIFI_SCAN;
+    public static final String WIFI_DISABLED = TimelineRecorder.WIFI_DISABLED;
+    public static final String CELL_INFO = TimelineRecorder.CELL_INFO;
+
+    public static class Event implements Comparable<Event> {
+        /**
+         * 相对开始检测的时间，单位毫秒
+         */
+        public final long time;
+        public final String type;
+        public final double[] args;
+
+        public Event(long time, String type, double... args) {
+            this.time = time;
+            this.type = type;
+            this.args = args;
+        }
+
+        public double arg(int index, double defaultValue) {
+            return index < args.length ? args[index] : defaultValue;
+        }
+
+        @Override
+        public int compareTo(Event another) {
+            return time < another.time ? -1 : (time == another.time ? 0 : 1);
+        }
+    }
+
+    public boolean locationPermission = true;
+    public boolean locationAvailable = true;
+    public boolean airplaneMode = false;
+    public boolean cellAvailable = true;
+    public boolean simReady = true;
+    public int wifiState = WifiSource.STATE_ENABLED;
+    public int wifiCachedApCount = 0;
+
+    private final List<Event> events = new ArrayList<>();
+
+    /**
+     * 添加事件
+     * @return this，便于连续调用
+     */
+    public FakeTimeline at(long time, String type, double... args) {
+        Event event = new Event(time, type, args);
+        // 保持按时间排序，同一时间的事件保持添加顺序
+        int index = events.size();
+        while (index > 0 && events.get(index - 1).time > time) {
+            index--;
+        }
+        events.add(index, event);
+        return this;
+    }
+
+    /**
+     * @return 按时间排序的事件
+     */
+    public List<Event> getEvents() {
+        return Collections.unmodifiableList(events);
+    }
+
+    /**
+     * @param prefix 事件类型前缀，如"gps."
+     * @return 类型以prefix开头的事件，按时间排序
+     */
+    public List<Event> getEvents(String prefix) {
+        List<Event> result = new ArrayList<>();
+        for (Event event : events) {
+            if (event.type.startsWith(prefix)) {
+                result.add(event);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 解析文本格式的时间线
+     * @throws IllegalArgumentException 格式错误时
+     */
+    public static FakeTimeline parse(String text) {
+        FakeTimeline timeline = new FakeTimeline();
+        BufferedReader reader = new BufferedReader(new StringReader(text));
+        int lineNumber = 0;
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                int comment = line.indexOf('#');
+                if (comment >= 0) {
+                    line = line.substring(0, comment);
+                }
+                line = line.trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+                String[] parts = line.split("\\s+");
+                if (Character.isDigit(parts[0].charAt(0))) {
+                    double[] args = new double[parts.length - 2];
+                    for (int i = 0; i < args.length; i++) {
+                        args[i] = Double.parseDouble(parts[i + 2]);
+                    }
+                    timeline.at(Long.parseLong(parts[0]), parts[1], args);
+                } else if (parts.length == 2) {
+                    timeline.setState(parts[0], parts[1]);
+                } else {
+                    throw new IllegalArgumentException("invalid line");
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            throw new IllegalArgumentException("line " + lineNumber + ": " + e.getMessage(), e);
+        }
+        return timeline;
+    }
+
+    private void setState(String key, String value) {
+        switch (key) {
+            case "location.permission":
+                locationPermission = Boolean.parseBoolean(value);
+                break;
+            case "location.available":
+                locationAvailable = Boolean.parseBoolean(value);
+                break;
+            case "airplane":
+                airplaneMode = Boolean.parseBoolean(value);
+                break;
+            case "cell.available":
+                cellAvailable = Boolean.parseBoolean(value);
+                break;
+            case "sim.ready":
+                simReady = Boolean.parseBoolean(value);
+                break;
+            case "wifi.state":
+                wifiState = parseWifiState(value);
+                break;
+            case "wifi.cached":
+                wifiCachedApCount = Integer.parseInt(value);
+                break;
+            default:
+                throw new IllegalArgumentException("unknown state: " + key);
+        }
+    }
+
+    private static int parseWifiState(String value) {
+        switch (value) {
+            case "enabled":
+                return WifiSource.STATE_ENABLED;
+            case "disabled":
+                return WifiSource.STATE_DISABLED;
+            case "unavailable":
+                return WifiSource.STATE_UNAVAILABLE;
+            default:
+                throw new IllegalArgumentException("unknown wifi state: " + value);
+        }
+    }
+
+    private static String wifiStateName(int state) {
+        switch (state) {
+            case WifiSource.STATE_ENABLED:
+                return "enabled";
+            case WifiSource.STATE_DISABLED:
+                return "disabled";
+            default:
+                return "unavailable";
+        }
+    }
+
+    /**
+     * @return 文本格式，可以用{@link #parse(String)}解析
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("location.permission ").append(locationPermission).append('\n');
+        sb.append("location.available ").append(locationAvailable).append('\n');
+        sb.append("airplane ").append(airplaneMode).append('\n');
+        sb.append("cell.available ").append(cellAvailable).append('\n');
+        sb.append("sim.ready ").append(simReady).append('\n');
+        sb.append("wifi.state ").append(wifiStateName(wifiState)).append('\n');
+        sb.append("wifi.cached ").append(wifiCachedApCount).append('\n');
+        for (Event event : events) {
+            sb.append(event.time).append(' ').append(event.type);
+            for (double arg : event.args) {
+                sb.append(' ');
+                if (arg == (long) arg) {
+                    sb.append((long) arg);
+                } else {
+                    sb.append(String.format(Locale.US, "%.1f", arg));
+                }
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+}
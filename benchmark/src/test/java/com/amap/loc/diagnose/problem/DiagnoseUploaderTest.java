@@ -0,0 +1,254 @@
+package com.amap.loc.diagnose.problem;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 针对本地模拟收集服务的检测结果上报
+ */
+public class DiagnoseUploaderTest {
+
+    private static final long TIMEOUT = 10000;
+
+    /**
+     * 收集服务收到的一次请求
+     */
+    private static class Request {
+        final String reportCount;
+        final String codecVersion;
+        final String appKey;
+        final List<DiagnoseResultCodec.Record> records;
+
+        Request(HttpExchange exchange, List<DiagnoseResultCodec.Record> records) {
+            this.reportCount = exchange.getRequestHeaders().getFirst("X-Diagnose-Report-Count");
+            this.codecVersion = exchange.getRequestHeaders().getFirst("X-Diagnose-Codec-Version");
+            this.appKey = exchange.getRequestHeaders().getFirst("X-App-Key");
+            this.records = records;
+        }
+    }
+
+    private interface Condition {
+        boolean isMet();
+    }
+
+    private HttpServer collector;
+    private File dir;
+    private DiagnoseUploader uploader;
+    private final List<Request> requests = Collections.synchronizedList(new ArrayList<Request>());
+    /**
+     * 收集服务依次返回的状态码，用完后返回200
+     */
+    private final ConcurrentLinkedQueue<Integer> responseCodes = new ConcurrentLinkedQueue<>();
+
+    @Before
+    public void setUp() throws IOException {
+        collector = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        collector.createContext("/collect", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                requests.add(new Request(exchange, decodeBatch(exchange.getRequestBody())));
+                Integer code = responseCodes.poll();
+                exchange.sendResponseHeaders(code == null ? 200 : code, -1);
+                exchange.close();
+            }
+        });
+        collector.start();
+        dir = Files.createTempDirectory("uploader").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        if (uploader != null) {
+            uploader.shutdown();
+        }
+        collector.stop(0);
+        delete(dir);
+    }
+
+    private String collectorUrl() {
+        return "http://127.0.0.1:" + collector.getAddress().getPort() + "/collect";
+    }
+
+    @Test
+    public void uploadBatchWhenBatchSizeReached() throws Exception {
+        uploader = new DiagnoseUploader(dir, collectorUrl());
+        uploader.setBatchSize(2);
+        uploader.setHeader("X-App-Key", "test");
+        uploader.enqueue(1000, results(DiagnoseCode.UNKNOWN));
+        uploader.enqueue(2000, results(DiagnoseCode.UNKNOWN, DiagnoseCode.UNKNOWN));
+        await(new Condition() {
+            @Override
+            public boolean isMet() {
+                return uploader.getStats().uploadedReports == 2;
+            }
+        });
+
+        assertEquals(1, requests.size());
+        Request request = requests.get(0);
+        assertEquals("2", request.reportCount);
+        assertEquals(String.valueOf(DiagnoseResultCodec.VERSION), request.codecVersion);
+        assertEquals("test", request.appKey);
+        assertEquals(2, request.records.size());
+        assertEquals(1000, request.records.get(0).time);
+        assertEquals(1, request.records.get(0).results.size());
+        assertEquals(2000, request.records.get(1).time);
+        assertEquals(2, request.records.get(1).results.size());
+
+        DiagnoseUploader.Stats stats = uploader.getStats();
+        assertEquals(0, stats.queuedReports);
+        assertEquals(0, stats.pendingBatches);
+        assertEquals(1, stats.uploadedBatches);
+        assertTrue(stats.getBytesPerReport() > 0);
+        assertTrue(stats.lastFlushLatency >= 0);
+    }
+
+    @Test
+    public void retryAfterServerError() throws Exception {
+        responseCodes.add(503);
+        uploader = new DiagnoseUploader(dir, collectorUrl());
+        uploader.setBatchSize(1);
+        uploader.setBackoff(50, 200);
+        uploader.enqueue(1000, results(DiagnoseCode.UNKNOWN));
+        await(new Condition() {
+            @Override
+            public boolean isMet() {
+                return uploader.getStats().uploadedReports == 1;
+            }
+        });
+
+        assertEquals(2, requests.size());
+        DiagnoseUploader.Stats stats = uploader.getStats();
+        assertEquals(1, stats.failedAttempts);
+        assertEquals(0, stats.droppedBatches);
+        assertEquals(0, stats.pendingBatches);
+    }
+
+    @Test
+    public void dropBatchRejectedByCollector() throws Exception {
+        responseCodes.add(400);
+        uploader = new DiagnoseUploader(dir, collectorUrl());
+        uploader.setBatchSize(1);
+        uploader.setBackoff(50, 200);
+        uploader.enqueue(1000, results(DiagnoseCode.UNKNOWN));
+        await(new Condition() {
+            @Override
+            public boolean isMet() {
+                return uploader.getStats().droppedBatches == 1;
+            }
+        });
+
+        // 被拒绝的批次不再重试
+        Thread.sleep(300);
+        assertEquals(1, requests.size());
+        DiagnoseUploader.Stats stats = uploader.getStats();
+        assertEquals(0, stats.uploadedReports);
+        assertEquals(0, stats.pendingBatches);
+    }
+
+    @Test
+    public void keepBatchesWhileOffline() throws Exception {
+        // 绑定后立即关闭，得到一个没有服务监听的端口
+        ServerSocket closed = new ServerSocket(0);
+        int port = closed.getLocalPort();
+        closed.close();
+        final DiagnoseUploader offline = new DiagnoseUploader(dir, "http://127.0.0.1:" + port + "/collect");
+        offline.setBatchSize(1);
+        offline.setBackoff(60000, 60000);
+        offline.enqueue(1000, results(DiagnoseCode.UNKNOWN));
+        await(new Condition() {
+            @Override
+            public boolean isMet() {
+                return offline.getStats().failedAttempts == 1;
+            }
+        });
+        assertEquals(1, offline.getStats().pendingBatches);
+        offline.shutdown();
+
+        // 网络恢复后，新的实例继续发送本地保存的批次
+        uploader = new DiagnoseUploader(dir, collectorUrl());
+        uploader.flush();
+        await(new Condition() {
+            @Override
+            public boolean isMet() {
+                return uploader.getStats().uploadedReports == 1;
+            }
+        });
+        assertEquals(1, requests.size());
+        assertEquals(1000, requests.get(0).records.get(0).time);
+    }
+
+    private static List<DiagnoseResultItem> results(int... codes) {
+        List<DiagnoseResultItem> results = new ArrayList<>();
+        for (int code : codes) {
+            DiagnoseResultItem item = DiagnoseResultItem.checkOk();
+            item.code = code;
+            results.add(item);
+        }
+        return results;
+    }
+
+    /**
+     * 解析请求体：gzip压缩后的frame*，frame := length(varint) record
+     */
+    private static List<DiagnoseResultCodec.Record> decodeBatch(InputStream body) throws IOException {
+        GZIPInputStream gzip = new GZIPInputStream(body);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int len;
+        while ((len = gzip.read(buffer)) != -1) {
+            bos.write(buffer, 0, len);
+        }
+        ByteBuffer in = ByteBuffer.wrap(bos.toByteArray());
+        List<DiagnoseResultCodec.Record> records = new ArrayList<>();
+        while (in.hasRemaining()) {
+            int length = (int) DiagnoseResultCodec.readVarint(in);
+            ByteBuffer record = in.slice();
+            record.limit(length);
+            records.add(DiagnoseResultCodec.decode(record));
+            in.position(in.position() + length);
+        }
+        return records;
+    }
+
+    private static void await(Condition condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (!condition.isMet()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("timed out");
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,147 @@
+package com.amap.loc.diagnose.problem;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 针对本地HTTP服务的网络探测
+ */
+public class NetworkProbeTest {
+
+    private static final int SAMPLES = 3;
+    private static final int TIMEOUT = 3000;
+    private static final byte[] BODY = new byte[]{'o', 'k'};
+
+    private HttpServer server;
+    private ExecutorService executor;
+    /**
+     * 服务收到的请求方法及客户端端口，每个端口对应一个连接
+     */
+    private final List<String> methods = Collections.synchronizedList(new ArrayList<String>());
+    private final Set<Integer> clientPorts = Collections.synchronizedSet(new HashSet<Integer>());
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                methods.add(exchange.getRequestMethod());
+                clientPorts.add(exchange.getRemoteAddress().getPort());
+                if ("HEAD".equals(exchange.getRequestMethod())) {
+                    // 响应后服务直接关闭连接，不发送Connection: close
+                    exchange.sendResponseHeaders(200, -1);
+                } else {
+                    exchange.sendResponseHeaders(200, BODY.length);
+                    exchange.getResponseBody().write(BODY);
+                }
+                exchange.close();
+            }
+        });
+        server.start();
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private String localUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+    }
+
+    @Test
+    public void probeEachSampleOnNewConnection() throws InterruptedException {
+        NetworkProbe probe = new NetworkProbe(Collections.singletonList(
+                new NetworkProbe.Endpoint("local", localUrl())), SAMPLES, TIMEOUT);
+        NetworkProbe.EndpointResult result = probe.run(executor).get(0);
+
+        assertTrue(result.isReachable());
+        assertEquals(SAMPLES, result.successCount);
+        assertEquals(0, result.failCount);
+        assertEquals(200, result.responseCode);
+        assertEquals(SAMPLES, clientPorts.size());
+        assertEquals(Arrays.asList("GET", "GET", "GET"), methods);
+        // 只在第一次建立连接时解析域名
+        assertEquals(1, result.getPhase(NetworkProbe.PHASE_DNS).count);
+        assertEquals(SAMPLES, result.getPhase(NetworkProbe.PHASE_CONNECT).count);
+        assertEquals(SAMPLES, result.getPhase(NetworkProbe.PHASE_FIRST_BYTE).count);
+        assertEquals(SAMPLES, result.getPhase(NetworkProbe.PHASE_TOTAL).count);
+        assertNull(result.getPhase(NetworkProbe.PHASE_TLS));
+        assertNull(result.getWarmPhase(NetworkProbe.PHASE_TOTAL));
+    }
+
+    @Test
+    public void probeReusesConnection() throws InterruptedException {
+        NetworkProbe probe = new NetworkProbe(Collections.singletonList(
+                new NetworkProbe.Endpoint("local", localUrl())), SAMPLES, TIMEOUT);
+        probe.setKeepAlive(true);
+        NetworkProbe.EndpointResult result = probe.run(executor).get(0);
+
+        assertEquals(SAMPLES, result.successCount);
+        assertEquals(1, clientPorts.size());
+        assertEquals(1, result.getPhase(NetworkProbe.PHASE_TOTAL).count);
+        assertEquals(SAMPLES - 1, result.getWarmPhase(NetworkProbe.PHASE_TOTAL).count);
+        assertTrue(result.bytesReceived > 0);
+    }
+
+    @Test
+    public void probeReconnectsWhenServerClosesConnection() throws InterruptedException {
+        NetworkProbe probe = new NetworkProbe(Collections.singletonList(
+                new NetworkProbe.Endpoint("local", localUrl())), SAMPLES, TIMEOUT);
+        probe.setMethod(NetworkProbe.METHOD_HEAD);
+        probe.setKeepAlive(true);
+        NetworkProbe.EndpointResult result = probe.run(executor).get(0);
+
+        assertEquals(SAMPLES, result.successCount);
+        assertEquals(0, result.failCount);
+        assertEquals(Arrays.asList("HEAD", "HEAD", "HEAD"), methods);
+        assertEquals(SAMPLES, clientPorts.size());
+        assertEquals(SAMPLES, result.getPhase(NetworkProbe.PHASE_TOTAL).count);
+        assertNull(result.getWarmPhase(NetworkProbe.PHASE_TOTAL));
+    }
+
+    @Test
+    public void probeUnreachableEndpoint() throws IOException, InterruptedException {
+        // 绑定后立即关闭，得到一个没有服务监听的端口
+        ServerSocket closed = new ServerSocket(0);
+        int port = closed.getLocalPort();
+        closed.close();
+        NetworkProbe probe = new NetworkProbe(Arrays.asList(
+                new NetworkProbe.Endpoint("local", localUrl()),
+                new NetworkProbe.Endpoint("closed", "http://127.0.0.1:" + port + "/")), SAMPLES, TIMEOUT);
+        List<NetworkProbe.EndpointResult> results = probe.run(executor);
+
+        assertTrue(results.get(0).isReachable());
+        NetworkProbe.EndpointResult result = results.get(1);
+        assertFalse(result.isReachable());
+        assertEquals(SAMPLES, result.failCount);
+        assertEquals(-1, result.responseCode);
+        assertNotNull(result.lastError);
+    }
+}
@@ -0,0 +1,405 @@
+package com.amap.loc.diagnose;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.amap.loc.diagnose.permission.PermissionStateService;
+import com.amap.loc.diagnose.platform.DeviceStateService;
+import com.amap.loc.diagnose.problem.DefaultLocNetDiagnoser;
+import com.amap.loc.diagnose.problem.DefaultLocPermissionDiagnoser;
+import com.amap.loc.diagnose.problem.DefaultLocationDiagnoser;
+import com.amap.loc.diagnose.problem.DiagnoseExecutor;
+import com.amap.loc.diagnose.problem.DiagnoseLog;
+import com.amap.loc.diagnose.problem.DiagnoseResultCache;
+import com.amap.loc.diagnose.problem.DiagnoseResultItem;
+import com.amap.loc.diagnose.problem.DiagnoseScheduler;
+import com.amap.loc.diagnose.problem.DiagnoseTrace;
+import com.amap.loc.diagnose.problem.DiagnoseUploader;
+import com.amap.loc.diagnose.problem.DiagnoseView;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 无界面的定位异常检测引擎，负责调用检测项的prepare方法并调度检测，汇总检测结果
+ *
+ * 可以在不展示{@link DiagnoseView}的情况下检测，例如在应用启动时或定位失败时静默检测，{@link DiagnoseView}
+ * 也是基于该引擎展示检测过程和结果的
+ *
+ * 使用方法：
+ * <pre>
+ * DiagnoseEngine engine = new DiagnoseEngine(context);
+ * engine.start(DiagnoseEngine.createDefaultDiagnosers(), new DiagnoseEngine.SimpleCallback() {
+ *     public void onAllDiagnoseFinish(List&lt;DiagnoseResultItem&gt; diagnoseResults) {
+ *         // 处理检测结果
+ *     }
+ * });
+ * </pre>
+ *
+ * 一个DiagnoseEngine对象只能进行一次检测
+ */
+public class DiagnoseEngine {
+
+    public interface Callback extends DiagnoseScheduler.Callback {
+    }
+
+    /**
+     * 只关心最终结果时使用的回调，其余回调方法为空实现
+     */
+    public static abstract class SimpleCallback implements Callback {
+        @Override
+        public void onDiagnoseStart(int index) {
+        }
+
+        @Override
+        public void onDiagnoseProgress(int index, DiagnoseResultItem partialResult) {
+        }
+
+        @Override
+        public void onDiagnoseFinish(int index, DiagnoseResultItem diagnoseResultItem) {
+        }
+
+        @Override
+        public void onDiagnoseRefresh(int index, DiagnoseResultItem diagnoseResultItem) {
+        }
+    }
+
+    private static final String TAG = "DiagnoseEngine";
+
+    private final Context context;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private boolean parallel = true;
+    private boolean useResultCache = false;
+    private long minDiagnoseDuration = 0;
+    private DiagnoseLog resultLog;
+    private DiagnoseUploader uploader;
+    private DiagnoseTrace trace;
+
+    private DiagnoseScheduler scheduler;
+    private boolean started = false;
+    private boolean cancelled = false;
+    private boolean observingDeviceState = false;
+
+    /**
+     * @param context 传给检测项的Context，静默检测时建议使用Application Context
+     */
+    public DiagnoseEngine(Context context) {
+        this.context = context;
+    }
+
+    /**
+     * 创建默认的检测项：运行时权限（仅6.0及以上系统）、网络连接、定位
+     * @return 默认的检测项
+     */
+    public static List<DiagnoseView.Diagnoser> createDefaultDiagnosers() {
+        List<DiagnoseView.Diagnoser> diagnosers = new LinkedList<>();
+        // 高于M的手机才检查运行时权限
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            diagnosers.add(new DefaultLocPermissionDiagnoser());
+        }
+        diagnosers.add(new DefaultLocNetDiagnoser());
+        diagnosers.add(new DefaultLocationDiagnoser());
+        return diagnosers;
+    }
+
+    /**
+     * 设置是否并行检测，默认并行，必须在检测开始前调用
+     * @param parallel 是否并行检测，为false时按列表顺序依次检测
+     */
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    /**
+     * 设置是否使用检测结果缓存，默认不使用，必须在检测开始前调用，见{@link DiagnoseResultCache}
+     * @param useResultCache 是否使用检测结果缓存
+     */
+    public void setUseResultCache(boolean useResultCache) {
+        this.useResultCache = useResultCache;
+    }
+
+    /**
+     * 设置每个检测项的最短检测时间，默认为0，必须在检测开始前调用，见{@link DiagnoseScheduler#setMinDiagnoseDuration(long)}
+     * @param minDiagnoseDuration 最短检测时间，单位毫秒
+     */
+    public void setMinDiagnoseDuration(long minDiagnoseDuration) {
+        this.minDiagnoseDuration = minDiagnoseDuration;
+    }
+
+    /**
+     * 设置检测结果日志，必须在检测开始前调用；设置后所有检测项完成时，在后台线程中将检测结果追加到日志。使用了缓存
+     * 结果的检测项（见{@link #setUseResultCache(boolean)}）等到后台重新检测完成后，以新的结果记录
+     * @param resultLog 检测结果日志，为null时不记录
+     */
+    public void setResultLog(DiagnoseLog resultLog) {
+        this.resultLog = resultLog;
+    }
+
+    /**
+     * 设置检测结果上报，必须在检测开始前调用；设置后所有检测项完成时将检测结果加入上报队列，与检测结果日志一样
+     * 使用了缓存结果时以后台重新检测的结果上报，见{@link DiagnoseUploader}
+     * @param uploader 检测结果上报，为null时不上报
+     */
+    public void setUploader(DiagnoseUploader uploader) {
+        this.uploader = uploader;
+    }
+
+    /**
+     * 设置耗时记录，必须在检测开始前调用；设置后记录每个检测项的prepare、检测过程及其内部各阶段（实现了
+     * {@link DiagnoseView.TraceableDiagnoser}的检测项），见{@link DiagnoseTrace}
+     * @param trace 耗时记录，为null时不记录
+     */
+    public void setTrace(DiagnoseTrace trace) {
+        this.trace = trace;
+    }
+
+    /**
+     * 开始检测，必须在主线程中调用，所有回调都在主线程中进行
+     * @param diagnosers 检测项
+     * @param callback 检测回调
+     */
+    public void start(List<DiagnoseView.Diagnoser> diagnosers, Callback callback) {
+        if (started) {
+            throw new IllegalStateException("DiagnoseEngine can only be started once");
+        }
+        started = true;
+        if (cancelled) {
+            return;
+        }
+        // 检测期间监听设备状态，检测项直接读取缓存的飞行模式、定位开关、wifi开关
+        DeviceStateService.getInstance(context).startObserving();
+        observingDeviceState = true;
+        // 宿主可能自行申请过权限，每次检测重新获取授权状态，同一次检测中的检测项读取同一份快照
+        PermissionStateService.getInstance(context).invalidate();
+        for (DiagnoseView.Diagnoser diagnoser : diagnosers) {
+            if (trace == null) {
+                diagnoser.prepare(context);
+                continue;
+            }
+            if (diagnoser instanceof DiagnoseView.TraceableDiagnoser) {
+                ((DiagnoseView.TraceableDiagnoser) diagnoser).setTrace(trace);
+            }
+            DiagnoseTrace.Span span = trace.begin(DiagnoseTrace.CATEGORY_ENGINE, "prepare " + diagnoser.getTitle());
+            diagnoser.prepare(context);
+            trace.end(span);
+        }
+        scheduler = new DiagnoseScheduler(context, diagnosers, new RunCallback(callback));
+        scheduler.setSerial(!parallel);
+        scheduler.setMinDiagnoseDuration(minDiagnoseDuration);
+        scheduler.setTrace(trace);
+        if (useResultCache) {
+            scheduler.setResultCache(DiagnoseResultCache.getInstance(context));
+        }
+        scheduler.start();
+    }
+
+    /**
+     * 开始检测，可以在任意线程中调用，检测在主线程中进行
+     *
+     * 不能在主线程中调用返回值的get方法等待结果，否则会阻塞检测本身
+     *
+     * @param diagnosers 检测项
+     * @return 所有检测项完成后的检测结果
+     */
+    public Future<List<DiagnoseResultItem>> submit(final List<DiagnoseView.Diagnoser> diagnosers) {
+        final ResultFuture future = new ResultFuture();
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                start(diagnosers, new SimpleCallback() {
+                    @Override
+                    public void onAllDiagnoseFinish(List<DiagnoseResultItem> diagnoseResults) {
+                        future.set(diagnoseResults);
+                    }
+                });
+            }
+        });
+        return future;
+    }
+
+    /**
+     * 取消检测，取消后不会再有任何回调，必须在主线程中调用
+     */
+    public void cancel() {
+        cancelled = true;
+        if (scheduler != null) {
+            scheduler.cancel();
+        }
+        stopObservingDeviceState();
+    }
+
+    private void stopObservingDeviceState() {
+        if (observingDeviceState) {
+            observingDeviceState = false;
+            DeviceStateService.getInstance(context).stopObserving();
+        }
+    }
+
+    /**
+     * 某个检测项是否已经完成，必须在主线程中调用
+     * @param index 检测项在列表中的位置
+     * @return 是否已经完成，检测未开始时返回false
+     */
+    public boolean isFinished(int index) {
+        return scheduler != null && scheduler.isFinished(index);
+    }
+
+    /**
+     * 所有检测项完成时停止监听设备状态，之后后台刷新缓存结果时直接查询系统设置；设置了检测结果日志或上报时记录并
+     * 上报检测结果。其余回调直接转发
+     *
+     * 缓存结果在之前的检测中已经记录过，有检测项使用了缓存结果时，等到这些检测项全部在后台重新检测完成，再以新的
+     * 结果记录；期间检测被取消时不记录
+     */
+    private class RunCallback implements Callback {
+
+        private final Callback callback;
+        /**
+         * 等待后台重新检测的结果，为null时没有等待记录的结果
+         */
+        private List<DiagnoseResultItem> pendingResults;
+        private int pendingRefreshCount;
+
+        RunCallback(Callback callback) {
+            this.callback = callback;
+        }
+
+        @Override
+        public void onDiagnoseStart(int index) {
+            callback.onDiagnoseStart(index);
+        }
+
+        @Override
+        public void onDiagnoseProgress(int index, DiagnoseResultItem partialResult) {
+            callback.onDiagnoseProgress(index, partialResult);
+        }
+
+        @Override
+        public void onDiagnoseFinish(int index, DiagnoseResultItem diagnoseResultItem) {
+            callback.onDiagnoseFinish(index, diagnoseResultItem);
+        }
+
+        @Override
+        public void onDiagnoseRefresh(int index, DiagnoseResultItem diagnoseResultItem) {
+            if (pendingResults != null) {
+                pendingResults.set(index, diagnoseResultItem);
+                if (--pendingRefreshCount == 0) {
+                    record(pendingResults);
+                    pendingResults = null;
+                }
+            }
+            callback.onDiagnoseRefresh(index, diagnoseResultItem);
+        }
+
+        @Override
+        public void onAllDiagnoseFinish(List<DiagnoseResultItem> diagnoseResults) {
+            stopObservingDeviceState();
+            if (resultLog != null || uploader != null) {
+                int fromCacheCount = 0;
+                for (int i = 0; i < diagnoseResults.size(); i++) {
+                    if (scheduler.isFromCache(i)) {
+                        fromCacheCount++;
+                    }
+                }
+                if (fromCacheCount == 0) {
+                    record(diagnoseResults);
+                } else {
+                    pendingResults = new ArrayList<>(diagnoseResults);
+                    pendingRefreshCount = fromCacheCount;
+                }
+            }
+            callback.onAllDiagnoseFinish(diagnoseResults);
+        }
+
+        private void record(final List<DiagnoseResultItem> diagnoseResults) {
+            final long time = System.currentTimeMillis();
+            if (resultLog != null) {
+                DiagnoseExecutor.getDefault().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            resultLog.append(time, diagnoseResults);
+                        } catch (IOException e) {
+                            Log.w(TAG, "append result log failed", e);
+                        }
+                    }
+                });
+            }
+            if (uploader != null) {
+                uploader.enqueue(time, diagnoseResults);
+            }
+        }
+    }
+
+    private class ResultFuture implements Future<List<DiagnoseResultItem>> {
+
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private volatile List<DiagnoseResultItem> result;
+        private volatile boolean futureCancelled = false;
+
+        void set(List<DiagnoseResultItem> result) {
+            this.result = result;
+            latch.countDown();
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if (isDone()) {
+                return false;
+            }
+            futureCancelled = true;
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    DiagnoseEngine.this.cancel();
+                }
+            });
+            latch.countDown();
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return futureCancelled;
+        }
+
+        @Override
+        public boolean isDone() {
+            return latch.getCount() == 0;
+        }
+
+        @Override
+        public List<DiagnoseResultItem> get() throws InterruptedException, ExecutionException {
+            latch.await();
+            return getResult();
+        }
+
+        @Override
+        public List<DiagnoseResultItem> get(long timeout, TimeUnit unit)
+                throws InterruptedException, ExecutionException, TimeoutException {
+            if (!latch.await(timeout, unit)) {
+                throw new TimeoutException();
+            }
+            return getResult();
+        }
+
+        private List<DiagnoseResultItem> getResult() throws ExecutionException {
+            if (futureCancelled) {
+                throw new CancellationException();
+            }
+            return result;
+        }
+    }
+}
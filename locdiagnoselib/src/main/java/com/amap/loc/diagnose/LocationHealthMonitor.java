@@ -0,0 +1,328 @@
+package com.amap.loc.diagnose;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+
+import com.amap.loc.diagnose.platform.DeviceStateService;
+import com.amap.loc.diagnose.problem.DefaultLocationDiagnoser;
+import com.amap.loc.diagnose.problem.DiagnoseLog;
+import com.amap.loc.diagnose.problem.DiagnoseResultItem;
+import com.amap.loc.diagnose.problem.DiagnoseUploader;
+import com.amap.loc.diagnose.problem.DiagnoseView;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * 后台定位状态监测，按自适应的间隔反复进行GPS、wifi、基站检测，保存最近若干次的检测快照
+ *
+ * 用户打开检测界面时，短暂的异常（GPS信号丢失、wifi扫描被限制、无基站）往往已经消失，通过监测可以在事后查看异常发生时的
+ * 状态；检测复用{@link DefaultLocationDiagnoser}，但缩短GPS超时时间，状态正常时只使用系统缓存的wifi扫描结果
+ *
+ * 采样间隔：出现异常时恢复为最小间隔，连续正常时逐次加倍，直到最大间隔；同时保证检测耗时占总时间的比例（占空比）不超过
+ * {@link #setMaxDutyCycle(float)}设置的上限。采样基于主线程Handler，设备休眠时不会唤醒设备采样
+ *
+ * 监测期间通过{@link DeviceStateService}监听飞行模式、定位开关、wifi开关，每次检测直接读取缓存的状态
+ *
+ * 所有方法都必须在主线程中调用
+ */
+public class LocationHealthMonitor {
+
+    private static final int DEFAULT_CAPACITY = 100;
+    private static final long DEFAULT_MIN_INTERVAL = 60 * 1000;
+    private static final long DEFAULT_MAX_INTERVAL = 15 * 60 * 1000;
+    private static final float DEFAULT_MAX_DUTY_CYCLE = 0.05f;
+    private static final long GPS_TIMEOUT = 10 * 1000;
+
+    /**
+     * 一次检测的快照
+     */
+    public static class HealthSnapshot {
+        /**
+         * 检测开始时间，{@link System#currentTimeMillis()}
+         */
+        public final long time;
+        /**
+         * 检测耗时，期间GPS、wifi等处于工作状态，单位毫秒
+         */
+        public final long duration;
+        /**
+         * 检测期间进程消耗的CPU时间，包括宿主应用自身的消耗，只能作为上限参考，单位毫秒
+         */
+        public final long cpuTime;
+        /**
+         * 距下一次检测的间隔，单位毫秒
+         */
+        public final long nextInterval;
+        /**
+         * 检测结果
+         */
+        public final DiagnoseResultItem result;
+
+        HealthSnapshot(long time, long duration, long cpuTime, long nextInterval, DiagnoseResultItem result) {
+            this.time = time;
+            this.duration = duration;
+            this.cpuTime = cpuTime;
+            this.nextInterval = nextInterval;
+            this.result = result;
+        }
+
+        public boolean isHealthy() {
+            return result.checkResult == DiagnoseResultItem.CheckResult.Ok;
+        }
+
+        @Override
+        public String toString() {
+            return "HealthSnapshot{" +
+                    "time=" + time +
+                    ", duration=" + duration +
+                    ", cpuTime=" + cpuTime +
+                    ", nextInterval=" + nextInterval +
+                    ", result=" + result +
+                    '}';
+        }
+    }
+
+    public interface Listener {
+        /**
+         * 一次检测完成
+         * @param snapshot 检测快照
+         */
+        void onSnapshot(HealthSnapshot snapshot);
+    }
+
+    private final Context appContext;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private final HealthSnapshot[] snapshots;
+    private int snapshotStart = 0;
+    private int snapshotCount = 0;
+
+    private long minInterval = DEFAULT_MIN_INTERVAL;
+    private long maxInterval = DEFAULT_MAX_INTERVAL;
+    private float maxDutyCycle = DEFAULT_MAX_DUTY_CYCLE;
+    private Listener listener;
+    private DiagnoseLog resultLog;
+    private DiagnoseUploader uploader;
+
+    private boolean running = false;
+    private long interval;
+    private boolean lastHealthy = false;
+    private DiagnoseEngine engine;
+
+    private long monitorStartTime;
+    private int sampleCount;
+    private long totalActiveTime;
+    private long totalCpuTime;
+
+    private final Runnable sampleRunnable = new Runnable() {
+        @Override
+        public void run() {
+            sample();
+        }
+    };
+
+    public LocationHealthMonitor(Context context) {
+        this(context, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param context Context
+     * @param capacity 保存的快照数量上限，超过时丢弃最早的快照
+     */
+    public LocationHealthMonitor(Context context, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.appContext = context.getApplicationContext();
+        this.snapshots = new HealthSnapshot[capacity];
+    }
+
+    /**
+     * 设置采样间隔的范围
+     * @param minInterval 最小间隔，出现异常时使用，单位毫秒，默认1分钟
+     * @param maxInterval 最大间隔，连续正常时逐渐增加到该值，单位毫秒，默认15分钟
+     */
+    public void setIntervals(long minInterval, long maxInterval) {
+        if (minInterval <= 0 || maxInterval < minInterval) {
+            throw new IllegalArgumentException("invalid intervals: " + minInterval + ", " + maxInterval);
+        }
+        this.minInterval = minInterval;
+        this.maxInterval = maxInterval;
+    }
+
+    /**
+     * 设置占空比上限，即检测耗时占总时间的比例上限，用于限制耗电
+     * @param maxDutyCycle 占空比上限，取值(0, 1]，默认为0.05
+     */
+    public void setMaxDutyCycle(float maxDutyCycle) {
+        if (maxDutyCycle <= 0 || maxDutyCycle > 1) {
+            throw new IllegalArgumentException("maxDutyCycle must be in (0, 1]");
+        }
+        this.maxDutyCycle = maxDutyCycle;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * 设置检测结果日志，每次检测的结果都会追加到日志中，见{@link DiagnoseEngine#setResultLog(DiagnoseLog)}
+     * @param resultLog 检测结果日志，为null时不记录
+     */
+    public void setResultLog(DiagnoseLog resultLog) {
+        this.resultLog = resultLog;
+    }
+
+    /**
+     * 设置检测结果上报，每次检测的结果都会加入上报队列，见{@link DiagnoseEngine#setUploader(DiagnoseUploader)}
+     * @param uploader 检测结果上报，为null时不上报
+     */
+    public void setUploader(DiagnoseUploader uploader) {
+        this.uploader = uploader;
+    }
+
+    /**
+     * 开始监测，立即进行第一次检测
+     */
+    public void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        interval = minInterval;
+        lastHealthy = false;
+        monitorStartTime = SystemClock.elapsedRealtime();
+        sampleCount = 0;
+        totalActiveTime = 0;
+        totalCpuTime = 0;
+        DeviceStateService.getInstance(appContext).startObserving();
+        mainHandler.post(sampleRunnable);
+    }
+
+    /**
+     * 停止监测，正在进行的检测会被取消，已保存的快照保留
+     */
+    public void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        DeviceStateService.getInstance(appContext).stopObserving();
+        mainHandler.removeCallbacks(sampleRunnable);
+        if (engine != null) {
+            engine.cancel();
+            engine = null;
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * @return 保存的快照，按时间从早到晚排列
+     */
+    public List<HealthSnapshot> getSnapshots() {
+        List<HealthSnapshot> list = new ArrayList<>(snapshotCount);
+        for (int i = 0; i < snapshotCount; i++) {
+            list.add(snapshots[(snapshotStart + i) % snapshots.length]);
+        }
+        return list;
+    }
+
+    /**
+     * @return 本次监测开始以来的检测次数
+     */
+    public int getSampleCount() {
+        return sampleCount;
+    }
+
+    /**
+     * @return 本次监测开始以来的检测总耗时，单位毫秒
+     */
+    public long getTotalActiveTime() {
+        return totalActiveTime;
+    }
+
+    /**
+     * @return 本次监测开始以来检测期间进程消耗的CPU时间，单位毫秒，见{@link HealthSnapshot#cpuTime}
+     */
+    public long getTotalCpuTime() {
+        return totalCpuTime;
+    }
+
+    /**
+     * @return 本次监测开始以来的实际占空比
+     */
+    public float getDutyCycle() {
+        long elapsed = SystemClock.elapsedRealtime() - monitorStartTime;
+        return elapsed <= 0 ? 0 : (float) totalActiveTime / elapsed;
+    }
+
+    private void sample() {
+        if (!running) {
+            return;
+        }
+        DefaultLocationDiagnoser diagnoser = new DefaultLocationDiagnoser();
+        diagnoser.setGpsTimeout(GPS_TIMEOUT);
+        // 状态正常时不主动扫描wifi，出现异常后主动扫描以获取最新的热点信息
+        diagnoser.setActiveWifiScan(!lastHealthy);
+        List<DiagnoseView.Diagnoser> diagnosers = new LinkedList<>();
+        diagnosers.add(diagnoser);
+
+        final long time = System.currentTimeMillis();
+        final long startTime = SystemClock.elapsedRealtime();
+        final long startCpuTime = Process.getElapsedCpuTime();
+        engine = new DiagnoseEngine(appContext);
+        engine.setResultLog(resultLog);
+        engine.setUploader(uploader);
+        engine.start(diagnosers, new DiagnoseEngine.SimpleCallback() {
+            @Override
+            public void onAllDiagnoseFinish(List<DiagnoseResultItem> diagnoseResults) {
+                engine = null;
+                onSampleFinish(time, SystemClock.elapsedRealtime() - startTime,
+                        Process.getElapsedCpuTime() - startCpuTime, diagnoseResults.get(0));
+            }
+        });
+    }
+
+    private void onSampleFinish(long time, long duration, long cpuTime, DiagnoseResultItem result) {
+        if (!running) {
+            return;
+        }
+        boolean healthy = result.checkResult == DiagnoseResultItem.CheckResult.Ok;
+        if (healthy) {
+            interval = Math.min(interval * 2, maxInterval);
+        } else {
+            interval = minInterval;
+        }
+        lastHealthy = healthy;
+        // 检测耗时duration时，至少要间隔duration * (1 - maxDutyCycle) / maxDutyCycle才能保证占空比不超过上限
+        long nextInterval = Math.max(interval, (long) (duration * (1 - maxDutyCycle) / maxDutyCycle));
+
+        sampleCount++;
+        totalActiveTime += duration;
+        totalCpuTime += cpuTime;
+        HealthSnapshot snapshot = new HealthSnapshot(time, duration, cpuTime, nextInterval, result);
+        addSnapshot(snapshot);
+        if (listener != null) {
+            listener.onSnapshot(snapshot);
+        }
+        mainHandler.postDelayed(sampleRunnable, nextInterval);
+    }
+
+    private void addSnapshot(HealthSnapshot snapshot) {
+        if (snapshotCount < snapshots.length) {
+            snapshots[(snapshotStart + snapshotCount) % snapshots.length] = snapshot;
+            snapshotCount++;
+        } else {
+            snapshots[snapshotStart] = snapshot;
+            snapshotStart = (snapshotStart + 1) % snapshots.length;
+        }
+    }
+}
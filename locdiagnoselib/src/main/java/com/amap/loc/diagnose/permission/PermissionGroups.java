@@ -0,0 +1,62 @@
+package com.amap.loc.diagnose.permission;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 危险权限与权限组的对应关系，同一权限组的权限只需申请一次
+ *
+ * 权限和权限组名称与android.Manifest.permission、android.Manifest.permission_group中的常量相同，这里直接使用字符串，
+ * 使该类不依赖Android API，可以在JVM中进行基准测试
+ */
+final class PermissionGroups {
+
+    private static final Map<String, String> GROUPS = new HashMap<>();
+
+    static {
+        put("CALENDAR", "READ_CALENDAR", "WRITE_CALENDAR");
+        put("CAMERA", "CAMERA");
+        put("CONTACTS", "READ_CONTACTS", "WRITE_CONTACTS", "GET_ACCOUNTS");
+        put("LOCATION", "ACCESS_FINE_LOCATION", "ACCESS_COARSE_LOCATION");
+        put("MICROPHONE", "RECORD_AUDIO");
+        put("PHONE", "READ_PHONE_STATE", "CALL_PHONE", "READ_CALL_LOG", "WRITE_CALL_LOG", "USE_SIP",
+                "PROCESS_OUTGOING_CALLS");
+        put("SENSORS", "BODY_SENSORS");
+        put("SMS", "SEND_SMS", "RECEIVE_SMS", "READ_SMS", "RECEIVE_WAP_PUSH", "RECEIVE_MMS");
+        put("STORAGE", "READ_EXTERNAL_STORAGE", "WRITE_EXTERNAL_STORAGE");
+    }
+
+    private PermissionGroups() {
+    }
+
+    private static void put(String group, String... permissions) {
+        for (String permission : permissions) {
+            GROUPS.put("android.permission." + permission, "android.permission-group." + group);
+        }
+    }
+
+    /**
+     * @return 权限所属的权限组，不是危险权限时返回""
+     */
+    static String groupOf(String permission) {
+        String group = GROUPS.get(permission);
+        return group == null ? "" : group;
+    }
+
+    /**
+     * 移除属于同一权限组的权限，每个权限组只保留遍历时遇到的第一个权限；不是危险权限的权限视为同一组
+     * @param permissionHintMap 权限及其说明，直接在该Map上修改
+     */
+    static void removeDuplicates(Map<String, String> permissionHintMap) {
+        Set<String> groups = new HashSet<>();
+        Iterator<String> iterator = permissionHintMap.keySet().iterator();
+        while (iterator.hasNext()) {
+            if (!groups.add(groupOf(iterator.next()))) {
+                iterator.remove();
+            }
+        }
+    }
+}
@@ -1,7 +1,6 @@
 package com.amap.loc.diagnose.permission;
 
 import android.Manifest;
-import android.annotation.TargetApi;
 import android.app.Activity;
 import android.app.Dialog;
 import android.content.ActivityNotFoundException;
@@ -9,7 +8,6 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.graphics.Point;
-import android.location.LocationManager;
 import android.net.Uri;
 import android.os.Build;
 import android.provider.Settings;
@@ -23,8 +21,8 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import com.amap.loc.diagnose.R;
+import com.amap.loc.diagnose.platform.DeviceStateService;
 
-import java.lang.reflect.Method;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
@@ -108,33 +106,7 @@ public class PermissionHelper {
 
     private boolean checkLocationConfigEnabled() {
         if (checkLocationEnabled) {
-            // 考虑到大部分App可能还未target到API 28，这里使用反射调用API 28开始提供的检查定位开关的方法
-            if (Build.VERSION.SDK_INT >= 28) {
-                boolean isLocationEnabled = true;
-                LocationManager locationManager = (LocationManager)activity.getSystemService(Context.LOCATION_SERVICE);
-                try {
-                    Method isLocationEnabledMethod = locationManager.getClass().getMethod("isLocationEnabled", new Class[]{});
-                    isLocationEnabled = (boolean) isLocationEnabledMethod.invoke(locationManager);
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-                return isLocationEnabled;
-            } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
-                int locationMode = Settings.Secure.getInt(activity.getContentResolver(),
-                        Settings.Secure.LOCATION_MODE, Settings.Secure.LOCATION_MODE_HIGH_ACCURACY);
-                boolean isLocationEnabled = locationMode != Settings.Secure.LOCATION_MODE_OFF;
-                return isLocationEnabled;
-            } else {
-                LocationManager locationManager = (LocationManager)activity.getSystemService(Context.LOCATION_SERVICE);
-                List<String> allProviders = locationManager.getAllProviders();
-                if (allProviders == null || allProviders.isEmpty()) {
-                    return false;
-                }
-                String usableProviders = Settings.Secure.getString(activity.getContentResolver(),
-                        Settings.Secure.LOCATION_PROVIDERS_ALLOWED);
-                boolean isLocationEnabled = !usableProviders.isEmpty();
-                return isLocationEnabled;
-            }
+            return DeviceStateService.getInstance(activity).isLocationEnabled();
         } else {
             return true;
         }
@@ -148,61 +120,10 @@ public class PermissionHelper {
         if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
             return permissionHintMap;
         }
-        List<String> permissionGroups = new LinkedList<>();
-        List<String> duplicatePermissions = new LinkedList<>();
-        for (String permission : permissionHintMap.keySet()) {
-            String group = getPermissionGroup(permission);
-            if (!permissionGroups.contains(group)) {
-                permissionGroups.add(group);
-            } else {
-                duplicatePermissions.add(permission);
-            }
-        }
-        for (String duplicatePermission : duplicatePermissions) {
-            permissionHintMap.remove(duplicatePermission);
-        }
+        PermissionGroups.removeDuplicates(permissionHintMap);
         return permissionHintMap;
     }
 
-    @TargetApi(Build.VERSION_CODES.M)
-    private String getPermissionGroup(String permission) {
-        switch (permission) {
-            case Manifest.permission.READ_CALENDAR:
-            case Manifest.permission.WRITE_CALENDAR:
-                return Manifest.permission_group.CALENDAR;
-            case Manifest.permission.CAMERA:
-                return Manifest.permission_group.CAMERA;
-            case Manifest.permission.READ_CONTACTS:
-            case Manifest.permission.WRITE_CONTACTS:
-            case Manifest.permission.GET_ACCOUNTS:
-                return Manifest.permission_group.CONTACTS;
-            case Manifest.permission.ACCESS_FINE_LOCATION:
-            case Manifest.permission.ACCESS_COARSE_LOCATION:
-                return Manifest.permission_group.LOCATION;
-            case Manifest.permission.RECORD_AUDIO:
-                return Manifest.permission_group.MICROPHONE;
-            case Manifest.permission.READ_PHONE_STATE:
-            case Manifest.permission.CALL_PHONE:
-            case Manifest.permission.READ_CALL_LOG:
-            case Manifest.permission.WRITE_CALL_LOG:
-            case Manifest.permission.USE_SIP:
-            case Manifest.permission.PROCESS_OUTGOING_CALLS:
-                return Manifest.permission_group.PHONE;
-            case Manifest.permission.BODY_SENSORS:
-                return Manifest.permission_group.SENSORS;
-            case Manifest.permission.SEND_SMS:
-            case Manifest.permission.RECEIVE_SMS:
-            case Manifest.permission.READ_SMS:
-            case Manifest.permission.RECEIVE_WAP_PUSH:
-            case Manifest.permission.RECEIVE_MMS:
-                return Manifest.permission_group.SMS;
-            case Manifest.permission.READ_EXTERNAL_STORAGE:
-            case Manifest.permission.WRITE_EXTERNAL_STORAGE:
-                return Manifest.permission_group.STORAGE;
-        }
-        return "";
-    }
-
     /**
      * 指定当权限及定位开关检查无问题的回调
      * @param onPermissionGranted 当权限及定位开关检查无问题的回调
@@ -229,9 +150,10 @@ public class PermissionHelper {
             return;
         }
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            PermissionStateService permissionState = PermissionStateService.getInstance(activity);
             List<String> missingPermissions = new LinkedList<>();
             for (String permission : permissionHintMap.keySet()) {
-                if (activity.checkSelfPermission(permission) != PackageManager.PERMISSION_GRANTED) {
+                if (!permissionState.isGranted(permission)) {
                     missingPermissions.add(permission);
                 }
             }
@@ -281,6 +203,7 @@ public class PermissionHelper {
         if (permissionHintMap == null) {
             return;
         }
+        PermissionStateService.getInstance(activity).invalidate();
         List<String> failPermissions = new LinkedList<>();
         for (int i = 0; i < grantResults.length; i++) {
             if (grantResults[i] != PackageManager.PERMISSION_GRANTED) {
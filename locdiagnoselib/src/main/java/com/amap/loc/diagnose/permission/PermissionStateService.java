@@ -0,0 +1,194 @@
+package com.amap.loc.diagnose.permission;
+
+import android.annotation.TargetApi;
+import android.app.Activity;
+import android.app.Application;
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Process;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 应用权限的授权状态
+ *
+ * 第一次读取时通过一次PackageManager.getPackageInfo取得Manifest中声明的所有权限及其授权状态（API 16及以上为
+ * PackageInfo.requestedPermissionsFlags），保存为快照，之后的读取都是O(1)的查表，不再逐个调用checkPermission。
+ * 快照在权限可能变化时失效，下次读取时重新获取：
+ * 1、权限申请返回结果，见{@link PermissionHelper#onRequestPermissionsResult(String[], int[])}；
+ * 2、应用从后台回到前台，用户可能在系统设置中授予了权限（API 14及以上）；
+ * 3、每次开始检测，见DiagnoseEngine#start，宿主自行申请权限时授权对话框不会使Activity进入后台；
+ * 运行时权限被撤销时系统会结束应用进程，不需要处理。其他途径修改权限后可以调用{@link #invalidate()}
+ *
+ * 读取方法可以在任意线程中调用
+ */
+public class PermissionStateService {
+
+    private static PermissionStateService instance;
+
+    /**
+     * 一次获取的授权状态，创建后不再修改
+     */
+    private static class Snapshot {
+        /**
+         * Manifest中声明的权限及是否已授权
+         */
+        final Map<String, Boolean> granted;
+
+        Snapshot(Map<String, Boolean> granted) {
+            this.granted = granted;
+        }
+    }
+
+    private final Context appContext;
+    /**
+     * 为null时下次读取重新获取
+     */
+    private volatile Snapshot snapshot;
+
+    public static synchronized PermissionStateService getInstance(Context context) {
+        if (instance == null) {
+            instance = new PermissionStateService(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private PermissionStateService(Context appContext) {
+        this.appContext = appContext;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH
+                && appContext instanceof Application) {
+            registerForegroundObserver((Application) appContext);
+        }
+    }
+
+    /**
+     * @return 是否已授予该权限，未在Manifest中声明的权限为false
+     */
+    public boolean isGranted(String permission) {
+        Snapshot s = getSnapshot();
+        if (s == null) {
+            return appContext.checkPermission(permission, Process.myPid(), Process.myUid())
+                    == PackageManager.PERMISSION_GRANTED;
+        }
+        Boolean granted = s.granted.get(permission);
+        return granted != null && granted;
+    }
+
+    /**
+     * @return 是否已授予所有权限
+     */
+    public boolean isAllGranted(String... permissions) {
+        for (String permission : permissions) {
+            if (!isGranted(permission)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 使快照失效，下次读取时重新获取，用于权限可能发生变化时
+     */
+    public void invalidate() {
+        snapshot = null;
+    }
+
+    private Snapshot getSnapshot() {
+        Snapshot s = snapshot;
+        if (s == null) {
+            s = readSnapshot();
+            snapshot = s;
+        }
+        return s;
+    }
+
+    /**
+     * @return 获取失败时返回null，读取时逐个检查权限
+     */
+    private Snapshot readSnapshot() {
+        PackageInfo packageInfo;
+        try {
+            packageInfo = appContext.getPackageManager().getPackageInfo(appContext.getPackageName(),
+                    PackageManager.GET_PERMISSIONS);
+        } catch (Throwable e) {
+            e.printStackTrace();
+            return null;
+        }
+        String[] permissions = packageInfo.requestedPermissions;
+        Map<String, Boolean> granted = new HashMap<>();
+        if (permissions == null) {
+            return new Snapshot(granted);
+        }
+        int[] flags = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN
+                ? getRequestedPermissionsFlags(packageInfo) : null;
+        int pid = Process.myPid();
+        int uid = Process.myUid();
+        for (int i = 0; i < permissions.length; i++) {
+            if (flags != null && i < flags.length) {
+                granted.put(permissions[i], isGrantedFlag(flags[i]));
+            } else {
+                granted.put(permissions[i], appContext.checkPermission(permissions[i], pid, uid)
+                        == PackageManager.PERMISSION_GRANTED);
+            }
+        }
+        return new Snapshot(granted);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static int[] getRequestedPermissionsFlags(PackageInfo packageInfo) {
+        return packageInfo.requestedPermissionsFlags;
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static boolean isGrantedFlag(int flags) {
+        return (flags & PackageInfo.REQUESTED_PERMISSION_GRANTED) != 0;
+    }
+
+    /**
+     * 应用回到前台（没有已启动的Activity之后又有Activity启动）时使快照失效
+     */
+    @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+    private void registerForegroundObserver(Application application) {
+        application.registerActivityLifecycleCallbacks(new Application.ActivityLifecycleCallbacks() {
+            private int startedCount = 0;
+
+            @Override
+            public void onActivityStarted(Activity activity) {
+                if (startedCount++ == 0) {
+                    invalidate();
+                }
+            }
+
+            @Override
+            public void onActivityStopped(Activity activity) {
+                if (startedCount > 0) {
+                    startedCount--;
+                }
+            }
+
+            @Override
+            public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+            }
+
+            @Override
+            public void onActivityResumed(Activity activity) {
+            }
+
+            @Override
+            public void onActivityPaused(Activity activity) {
+            }
+
+            @Override
+            public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+            }
+
+            @Override
+            public void onActivityDestroyed(Activity activity) {
+            }
+        });
+    }
+}
@@ -0,0 +1,473 @@
+package com.amap.loc.diagnose.platform;
+
+import android.Manifest;
+import android.annotation.SuppressLint;
+import android.annotation.TargetApi;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.location.GnssStatus;
+import android.location.GpsSatellite;
+import android.location.GpsStatus;
+import android.location.Location;
+import android.location.LocationListener;
+import android.location.LocationManager;
+import android.location.LocationProvider;
+import android.net.wifi.ScanResult;
+import android.net.wifi.WifiManager;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.telephony.CellInfo;
+import android.telephony.CellInfoCdma;
+import android.telephony.CellInfoGsm;
+import android.telephony.CellInfoLte;
+import android.telephony.CellInfoWcdma;
+import android.telephony.CellLocation;
+import android.telephony.CellSignalStrength;
+import android.telephony.TelephonyManager;
+
+import com.amap.loc.diagnose.permission.PermissionStateService;
+import com.amap.loc.diagnose.problem.DiagnoseExecutor;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * 基于Android系统服务的{@link DiagnosePlatform}，所有回调都在主线程中进行
+ */
+public class AndroidPlatform {
+
+    private AndroidPlatform() {
+    }
+
+    /**
+     * @param context Context
+     * @return 基于主线程Handler和系统服务的DiagnosePlatform，必须在主线程中使用
+     */
+    public static DiagnosePlatform create(Context context) {
+        Context appContext = context.getApplicationContext();
+        Handler mainHandler = new Handler(Looper.getMainLooper());
+        DeviceStateService deviceState = DeviceStateService.getInstance(appContext);
+        return new DiagnosePlatform(new HandlerClock(mainHandler),
+                new AndroidLocationSource(appContext, mainHandler),
+                new AndroidWifiSource(appContext, mainHandler, deviceState),
+                new AndroidCellSource(appContext, mainHandler, DiagnoseExecutor.getDefault()),
+                new AndroidConnectivitySource(deviceState));
+    }
+
+    private static class HandlerClock implements DiagnoseClock {
+
+        private final Handler handler;
+
+        HandlerClock(Handler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public long elapsedRealtime() {
+            return SystemClock.elapsedRealtime();
+        }
+
+        @Override
+        public void postDelayed(Runnable runnable, long delayMillis) {
+            handler.postDelayed(runnable, delayMillis);
+        }
+
+        @Override
+        public void removeCallbacks(Runnable runnable) {
+            handler.removeCallbacks(runnable);
+        }
+    }
+
+    private static class AndroidLocationSource implements LocationSource {
+
+        private final Context context;
+        private final Handler handler;
+        private final SatelliteStatus satelliteStatus = new SatelliteStatus();
+
+        private LocationManager locationManager;
+        private GpsStatus gpsStatus;
+        /**
+         * API 24及以上为GnssStatus.Callback，这里不直接使用该类型，避免低版本系统加载该类
+         */
+        private Object gnssStatusCallback;
+        private Listener listener;
+
+        private final LocationListener gpsListener = new LocationListener() {
+            @Override
+            public void onLocationChanged(Location location) {
+                if (listener != null) {
+                    listener.onLocationChanged();
+                }
+            }
+
+            @Override
+            public void onStatusChanged(String provider, int status, Bundle extras) {
+                if (status == LocationProvider.OUT_OF_SERVICE && listener != null) {
+                    listener.onGpsStopped();
+                }
+            }
+
+            @Override
+            public void onProviderEnabled(String provider) {
+            }
+
+            @Override
+            public void onProviderDisabled(String provider) {
+                if (LocationManager.GPS_PROVIDER.equalsIgnoreCase(provider) && listener != null) {
+                    listener.onProviderDisabled();
+                }
+            }
+        };
+
+        private final GpsStatus.Listener statusListener = new GpsStatus.Listener() {
+            @SuppressLint("MissingPermission")
+            @Override
+            public void onGpsStatusChanged(int event) {
+                if (null == locationManager || listener == null) {
+                    return;
+                }
+                switch (event) {
+                    case GpsStatus.GPS_EVENT_STOPPED:
+                        listener.onGpsStopped();
+                        break;
+                    // 周期的报告卫星状态
+                    case GpsStatus.GPS_EVENT_SATELLITE_STATUS:
+                        // 只有卫星状态事件需要读取GpsStatus
+                        satelliteStatus.clear();
+                        try {
+                            gpsStatus = locationManager.getGpsStatus(gpsStatus);
+                            if (null != gpsStatus) {
+                                Iterable<GpsSatellite> allSatellites = gpsStatus.getSatellites();
+                                if (null != allSatellites) {
+                                    int maxSatellites = gpsStatus.getMaxSatellites();
+                                    for (GpsSatellite satellite : allSatellites) {
+                                        if (satelliteStatus.getCount() >= maxSatellites) {
+                                            break;
+                                        }
+                                        satelliteStatus.add(satellite.usedInFix(), satellite.getSnr(),
+                                                SatelliteStatus.constellationOfPrn(satellite.getPrn()),
+                                                satellite.getAzimuth(), satellite.getElevation());
+                                    }
+                                }
+                            }
+                        } catch (Throwable e) {
+                            e.printStackTrace();
+                        }
+                        listener.onSatelliteStatus(satelliteStatus);
+                        break;
+                    default:
+                        break;
+                }
+            }
+        };
+
+        AndroidLocationSource(Context context, Handler handler) {
+            this.context = context;
+            this.handler = handler;
+        }
+
+        @TargetApi(Build.VERSION_CODES.N)
+        private Object createGnssStatusCallback() {
+            return new GnssStatus.Callback() {
+                @Override
+                public void onStopped() {
+                    if (listener != null) {
+                        listener.onGpsStopped();
+                    }
+                }
+
+                @Override
+                public void onSatelliteStatusChanged(GnssStatus status) {
+                    if (listener == null) {
+                        return;
+                    }
+                    satelliteStatus.clear();
+                    int count = status.getSatelliteCount();
+                    for (int i = 0; i < count; i++) {
+                        satelliteStatus.add(status.usedInFix(i), status.getCn0DbHz(i), status.getConstellationType(i),
+                                status.getAzimuthDegrees(i), status.getElevationDegrees(i));
+                    }
+                    listener.onSatelliteStatus(satelliteStatus);
+                }
+            };
+        }
+
+        @Override
+        public boolean hasLocationPermission() {
+            return Build.VERSION.SDK_INT < Build.VERSION_CODES.M ||
+                    PermissionStateService.getInstance(context).isAllGranted(
+                            Manifest.permission.ACCESS_FINE_LOCATION, Manifest.permission.ACCESS_COARSE_LOCATION);
+        }
+
+        @SuppressLint("MissingPermission")
+        @Override
+        public boolean start(Listener listener) {
+            locationManager = (LocationManager) context.getSystemService(Context.LOCATION_SERVICE);
+            if (locationManager == null) {
+                return false;
+            }
+            this.listener = listener;
+            locationManager.requestLocationUpdates(LocationManager.GPS_PROVIDER, 2000, 0f,
+                    gpsListener, handler.getLooper());
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+                gnssStatusCallback = createGnssStatusCallback();
+                locationManager.registerGnssStatusCallback((GnssStatus.Callback) gnssStatusCallback, handler);
+            } else {
+                locationManager.addGpsStatusListener(statusListener);
+            }
+            return true;
+        }
+
+        @Override
+        public void stop() {
+            if (locationManager != null && listener != null) {
+                if (gnssStatusCallback != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+                    locationManager.unregisterGnssStatusCallback((GnssStatus.Callback) gnssStatusCallback);
+                } else {
+                    locationManager.removeGpsStatusListener(statusListener);
+                }
+                locationManager.removeUpdates(gpsListener);
+            }
+            listener = null;
+        }
+    }
+
+    private static class AndroidWifiSource implements WifiSource {
+
+        private final Context context;
+        private final Handler handler;
+        private final DeviceStateService deviceState;
+        private final WifiManager wifiManager;
+        private boolean registeredWifiReceiver = false;
+        private Listener listener;
+
+        private final BroadcastReceiver wifiReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                if (listener == null) {
+                    return;
+                }
+                String action = intent.getAction();
+                if (WifiManager.SCAN_RESULTS_AVAILABLE_ACTION.equals(action)) {
+                    listener.onScanResults();
+                } else if (WifiManager.WIFI_STATE_CHANGED_ACTION.equals(action)) {
+                    int wifiState = intent.getIntExtra(WifiManager.EXTRA_WIFI_STATE, WifiManager.WIFI_STATE_UNKNOWN);
+                    if (wifiState == WifiManager.WIFI_STATE_DISABLED || wifiState == WifiManager.WIFI_STATE_DISABLING) {
+                        listener.onWifiDisabled();
+                    }
+                }
+            }
+        };
+
+        AndroidWifiSource(Context context, Handler handler, DeviceStateService deviceState) {
+            this.context = context;
+            this.handler = handler;
+            this.deviceState = deviceState;
+            this.wifiManager = (WifiManager) context.getSystemService(Context.WIFI_SERVICE);
+        }
+
+        @Override
+        public int getState() {
+            return deviceState.getWifiState();
+        }
+
+        @Override
+        public boolean startScan(Listener listener) {
+            if (wifiManager == null) {
+                return false;
+            }
+            IntentFilter intentFilter = new IntentFilter();
+            intentFilter.addAction(WifiManager.WIFI_STATE_CHANGED_ACTION);
+            intentFilter.addAction(WifiManager.SCAN_RESULTS_AVAILABLE_ACTION);
+            this.listener = listener;
+            context.registerReceiver(wifiReceiver, intentFilter, null, handler);
+            registeredWifiReceiver = true;
+            boolean scanStarted;
+            try {
+                scanStarted = wifiManager.startScan();
+            } catch (Throwable e) {
+                e.printStackTrace();
+                scanStarted = false;
+            }
+            if (!scanStarted) {
+                // 扫描被系统限制或失败，不会再有扫描结果广播
+                stopScan();
+            }
+            return scanStarted;
+        }
+
+        @Override
+        public void stopScan() {
+            listener = null;
+            if (registeredWifiReceiver) {
+                registeredWifiReceiver = false;
+                try {
+                    context.unregisterReceiver(wifiReceiver);
+                } catch (Throwable e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        @Override
+        public int getScanResultCount() {
+            if (wifiManager == null) {
+                return -1;
+            }
+            try {
+                List<ScanResult> scanResults = wifiManager.getScanResults();
+                return scanResults == null ? 0 : scanResults.size();
+            } catch (Throwable e) {
+                e.printStackTrace();
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * 基站查询是对电话服务的同步binder调用，可能耗时数百毫秒，在后台线程中查询后回到主线程回调
+     *
+     * API 29的TelephonyManager.requestCellInfoUpdate可以主动刷新基站信息，但其回调为抽象类，在当前编译版本中无法
+     * 实现；getAllCellInfo在高版本系统上可能返回缓存的基站信息，时效见{@link CellStatus#getAgeMillis(int)}
+     */
+    private static class AndroidCellSource implements CellSource {
+
+        private final TelephonyManager telephonyManager;
+        private final Handler handler;
+        private final Executor executor;
+
+        AndroidCellSource(Context context, Handler handler, Executor executor) {
+            telephonyManager = (TelephonyManager) context.getSystemService(Context.TELEPHONY_SERVICE);
+            this.handler = handler;
+            this.executor = executor;
+        }
+
+        @Override
+        public boolean isAvailable() {
+            return telephonyManager != null;
+        }
+
+        @Override
+        public void requestCellInfo(final Callback callback) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    final CellStatus status = queryCellInfo();
+                    handler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.onCellInfo(status);
+                        }
+                    });
+                }
+            });
+        }
+
+        /**
+         * @return 基站信息，获取失败时为null
+         */
+        @SuppressLint("MissingPermission")
+        private CellStatus queryCellInfo() {
+            CellStatus status = new CellStatus();
+            try {
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+                    List<CellInfo> cellInfos = telephonyManager.getAllCellInfo();
+                    if (cellInfos != null) {
+                        long now = SystemClock.elapsedRealtimeNanos();
+                        for (CellInfo cellInfo : cellInfos) {
+                            long timeStamp = cellInfo.getTimeStamp();
+                            status.add(ratOf(cellInfo), cellInfo.isRegistered(), dbmOf(cellInfo),
+                                    timeStamp > 0 && timeStamp <= now ? (now - timeStamp) / 1000000
+                                            : CellStatus.AGE_UNKNOWN);
+                        }
+                    }
+                } else {
+                    CellLocation cellLocation = telephonyManager.getCellLocation();
+                    if (cellLocation != null) {
+                        status.add(CellStatus.RAT_UNKNOWN, true, CellStatus.DBM_UNKNOWN, CellStatus.AGE_UNKNOWN);
+                    }
+                }
+            } catch (Throwable e) {
+                e.printStackTrace();
+                return null;
+            }
+            return status;
+        }
+
+        @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
+        private static int ratOf(CellInfo cellInfo) {
+            if (cellInfo instanceof CellInfoLte) {
+                return CellStatus.RAT_LTE;
+            } else if (cellInfo instanceof CellInfoGsm) {
+                return CellStatus.RAT_GSM;
+            } else if (cellInfo instanceof CellInfoCdma) {
+                return CellStatus.RAT_CDMA;
+            } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2 && cellInfo instanceof CellInfoWcdma) {
+                return CellStatus.RAT_WCDMA;
+            }
+            // API 29新增的CellInfoTdscdma、CellInfoNr不在当前编译版本中
+            String name = cellInfo.getClass().getName();
+            if ("android.telephony.CellInfoNr".equals(name)) {
+                return CellStatus.RAT_NR;
+            } else if ("android.telephony.CellInfoTdscdma".equals(name)) {
+                return CellStatus.RAT_TDSCDMA;
+            }
+            return CellStatus.RAT_UNKNOWN;
+        }
+
+        @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
+        private static int dbmOf(CellInfo cellInfo) {
+            CellSignalStrength signalStrength = null;
+            if (cellInfo instanceof CellInfoLte) {
+                signalStrength = ((CellInfoLte) cellInfo).getCellSignalStrength();
+            } else if (cellInfo instanceof CellInfoGsm) {
+                signalStrength = ((CellInfoGsm) cellInfo).getCellSignalStrength();
+            } else if (cellInfo instanceof CellInfoCdma) {
+                signalStrength = ((CellInfoCdma) cellInfo).getCellSignalStrength();
+            } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2 && cellInfo instanceof CellInfoWcdma) {
+                signalStrength = ((CellInfoWcdma) cellInfo).getCellSignalStrength();
+            } else {
+                try {
+                    Method method = cellInfo.getClass().getMethod("getCellSignalStrength");
+                    Object value = method.invoke(cellInfo);
+                    if (value instanceof CellSignalStrength) {
+                        signalStrength = (CellSignalStrength) value;
+                    }
+                } catch (Throwable e) {
+                    e.printStackTrace();
+                }
+            }
+            if (signalStrength == null) {
+                return CellStatus.DBM_UNKNOWN;
+            }
+            int dbm = signalStrength.getDbm();
+            // 各制式无效值不同（如Integer.MAX_VALUE、0），统一为未知
+            return dbm < 0 && dbm > -200 ? dbm : CellStatus.DBM_UNKNOWN;
+        }
+
+        @Override
+        public boolean isSimReady() {
+            return telephonyManager.getSimState() == TelephonyManager.SIM_STATE_READY;
+        }
+    }
+
+    private static class AndroidConnectivitySource implements ConnectivitySource {
+
+        private final DeviceStateService deviceState;
+
+        AndroidConnectivitySource(DeviceStateService deviceState) {
+            this.deviceState = deviceState;
+        }
+
+        @Override
+        public boolean isAirplaneModeOn() {
+            return deviceState.isAirplaneModeOn();
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.amap.loc.diagnose.platform;
+
+/**
+ * 基站信息和sim卡状态
+ */
+public interface CellSource {
+
+    /**
+     * 回调在{@link DiagnoseClock}所在线程中进行，可能在{@link #requestCellInfo(Callback)}中直接回调
+     */
+    interface Callback {
+        /**
+         * @param status 基站信息，未获取到基站信息时基站数为0，获取失败时为null
+         */
+        void onCellInfo(CellStatus status);
+    }
+
+    /**
+     * @return 是否可以获取基站信息，无法获取电话服务时返回false
+     */
+    boolean isAvailable();
+
+    /**
+     * 获取基站信息，查询电话服务可能耗时较长，实现不应阻塞调用线程
+     */
+    void requestCellInfo(Callback callback);
+
+    /**
+     * @return sim卡是否可用
+     */
+    boolean isSimReady();
+}
@@ -0,0 +1,119 @@
+package com.amap.loc.diagnose.platform;
+
+import java.util.Arrays;
+
+/**
+ * 一次基站查询得到的基站信息，每个基站保存制式、是否为注册的服务小区、信号强度以及信息的时效
+ */
+public class CellStatus {
+
+    /**
+     * 基站制式
+     */
+    public static final int RAT_UNKNOWN = 0;
+    public static final int RAT_GSM = 1;
+    public static final int RAT_CDMA = 2;
+    public static final int RAT_WCDMA = 3;
+    public static final int RAT_TDSCDMA = 4;
+    public static final int RAT_LTE = 5;
+    public static final int RAT_NR = 6;
+    /**
+     * 制式的数量，RAT_*都小于该值
+     */
+    public static final int RAT_COUNT = 7;
+
+    /**
+     * 信号强度未知，与CellInfo.UNAVAILABLE一致
+     */
+    public static final int DBM_UNKNOWN = Integer.MAX_VALUE;
+    /**
+     * 信息时效未知
+     */
+    public static final long AGE_UNKNOWN = -1;
+
+    private static final String[] RAT_NAMES = new String[]{
+            "未知", "GSM", "CDMA", "WCDMA", "TD-SCDMA", "LTE", "NR",
+    };
+
+    private int count;
+    private byte[] rat;
+    private boolean[] registered;
+    private int[] dbm;
+    private long[] ageMillis;
+
+    public CellStatus() {
+        this(8);
+    }
+
+    public CellStatus(int initialCapacity) {
+        rat = new byte[initialCapacity];
+        registered = new boolean[initialCapacity];
+        dbm = new int[initialCapacity];
+        ageMillis = new long[initialCapacity];
+    }
+
+    /**
+     * @return 制式名称，如"LTE"
+     */
+    public static String ratName(int rat) {
+        return rat > 0 && rat < RAT_COUNT ? RAT_NAMES[rat] : RAT_NAMES[RAT_UNKNOWN];
+    }
+
+    public void clear() {
+        count = 0;
+    }
+
+    /**
+     * 添加一个基站
+     * @param rat 制式，RAT_*，超出范围时作为RAT_UNKNOWN
+     * @param registered 是否为注册的服务小区，双卡时可能有多个
+     * @param dbm 信号强度，单位dBm，未知时为DBM_UNKNOWN
+     * @param ageMillis 基站信息距今的时间，单位毫秒，未知时为AGE_UNKNOWN
+     */
+    public void add(int rat, boolean registered, int dbm, long ageMillis) {
+        if (count == this.rat.length) {
+            int capacity = Math.max(8, count * 2);
+            this.rat = Arrays.copyOf(this.rat, capacity);
+            this.registered = Arrays.copyOf(this.registered, capacity);
+            this.dbm = Arrays.copyOf(this.dbm, capacity);
+            this.ageMillis = Arrays.copyOf(this.ageMillis, capacity);
+        }
+        this.rat[count] = (byte) (rat > 0 && rat < RAT_COUNT ? rat : RAT_UNKNOWN);
+        this.registered[count] = registered;
+        this.dbm[count] = dbm;
+        this.ageMillis[count] = ageMillis;
+        count++;
+    }
+
+    /**
+     * @return 基站数
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @return RAT_*
+     */
+    public int getRat(int index) {
+        return rat[index];
+    }
+
+    public boolean isRegistered(int index) {
+        return registered[index];
+    }
+
+    /**
+     * @return 信号强度，未知时为DBM_UNKNOWN
+     */
+    public int getDbm(int index) {
+        return dbm[index];
+    }
+
+    /**
+     * @return 基站信息距今的时间，未知时为AGE_UNKNOWN
+     */
+    public long getAgeMillis(int index) {
+        return ageMillis[index];
+    }
+}
@@ -0,0 +1,12 @@
+package com.amap.loc.diagnose.platform;
+
+/**
+ * 设备的网络连接状态
+ */
+public interface ConnectivitySource {
+
+    /**
+     * @return 是否开启了飞行模式
+     */
+    boolean isAirplaneModeOn();
+}
@@ -0,0 +1,276 @@
+package com.amap.loc.diagnose.platform;
+
+import android.annotation.TargetApi;
+import android.content.BroadcastReceiver;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.database.ContentObserver;
+import android.location.LocationManager;
+import android.net.Uri;
+import android.net.wifi.WifiManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.Settings;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 设备状态：飞行模式、定位开关、wifi开关
+ *
+ * 默认每次读取时直接查询系统设置；{@link #startObserving()}后通过ContentObserver和广播监听状态变化，读取时直接返回
+ * 缓存的值，适合持续监测、反复检测时使用。DiagnoseEngine（包括DiagnoseView）在每次检测期间、LocationHealthMonitor
+ * 在监测期间会开始监听，其余时间的读取仍直接查询系统设置。只有API 28的LocationManager.isLocationEnabled需要反射（compileSdkVersion
+ * 为27），反射方法只查找一次
+ *
+ * 读取方法可以在任意线程中调用，其余方法必须在主线程中调用
+ */
+public class DeviceStateService {
+
+    public interface Listener {
+        /**
+         * 监听期间任意一项状态发生变化，在主线程中回调
+         */
+        void onDeviceStateChanged(DeviceStateService service);
+    }
+
+    private static DeviceStateService instance;
+
+    /**
+     * 考虑到大部分App可能还未target到API 28，这里使用反射调用API 28开始提供的检查定位开关的方法；只在第一次使用时
+     * 加载该类并查找方法
+     */
+    private static class IsLocationEnabled {
+        /**
+         * 查找失败时为null
+         */
+        static final Method METHOD = find();
+
+        private static Method find() {
+            try {
+                return LocationManager.class.getMethod("isLocationEnabled");
+            } catch (Throwable e) {
+                e.printStackTrace();
+                return null;
+            }
+        }
+    }
+
+    private final ContentResolver contentResolver;
+    private final LocationManager locationManager;
+    private final WifiManager wifiManager;
+    private final Context appContext;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    private int observerCount = 0;
+    private volatile boolean observing = false;
+    private volatile boolean airplaneModeOn;
+    private volatile boolean locationEnabled;
+    private volatile int wifiState;
+
+    private final ContentObserver settingsObserver = new ContentObserver(mainHandler) {
+        @Override
+        public void onChange(boolean selfChange) {
+            update(readAirplaneMode(), readLocationEnabled(), wifiState);
+        }
+    };
+
+    private final BroadcastReceiver wifiReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            int state = intent.getIntExtra(WifiManager.EXTRA_WIFI_STATE, WifiManager.WIFI_STATE_UNKNOWN);
+            update(airplaneModeOn, locationEnabled, toWifiSourceState(state));
+        }
+    };
+
+    public static synchronized DeviceStateService getInstance(Context context) {
+        if (instance == null) {
+            instance = new DeviceStateService(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private DeviceStateService(Context appContext) {
+        this.appContext = appContext;
+        this.contentResolver = appContext.getContentResolver();
+        this.locationManager = (LocationManager) appContext.getSystemService(Context.LOCATION_SERVICE);
+        this.wifiManager = (WifiManager) appContext.getSystemService(Context.WIFI_SERVICE);
+    }
+
+    /**
+     * @return 是否开启了飞行模式
+     */
+    public boolean isAirplaneModeOn() {
+        return observing ? airplaneModeOn : readAirplaneMode();
+    }
+
+    /**
+     * @return 系统定位开关是否打开
+     */
+    public boolean isLocationEnabled() {
+        return observing ? locationEnabled : readLocationEnabled();
+    }
+
+    /**
+     * @return wifi状态，{@link WifiSource}的STATE_*
+     */
+    public int getWifiState() {
+        return observing ? wifiState : readWifiState();
+    }
+
+    /**
+     * 开始监听状态变化，与{@link #stopObserving()}成对调用，多次调用时全部stop后才停止监听
+     */
+    public void startObserving() {
+        if (observerCount++ > 0) {
+            return;
+        }
+        airplaneModeOn = readAirplaneMode();
+        locationEnabled = readLocationEnabled();
+        wifiState = readWifiState();
+        contentResolver.registerContentObserver(getAirplaneModeUri(), false, settingsObserver);
+        contentResolver.registerContentObserver(getLocationUri(), false, settingsObserver);
+        appContext.registerReceiver(wifiReceiver, new IntentFilter(WifiManager.WIFI_STATE_CHANGED_ACTION),
+                null, mainHandler);
+        observing = true;
+    }
+
+    /**
+     * 停止监听状态变化，之后读取时重新直接查询系统设置
+     */
+    public void stopObserving() {
+        if (observerCount == 0 || --observerCount > 0) {
+            return;
+        }
+        observing = false;
+        contentResolver.unregisterContentObserver(settingsObserver);
+        try {
+            appContext.unregisterReceiver(wifiReceiver);
+        } catch (Throwable e) {
+            e.printStackTrace();
+        }
+    }
+
+    public boolean isObserving() {
+        return observing;
+    }
+
+    /**
+     * @param listener 只在监听期间回调
+     */
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    private void update(boolean airplaneModeOn, boolean locationEnabled, int wifiState) {
+        if (!observing) {
+            return;
+        }
+        boolean changed = airplaneModeOn != this.airplaneModeOn || locationEnabled != this.locationEnabled
+                || wifiState != this.wifiState;
+        this.airplaneModeOn = airplaneModeOn;
+        this.locationEnabled = locationEnabled;
+        this.wifiState = wifiState;
+        if (changed) {
+            for (Listener listener : listeners) {
+                listener.onDeviceStateChanged(this);
+            }
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private static Uri getAirplaneModeUri() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+            return Settings.Global.getUriFor(Settings.Global.AIRPLANE_MODE_ON);
+        }
+        return Settings.System.getUriFor(Settings.System.AIRPLANE_MODE_ON);
+    }
+
+    @SuppressWarnings("deprecation")
+    private boolean readAirplaneMode() {
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+                return Settings.Global.getInt(contentResolver, Settings.Global.AIRPLANE_MODE_ON, 0) == 1;
+            }
+            return Settings.System.getInt(contentResolver, Settings.System.AIRPLANE_MODE_ON, 0) == 1;
+        } catch (Throwable e) {
+            return false;
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private static Uri getLocationUri() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return Settings.Secure.getUriFor(Settings.Secure.LOCATION_MODE);
+        }
+        return Settings.Secure.getUriFor(Settings.Secure.LOCATION_PROVIDERS_ALLOWED);
+    }
+
+    @SuppressWarnings("deprecation")
+    private boolean readLocationEnabled() {
+        if (Build.VERSION.SDK_INT >= 28) {
+            Method method = IsLocationEnabled.METHOD;
+            if (method != null && locationManager != null) {
+                try {
+                    Boolean enabled = (Boolean) method.invoke(locationManager);
+                    return enabled != null && enabled;
+                } catch (Throwable e) {
+                    e.printStackTrace();
+                }
+            }
+            return true;
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return readLocationMode() != Settings.Secure.LOCATION_MODE_OFF;
+        } else {
+            if (locationManager == null) {
+                return false;
+            }
+            List<String> allProviders = locationManager.getAllProviders();
+            if (allProviders == null || allProviders.isEmpty()) {
+                return false;
+            }
+            String usableProviders = Settings.Secure.getString(contentResolver,
+                    Settings.Secure.LOCATION_PROVIDERS_ALLOWED);
+            return usableProviders != null && !usableProviders.isEmpty();
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    @SuppressWarnings("deprecation")
+    private int readLocationMode() {
+        return Settings.Secure.getInt(contentResolver, Settings.Secure.LOCATION_MODE,
+                Settings.Secure.LOCATION_MODE_HIGH_ACCURACY);
+    }
+
+    private int readWifiState() {
+        if (wifiManager == null) {
+            return WifiSource.STATE_UNAVAILABLE;
+        }
+        try {
+            return toWifiSourceState(wifiManager.getWifiState());
+        } catch (Throwable e) {
+            e.printStackTrace();
+            return WifiSource.STATE_UNAVAILABLE;
+        }
+    }
+
+    private static int toWifiSourceState(int state) {
+        switch (state) {
+            case WifiManager.WIFI_STATE_DISABLED:
+            case WifiManager.WIFI_STATE_DISABLING:
+            case WifiManager.WIFI_STATE_UNKNOWN:
+                return WifiSource.STATE_DISABLED;
+            default:
+                return WifiSource.STATE_ENABLED;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.amap.loc.diagnose.platform;
+
+/**
+ * 检测使用的时钟和任务队列，检测流程中的超时和回调都通过它调度
+ *
+ * Android中为主线程Handler，见{@link AndroidPlatform}；JVM中为benchmark模块中的FakeClock，可以跳过等待时间快速运行
+ */
+public interface DiagnoseClock {
+
+    /**
+     * @return 单调递增的时间，单位毫秒，只用于计算时间间隔
+     */
+    long elapsedRealtime();
+
+    /**
+     * 延迟执行任务
+     * @param runnable 任务，同一个任务可以重复提交
+     * @param delayMillis 延迟时间，单位毫秒，为0时在当前任务结束后执行
+     */
+    void postDelayed(Runnable runnable, long delayMillis);
+
+    /**
+     * 移除尚未执行的任务，包括重复提交的
+     */
+    void removeCallbacks(Runnable runnable);
+}
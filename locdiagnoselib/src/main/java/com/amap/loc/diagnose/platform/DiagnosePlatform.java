@@ -0,0 +1,28 @@
+package com.amap.loc.diagnose.platform;
+
+/**
+ * 检测依赖的系统能力：时钟、定位、wifi、基站、网络连接
+ *
+ * 检测流程只通过该类访问系统，在设备上使用{@link AndroidPlatform#create(android.content.Context)}，在JVM中使用
+ * benchmark模块中的FakePlatform按预先录制的时间线回放
+ */
+public class DiagnosePlatform {
+
+    public final DiagnoseClock clock;
+    public final LocationSource location;
+    public final WifiSource wifi;
+    public final CellSource cell;
+    public final ConnectivitySource connectivity;
+
+    public DiagnosePlatform(DiagnoseClock clock, LocationSource location, WifiSource wifi, CellSource cell,
+                            ConnectivitySource connectivity) {
+        if (clock == null || location == null || wifi == null || cell == null || connectivity == null) {
+            throw new IllegalArgumentException("platform components must not be null");
+        }
+        this.clock = clock;
+        this.location = location;
+        this.wifi = wifi;
+        this.cell = cell;
+        this.connectivity = connectivity;
+    }
+}
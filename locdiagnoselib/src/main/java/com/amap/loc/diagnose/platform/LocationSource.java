@@ -0,0 +1,49 @@
+package com.amap.loc.diagnose.platform;
+
+/**
+ * GPS定位和卫星状态
+ */
+public interface LocationSource {
+
+    /**
+     * 回调都在{@link DiagnoseClock}所在线程中进行
+     */
+    interface Listener {
+        /**
+         * 收到GPS定位结果
+         */
+        void onLocationChanged();
+
+        /**
+         * 卫星状态更新，约每秒一次
+         * @param status 卫星信息，只能在回调中读取
+         */
+        void onSatelliteStatus(SatelliteStatus status);
+
+        /**
+         * GPS停止工作或暂时不可用
+         */
+        void onGpsStopped();
+
+        /**
+         * GPS定位开关被关闭
+         */
+        void onProviderDisabled();
+    }
+
+    /**
+     * @return 是否有精确和粗略定位权限
+     */
+    boolean hasLocationPermission();
+
+    /**
+     * 开始GPS定位并监听卫星状态
+     * @return 是否成功开始，定位服务不可用时返回false
+     */
+    boolean start(Listener listener);
+
+    /**
+     * 停止GPS定位，停止后不会再有回调
+     */
+    void stop();
+}
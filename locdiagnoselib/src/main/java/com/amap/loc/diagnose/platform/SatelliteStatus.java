@@ -0,0 +1,146 @@
+package com.amap.loc.diagnose.platform;
+
+import java.util.Arrays;
+
+/**
+ * 一次卫星状态回调中的卫星信息，对象和数组在每次回调之间复用，卫星数不超过已有容量时不分配内存
+ *
+ * 只能在回调中读取，回调结束后内容会被下一次回调覆盖
+ */
+public class SatelliteStatus {
+
+    /**
+     * 卫星系统，取值与GnssStatus.CONSTELLATION_*一致
+     */
+    public static final int CONSTELLATION_UNKNOWN = 0;
+    public static final int CONSTELLATION_GPS = 1;
+    public static final int CONSTELLATION_SBAS = 2;
+    public static final int CONSTELLATION_GLONASS = 3;
+    public static final int CONSTELLATION_QZSS = 4;
+    public static final int CONSTELLATION_BEIDOU = 5;
+    public static final int CONSTELLATION_GALILEO = 6;
+    public static final int CONSTELLATION_IRNSS = 7;
+    /**
+     * 卫星系统的数量，CONSTELLATION_*都小于该值
+     */
+    public static final int CONSTELLATION_COUNT = 8;
+
+    private int count;
+    private boolean[] usedInFix;
+    private float[] cn0DbHz;
+    private byte[] constellation;
+    private float[] azimuthDegrees;
+    private float[] elevationDegrees;
+
+    public SatelliteStatus() {
+        this(32);
+    }
+
+    public SatelliteStatus(int initialCapacity) {
+        usedInFix = new boolean[initialCapacity];
+        cn0DbHz = new float[initialCapacity];
+        constellation = new byte[initialCapacity];
+        azimuthDegrees = new float[initialCapacity];
+        elevationDegrees = new float[initialCapacity];
+    }
+
+    /**
+     * 清空，开始填充新的一次回调
+     */
+    public void clear() {
+        count = 0;
+    }
+
+    /**
+     * 添加一颗卫星，卫星系统和方位未知
+     * @param usedInFix 是否参与定位
+     * @param cn0DbHz 信号强度，单位dB-Hz
+     */
+    public void add(boolean usedInFix, float cn0DbHz) {
+        add(usedInFix, cn0DbHz, CONSTELLATION_UNKNOWN, Float.NaN, Float.NaN);
+    }
+
+    /**
+     * 添加一颗卫星
+     * @param usedInFix 是否参与定位
+     * @param cn0DbHz 信号强度，单位dB-Hz
+     * @param constellation 卫星系统，CONSTELLATION_*，超出范围时作为CONSTELLATION_UNKNOWN
+     * @param azimuthDegrees 方位角，0~360度，未知时为NaN
+     * @param elevationDegrees 高度角，0~90度，未知时为NaN
+     */
+    public void add(boolean usedInFix, float cn0DbHz, int constellation, float azimuthDegrees, float elevationDegrees) {
+        if (count == this.usedInFix.length) {
+            int capacity = Math.max(8, count * 2);
+            this.usedInFix = Arrays.copyOf(this.usedInFix, capacity);
+            this.cn0DbHz = Arrays.copyOf(this.cn0DbHz, capacity);
+            this.constellation = Arrays.copyOf(this.constellation, capacity);
+            this.azimuthDegrees = Arrays.copyOf(this.azimuthDegrees, capacity);
+            this.elevationDegrees = Arrays.copyOf(this.elevationDegrees, capacity);
+        }
+        this.usedInFix[count] = usedInFix;
+        this.cn0DbHz[count] = cn0DbHz;
+        this.constellation[count] = (byte) (constellation > 0 && constellation < CONSTELLATION_COUNT
+                ? constellation : CONSTELLATION_UNKNOWN);
+        this.azimuthDegrees[count] = azimuthDegrees;
+        this.elevationDegrees[count] = elevationDegrees;
+        count++;
+    }
+
+    /**
+     * 根据GpsStatus中的卫星编号推断卫星系统，用于API 24以下没有GnssStatus的系统
+     * @param prn GpsSatellite.getPrn()
+     * @return CONSTELLATION_*
+     */
+    public static int constellationOfPrn(int prn) {
+        if (prn >= 1 && prn <= 32) {
+            return CONSTELLATION_GPS;
+        } else if (prn >= 33 && prn <= 64) {
+            return CONSTELLATION_SBAS;
+        } else if (prn >= 65 && prn <= 96) {
+            return CONSTELLATION_GLONASS;
+        } else if (prn >= 193 && prn <= 200) {
+            return CONSTELLATION_QZSS;
+        } else if (prn >= 201 && prn <= 235) {
+            return CONSTELLATION_BEIDOU;
+        } else if (prn >= 301 && prn <= 336) {
+            return CONSTELLATION_GALILEO;
+        }
+        return CONSTELLATION_UNKNOWN;
+    }
+
+    /**
+     * @return 搜索到的卫星数
+     */
+    public int getCount() {
+        return count;
+    }
+
+    public boolean usedInFix(int index) {
+        return usedInFix[index];
+    }
+
+    public float getCn0DbHz(int index) {
+        return cn0DbHz[index];
+    }
+
+    /**
+     * @return CONSTELLATION_*
+     */
+    public int getConstellation(int index) {
+        return constellation[index];
+    }
+
+    /**
+     * @return 方位角，未知时为NaN
+     */
+    public float getAzimuthDegrees(int index) {
+        return azimuthDegrees[index];
+    }
+
+    /**
+     * @return 高度角，未知时为NaN
+     */
+    public float getElevationDegrees(int index) {
+        return elevationDegrees[index];
+    }
+}
@@ -0,0 +1,272 @@
+package com.amap.loc.diagnose.platform;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 录制时间线：包装一个DiagnosePlatform（通常是{@link AndroidPlatform}），转发所有调用，并把设备状态和回调事件记录到
+ * 时间线中，之后可以用benchmark模块中的FakePlatform在JVM中回放，文本格式见benchmark模块中的FakeTimeline
+ *
+ * 事件时间相对各数据源开始工作的时间，与FakePlatform回放时一致。使用方式：
+ * <pre>
+ * TimelineRecorder recorder = new TimelineRecorder(AndroidPlatform.create(context));
+ * diagnoser.setPlatform(recorder.getPlatform());
+ * ...检测结束后
+ * String text = recorder.getTimeline();
+ * </pre>
+ */
+public class TimelineRecorder {
+
+    /**
+     * 时间线中的事件类型
+     */
+    public static final String GPS_SATELLITES = "gps.satellites";
+    public static final String GPS_LOCATION = "gps.location";
+    public static final String GPS_STOPPED = "gps.stopped";
+    public static final String GPS_DISABLED = "gps.disabled";
+    public static final String WIFI_SCAN = "wifi.scan";
+    public static final String WIFI_DISABLED = "wifi.disabled";
+    public static final String CELL_INFO = "cell.info";
+
+    private final DiagnosePlatform target;
+    private final DiagnosePlatform platform;
+
+    /**
+     * 设备的初始状态，未读取过的保持默认值
+     */
+    private boolean locationPermission = true;
+    private boolean locationAvailable = true;
+    private boolean airplaneMode = false;
+    private boolean cellAvailable = true;
+    private boolean simReady = true;
+    private int wifiState = WifiSource.STATE_ENABLED;
+    private int wifiCachedApCount = 0;
+    /**
+     * 事件，每条为时间线中的一行，按录制顺序排列，回放时按时间排序
+     */
+    private final List<String> events = new ArrayList<>();
+
+    public TimelineRecorder(DiagnosePlatform target) {
+        this.target = target;
+        this.platform = new DiagnosePlatform(target.clock, new RecordingLocationSource(),
+                new RecordingWifiSource(), new RecordingCellSource(), new RecordingConnectivitySource());
+    }
+
+    /**
+     * @return 会被录制的DiagnosePlatform，交给检测流程使用
+     */
+    public DiagnosePlatform getPlatform() {
+        return platform;
+    }
+
+    /**
+     * @return 已录制的时间线，文本格式
+     */
+    public String getTimeline() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("location.permission ").append(locationPermission).append('\n');
+        sb.append("location.available ").append(locationAvailable).append('\n');
+        sb.append("airplane ").append(airplaneMode).append('\n');
+        sb.append("cell.available ").append(cellAvailable).append('\n');
+        sb.append("sim.ready ").append(simReady).append('\n');
+        sb.append("wifi.state ").append(wifiStateName(wifiState)).append('\n');
+        sb.append("wifi.cached ").append(wifiCachedApCount).append('\n');
+        for (String event : events) {
+            sb.append(event).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private long since(long startTime) {
+        return target.clock.elapsedRealtime() - startTime;
+    }
+
+    private void at(long time, String type, double... args) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(time).append(' ').append(type);
+        for (double arg : args) {
+            sb.append(' ');
+            if (arg == (long) arg) {
+                sb.append((long) arg);
+            } else {
+                sb.append(String.format(Locale.US, "%.1f", arg));
+            }
+        }
+        events.add(sb.toString());
+    }
+
+    private static String wifiStateName(int state) {
+        switch (state) {
+            case WifiSource.STATE_ENABLED:
+                return "enabled";
+            case WifiSource.STATE_DISABLED:
+                return "disabled";
+            default:
+                return "unavailable";
+        }
+    }
+
+    private class RecordingLocationSource implements LocationSource, LocationSource.Listener {
+
+        private long startTime;
+        private Listener listener;
+
+        @Override
+        public boolean hasLocationPermission() {
+            return locationPermission = target.location.hasLocationPermission();
+        }
+
+        @Override
+        public boolean start(Listener listener) {
+            this.listener = listener;
+            startTime = target.clock.elapsedRealtime();
+            locationAvailable = target.location.start(this);
+            return locationAvailable;
+        }
+
+        @Override
+        public void stop() {
+            target.location.stop();
+            listener = null;
+        }
+
+        @Override
+        public void onLocationChanged() {
+            at(since(startTime), GPS_LOCATION);
+            if (listener != null) {
+                listener.onLocationChanged();
+            }
+        }
+
+        @Override
+        public void onSatelliteStatus(SatelliteStatus status) {
+            int used = 0;
+            float totalCn0 = 0;
+            for (int i = 0; i < status.getCount(); i++) {
+                if (status.usedInFix(i)) {
+                    used++;
+                    totalCn0 += status.getCn0DbHz(i);
+                }
+            }
+            at(since(startTime), GPS_SATELLITES, status.getCount(), used,
+                    used > 0 ? totalCn0 / used : 0);
+            if (listener != null) {
+                listener.onSatelliteStatus(status);
+            }
+        }
+
+        @Override
+        public void onGpsStopped() {
+            at(since(startTime), GPS_STOPPED);
+            if (listener != null) {
+                listener.onGpsStopped();
+            }
+        }
+
+        @Override
+        public void onProviderDisabled() {
+            at(since(startTime), GPS_DISABLED);
+            if (listener != null) {
+                listener.onProviderDisabled();
+            }
+        }
+    }
+
+    private class RecordingWifiSource implements WifiSource, WifiSource.Listener {
+
+        private long startTime;
+        private boolean scanned;
+        private Listener listener;
+
+        @Override
+        public int getState() {
+            return wifiState = target.wifi.getState();
+        }
+
+        @Override
+        public boolean startScan(Listener listener) {
+            this.listener = listener;
+            startTime = target.clock.elapsedRealtime();
+            return target.wifi.startScan(this);
+        }
+
+        @Override
+        public void stopScan() {
+            target.wifi.stopScan();
+            listener = null;
+        }
+
+        @Override
+        public int getScanResultCount() {
+            int count = target.wifi.getScanResultCount();
+            if (!scanned) {
+                // 没有收到扫描结果时读取的是系统缓存的结果
+                wifiCachedApCount = Math.max(count, 0);
+            }
+            return count;
+        }
+
+        @Override
+        public void onScanResults() {
+            scanned = true;
+            at(since(startTime), WIFI_SCAN, Math.max(target.wifi.getScanResultCount(), 0));
+            if (listener != null) {
+                listener.onScanResults();
+            }
+        }
+
+        @Override
+        public void onWifiDisabled() {
+            at(since(startTime), WIFI_DISABLED);
+            if (listener != null) {
+                listener.onWifiDisabled();
+            }
+        }
+    }
+
+    private class RecordingCellSource implements CellSource {
+
+        @Override
+        public boolean isAvailable() {
+            return cellAvailable = target.cell.isAvailable();
+        }
+
+        @Override
+        public void requestCellInfo(final Callback callback) {
+            final long startTime = target.clock.elapsedRealtime();
+            target.cell.requestCellInfo(new Callback() {
+                @Override
+                public void onCellInfo(CellStatus status) {
+                    int serving = -1;
+                    for (int i = 0; status != null && i < status.getCount(); i++) {
+                        if (status.isRegistered(i)) {
+                            serving = i;
+                            break;
+                        }
+                    }
+                    if (serving >= 0) {
+                        at(since(startTime), CELL_INFO, status.getCount(),
+                                status.getRat(serving), status.getDbm(serving), status.getAgeMillis(serving));
+                    } else {
+                        at(since(startTime), CELL_INFO, status == null ? -1 : status.getCount());
+                    }
+                    callback.onCellInfo(status);
+                }
+            });
+        }
+
+        @Override
+        public boolean isSimReady() {
+            return simReady = target.cell.isSimReady();
+        }
+    }
+
+    private class RecordingConnectivitySource implements ConnectivitySource {
+
+        @Override
+        public boolean isAirplaneModeOn() {
+            return airplaneMode = target.connectivity.isAirplaneModeOn();
+        }
+    }
+}
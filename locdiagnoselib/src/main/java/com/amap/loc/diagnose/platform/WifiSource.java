@@ -0,0 +1,53 @@
+package com.amap.loc.diagnose.platform;
+
+/**
+ * wifi状态和热点扫描
+ */
+public interface WifiSource {
+
+    /**
+     * 无法获取wifi服务
+     */
+    int STATE_UNAVAILABLE = -1;
+    /**
+     * wifi关闭、正在关闭或状态未知
+     */
+    int STATE_DISABLED = 0;
+    int STATE_ENABLED = 1;
+
+    /**
+     * 回调都在{@link DiagnoseClock}所在线程中进行
+     */
+    interface Listener {
+        /**
+         * 扫描完成，可以通过{@link #getScanResultCount()}获取最新的热点数
+         */
+        void onScanResults();
+
+        /**
+         * 扫描过程中wifi被关闭
+         */
+        void onWifiDisabled();
+    }
+
+    /**
+     * @return STATE_*
+     */
+    int getState();
+
+    /**
+     * 发起一次扫描
+     * @return 是否成功发起，扫描被系统限制或失败时返回false，不会有回调
+     */
+    boolean startScan(Listener listener);
+
+    /**
+     * 停止监听扫描结果，停止后不会再有回调
+     */
+    void stopScan();
+
+    /**
+     * @return 最近一次扫描（可能是系统缓存的结果）的热点数，获取失败时返回-1
+     */
+    int getScanResultCount();
+}
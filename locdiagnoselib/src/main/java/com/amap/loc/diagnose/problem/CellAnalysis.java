@@ -0,0 +1,224 @@
+package com.amap.loc.diagnose.problem;
+
+import com.amap.loc.diagnose.platform.CellStatus;
+
+/**
+ * 基站信息分析：按制式统计基站数，找出注册的服务小区，统计邻区数和信号强度，并检查基站信息是否过期
+ *
+ * 基站定位依赖服务小区和邻区，服务小区信号弱或基站信息过期时，基站定位的精度会变差
+ */
+public class CellAnalysis {
+
+    /**
+     * 信号等级，按服务小区的信号强度划分，不同制式的门限见{@link #levelOf(int, int)}
+     */
+    public static final int LEVEL_UNKNOWN = 0;
+    public static final int LEVEL_POOR = 1;
+    public static final int LEVEL_MODERATE = 2;
+    public static final int LEVEL_GOOD = 3;
+
+    /**
+     * 基站信息超过该时间认为已经过期，单位毫秒
+     */
+    public static final long DEFAULT_STALE_AGE = 30 * 1000;
+
+    /**
+     * 各制式的信号门限，单位dBm：低于第一个值为差，不低于第二个值为好；GSM、CDMA为接收信号强度，WCDMA、TD-SCDMA
+     * 为RSCP，LTE为RSRP，NR为SS-RSRP
+     */
+    private static final int[][] THRESHOLDS = new int[][]{
+            null,
+            {-103, -89},
+            {-100, -85},
+            {-110, -95},
+            {-110, -95},
+            {-115, -95},
+            {-110, -90},
+    };
+
+    private final long staleAge;
+
+    private int count;
+    private final int[] countByRat = new int[CellStatus.RAT_COUNT];
+    private int servingIndex = -1;
+    private int servingRat = CellStatus.RAT_UNKNOWN;
+    private int servingDbm = CellStatus.DBM_UNKNOWN;
+    private int neighborCount;
+    private int neighborDbmCount;
+    private long neighborDbmSum;
+    private int maxNeighborDbm = CellStatus.DBM_UNKNOWN;
+    private long maxAgeMillis = CellStatus.AGE_UNKNOWN;
+
+    public CellAnalysis() {
+        this(DEFAULT_STALE_AGE);
+    }
+
+    /**
+     * @param staleAge 基站信息超过该时间认为已经过期，单位毫秒
+     */
+    public CellAnalysis(long staleAge) {
+        this.staleAge = staleAge;
+    }
+
+    /**
+     * 分析一次基站查询的结果，覆盖之前的分析结果
+     * @param status 基站信息，不能为null
+     */
+    public void analyze(CellStatus status) {
+        count = status.getCount();
+        for (int r = 0; r < CellStatus.RAT_COUNT; r++) {
+            countByRat[r] = 0;
+        }
+        servingIndex = -1;
+        servingRat = CellStatus.RAT_UNKNOWN;
+        servingDbm = CellStatus.DBM_UNKNOWN;
+        neighborCount = 0;
+        neighborDbmCount = 0;
+        neighborDbmSum = 0;
+        maxNeighborDbm = CellStatus.DBM_UNKNOWN;
+        maxAgeMillis = CellStatus.AGE_UNKNOWN;
+        for (int i = 0; i < count; i++) {
+            int rat = status.getRat(i);
+            int dbm = status.getDbm(i);
+            countByRat[rat]++;
+            if (status.isRegistered(i)) {
+                // 双卡时有多个服务小区，取信号最强的一个
+                if (servingIndex < 0 || (dbm != CellStatus.DBM_UNKNOWN
+                        && (servingDbm == CellStatus.DBM_UNKNOWN || dbm > servingDbm))) {
+                    servingIndex = i;
+                    servingRat = rat;
+                    servingDbm = dbm;
+                }
+            } else {
+                neighborCount++;
+                if (dbm != CellStatus.DBM_UNKNOWN) {
+                    neighborDbmCount++;
+                    neighborDbmSum += dbm;
+                    if (maxNeighborDbm == CellStatus.DBM_UNKNOWN || dbm > maxNeighborDbm) {
+                        maxNeighborDbm = dbm;
+                    }
+                }
+            }
+            maxAgeMillis = Math.max(maxAgeMillis, status.getAgeMillis(i));
+        }
+    }
+
+    /**
+     * @param rat CellStatus.RAT_*
+     * @param dbm 信号强度
+     * @return LEVEL_*，制式或信号强度未知时为LEVEL_UNKNOWN
+     */
+    public static int levelOf(int rat, int dbm) {
+        if (rat <= CellStatus.RAT_UNKNOWN || rat >= CellStatus.RAT_COUNT || dbm == CellStatus.DBM_UNKNOWN) {
+            return LEVEL_UNKNOWN;
+        }
+        int[] threshold = THRESHOLDS[rat];
+        if (dbm < threshold[0]) {
+            return LEVEL_POOR;
+        }
+        return dbm < threshold[1] ? LEVEL_MODERATE : LEVEL_GOOD;
+    }
+
+    /**
+     * @return 分析结果对应的具体检查编码：没有基站时为CELL_NOT_FOUND，否则依次检查服务小区、信息时效和信号强度，
+     * 都正常时为CELL_OK
+     */
+    public int getCode() {
+        if (count == 0) {
+            return DiagnoseCode.CELL_NOT_FOUND;
+        }
+        if (servingIndex < 0) {
+            return DiagnoseCode.CELL_NO_SERVING;
+        }
+        if (isStale()) {
+            return DiagnoseCode.CELL_STALE;
+        }
+        if (getServingLevel() == LEVEL_POOR) {
+            return DiagnoseCode.CELL_WEAK_SIGNAL;
+        }
+        return DiagnoseCode.CELL_OK;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @param rat CellStatus.RAT_*
+     * @return 该制式的基站数
+     */
+    public int getCount(int rat) {
+        return countByRat[rat];
+    }
+
+    public boolean hasServingCell() {
+        return servingIndex >= 0;
+    }
+
+    /**
+     * @return 服务小区的制式，没有服务小区时为RAT_UNKNOWN
+     */
+    public int getServingRat() {
+        return servingRat;
+    }
+
+    /**
+     * @return 服务小区的信号强度，未知时为DBM_UNKNOWN
+     */
+    public int getServingDbm() {
+        return servingDbm;
+    }
+
+    /**
+     * @return 服务小区的信号等级，LEVEL_*
+     */
+    public int getServingLevel() {
+        return levelOf(servingRat, servingDbm);
+    }
+
+    public int getNeighborCount() {
+        return neighborCount;
+    }
+
+    /**
+     * @return 邻区的平均信号强度，没有邻区信号强度时为DBM_UNKNOWN
+     */
+    public int getMeanNeighborDbm() {
+        return neighborDbmCount == 0 ? CellStatus.DBM_UNKNOWN : (int) (neighborDbmSum / neighborDbmCount);
+    }
+
+    /**
+     * @return 邻区中最强的信号强度，没有邻区信号强度时为DBM_UNKNOWN
+     */
+    public int getMaxNeighborDbm() {
+        return maxNeighborDbm;
+    }
+
+    /**
+     * @return 最旧的基站信息距今的时间，未知时为AGE_UNKNOWN
+     */
+    public long getMaxAgeMillis() {
+        return maxAgeMillis;
+    }
+
+    public boolean isStale() {
+        return maxAgeMillis > staleAge;
+    }
+
+    /**
+     * 将分析结果写入检测指标
+     */
+    public void writeTo(DiagnoseMetrics metrics) {
+        metrics.put(DiagnoseMetrics.CELL_COUNT, count)
+                .put(DiagnoseMetrics.CELL_NEIGHBORS, neighborCount);
+        if (servingIndex >= 0 && servingRat != CellStatus.RAT_UNKNOWN) {
+            metrics.put(DiagnoseMetrics.CELL_SERVING_RAT, servingRat);
+            if (servingDbm != CellStatus.DBM_UNKNOWN) {
+                metrics.put(DiagnoseMetrics.CELL_SERVING_DBM, servingDbm);
+            }
+        }
+        if (maxAgeMillis != CellStatus.AGE_UNKNOWN) {
+            metrics.put(DiagnoseMetrics.CELL_AGE_MS, maxAgeMillis);
+        }
+    }
+}
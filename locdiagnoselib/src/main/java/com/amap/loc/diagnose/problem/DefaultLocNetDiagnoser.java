@@ -1,8 +1,6 @@
 package com.amap.loc.diagnose.problem;
 
 import android.content.Context;
-import android.os.AsyncTask;
-import android.os.Build;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
@@ -11,22 +9,23 @@ import android.util.Log;
 
 import com.amap.loc.diagnose.R;
 
-import java.io.Closeable;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.Reader;
-import java.io.UnsupportedEncodingException;
-import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
-import java.net.URL;
-
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Executor;
 import javax.net.ssl.HttpsURLConnection;
 
 /**
  * 为定位服务网络，分别检查能否连接到外部网络和定位服务
+ *
+ * 对外部网络和定位服务地址并行探测多次，分别统计DNS、TCP连接、TLS握手、首字节时间，用于区分延迟来自哪个阶段，
+ * 见{@link NetworkProbe}；探测使用HEAD请求并复用连接，第一次探测为冷连接，之后的探测只统计请求本身的耗时，
+ * 减少在按流量计费的移动网络上的流量和耗时
+ *
+ * 探测默认在{@link DiagnoseExecutor#getDefault()}中执行，检测取消时关闭正在使用的连接
  */
-public class DefaultLocNetDiagnoser implements DiagnoseView.Diagnoser {
+public class DefaultLocNetDiagnoser implements DiagnoseView.CacheableDiagnoser, DiagnoseView.CancellableDiagnoser,
+        DiagnoseView.TraceableDiagnoser {
 
     private static final String TAG = "DefLocNetDia";
     private static final boolean DEBUGFLAG = false;
@@ -36,39 +35,120 @@ public class DefaultLocNetDiagnoser implements DiagnoseView.Diagnoser {
     private static final int MSG_CONNECT_SLOW = 3;
     private static final int MSG_CONNECT_OK = 4;
 
+    /**
+     * 新建连接的请求总耗时中位数超过该值时，认为网络延迟过高，单位毫秒
+     */
+    private static final long SLOW_THRESHOLD = 3 * 1000;
+    private static final int DEFAULT_SAMPLES = 3;
+    private static final int TIMEOUT = 10 * 1000;
+
+    /**
+     * 默认探测地址，第一个用于检查能否访问外部网络，其余为定位服务地址
+     */
+    private static final String OUTER_URL = "https://www.taobao.com";
+    private static final String AMAP_LOCATION_URL = "https://apilocate.amap.com";
+
     private Handler mainHandler = new Handler(Looper.getMainLooper()) {
         @Override
+        @SuppressWarnings("unchecked")
         public void handleMessage(Message msg) {
+            List<NetworkProbe.EndpointResult> results = (List<NetworkProbe.EndpointResult>) msg.obj;
+            DiagnoseResultItem resultItem;
             switch (msg.what) {
                 case MSG_CONNECT_OUTER_FAIL:
-                    onResult(DiagnoseResultItem.checkError("网络异常，无法正常访问网络"));
+                    resultItem = DiagnoseResultItem.checkError("网络异常，无法正常访问网络");
+                    resultItem.code = DiagnoseCode.NET_OUTER_FAIL;
                     break;
                 case MSG_CONNECT_AMAP_FAIL:
-                    onResult(DiagnoseResultItem.checkError("网络异常，无法正常连接到定位服务"));
+                    resultItem = DiagnoseResultItem.checkError("网络异常，无法正常连接到定位服务");
+                    resultItem.code = DiagnoseCode.NET_AMAP_FAIL;
                     break;
                 case MSG_CONNECT_SLOW:
-                    onResult(DiagnoseResultItem.checkError("网络异常，延迟过高"));
+                    resultItem = DiagnoseResultItem.checkError("网络异常，延迟过高");
+                    resultItem.code = DiagnoseCode.NET_SLOW;
                     break;
                 case MSG_CONNECT_OK:
-                    onResult(DiagnoseResultItem.checkOk());
+                    resultItem = DiagnoseResultItem.checkOk();
+                    resultItem.code = DiagnoseCode.NET_OK;
                     break;
+                default:
+                    return;
+            }
+            // 每个地址的各阶段耗时，无异常时不展示，但保留在结果中
+            resultItem.subItems = new LinkedList<>();
+            for (NetworkProbe.EndpointResult result : results) {
+                resultItem.subItems.add(toSubItem(result));
             }
+            // 整体指标取各地址中最慢的一个
+            resultItem.metrics = new DiagnoseMetrics();
+            putP50(resultItem.metrics, DiagnoseMetrics.NET_TOTAL_P50_MS, maxP50(results, NetworkProbe.PHASE_TOTAL));
+            putP50(resultItem.metrics, DiagnoseMetrics.NET_RTT_MS, maxP50(results, NetworkProbe.PHASE_CONNECT));
+            onResult(resultItem);
         }
     };
 
     private DiagnoseResultItem resultItem;
 
-    private CheckNetworkTask checkNetworkTask;
+    private final List<NetworkProbe.Endpoint> endpoints;
+    private final int samples;
+    private Executor executor = DiagnoseExecutor.getDefault();
+    private NetworkProbe networkProbe;
+    private DiagnoseTrace trace;
     private DiagnoseView.DiagnoseFinishCallback finishCallback;
 
+    public DefaultLocNetDiagnoser() {
+        this(createDefaultEndpoints(), DEFAULT_SAMPLES);
+    }
+
+    /**
+     * @param endpoints 探测地址，第一个地址用于检查能否访问外部网络，其余地址为定位服务地址，至少需要一个
+     * @param samples 每个地址的探测次数，第一次为冷连接，之后复用连接
+     */
+    public DefaultLocNetDiagnoser(List<NetworkProbe.Endpoint> endpoints, int samples) {
+        if (endpoints == null || endpoints.isEmpty()) {
+            throw new IllegalArgumentException("endpoints must not be empty");
+        }
+        this.endpoints = new ArrayList<>(endpoints);
+        this.samples = samples;
+    }
+
+    /**
+     * 设置执行网络探测的线程池，必须在prepare之前调用
+     * @param executor 线程池，默认为{@link DiagnoseExecutor#getDefault()}
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    public static List<NetworkProbe.Endpoint> createDefaultEndpoints() {
+        List<NetworkProbe.Endpoint> endpoints = new ArrayList<>();
+        endpoints.add(new NetworkProbe.Endpoint("外部网络", OUTER_URL));
+        endpoints.add(new NetworkProbe.Endpoint("定位服务", AMAP_LOCATION_URL));
+        return endpoints;
+    }
+
+    @Override
+    public void setTrace(DiagnoseTrace trace) {
+        this.trace = trace;
+    }
+
     @Override
     public void prepare(Context context) {
-        checkNetworkTask = new CheckNetworkTask(mainHandler);
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
-            checkNetworkTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
-        } else {
-            checkNetworkTask.execute();
-        }
+        networkProbe = new NetworkProbe(endpoints, samples, TIMEOUT);
+        networkProbe.setMethod(NetworkProbe.METHOD_HEAD);
+        networkProbe.setKeepAlive(true);
+        // Android 7.0以下不支持在握手时校验域名，使用系统默认的域名校验
+        networkProbe.setHostnameVerifier(HttpsURLConnection.getDefaultHostnameVerifier());
+        networkProbe.setTrace(trace);
+        networkProbe.start(executor, new NetworkProbe.Listener() {
+            @Override
+            public void onProbeFinish(List<NetworkProbe.EndpointResult> results) {
+                for (NetworkProbe.EndpointResult result : results) {
+                    log("probe: " + result);
+                }
+                mainHandler.obtainMessage(checkResults(results), results).sendToTarget();
+            }
+        });
     }
 
     @Override
@@ -82,6 +162,15 @@ public class DefaultLocNetDiagnoser implements DiagnoseView.Diagnoser {
         }
     }
 
+    @Override
+    public void cancel() {
+        if (networkProbe != null) {
+            networkProbe.cancel();
+        }
+        mainHandler.removeCallbacksAndMessages(null);
+        finishCallback = null;
+    }
+
     private void onResult(DiagnoseResultItem diagnoseResultItem) {
         resultItem = diagnoseResultItem;
         if (finishCallback != null) {
@@ -89,6 +178,11 @@ public class DefaultLocNetDiagnoser implements DiagnoseView.Diagnoser {
         }
     }
 
+    @Override
+    public long getResultTtl() {
+        return 30 * 1000;
+    }
+
     @Override
     public int getIcon() {
         return R.drawable.network;
@@ -99,128 +193,86 @@ public class DefaultLocNetDiagnoser implements DiagnoseView.Diagnoser {
         return "网络连接";
     }
 
-    private static void log(String log) {
-        if (DEBUGFLAG) {
-            Log.w(TAG, log);
+    private static DiagnoseResultItem.SubItem toSubItem(final NetworkProbe.EndpointResult result) {
+        DiagnoseResultItem.CheckResult checkResult;
+        int code;
+        if (!result.isReachable()) {
+            checkResult = DiagnoseResultItem.CheckResult.Error;
+            code = DiagnoseCode.NET_ENDPOINT_UNREACHABLE;
+        } else if (result.getPhase(NetworkProbe.PHASE_TOTAL).p50 > SLOW_THRESHOLD) {
+            checkResult = DiagnoseResultItem.CheckResult.Warning;
+            code = DiagnoseCode.NET_ENDPOINT_SLOW;
+        } else {
+            checkResult = DiagnoseResultItem.CheckResult.Ok;
+            code = DiagnoseCode.NET_ENDPOINT_OK;
         }
+        // 各阶段耗时的描述较长，只在展示时生成
+        DiagnoseResultItem.SubItem subItem = new DiagnoseResultItem.SubItem(checkResult, code, null) {
+            @Override
+            protected String renderDescription() {
+                if (!result.isReachable()) {
+                    return "无法连接到" + result.endpoint.name;
+                }
+                return result.endpoint.name + "：" + result.describePhases();
+            }
+        };
+        subItem.metrics = new DiagnoseMetrics(9);
+        subItem.metrics.put(DiagnoseMetrics.NET_BYTES, result.bytesReceived);
+        putP50(subItem.metrics, DiagnoseMetrics.NET_DNS_P50_MS, result.getPhase(NetworkProbe.PHASE_DNS));
+        putP50(subItem.metrics, DiagnoseMetrics.NET_CONNECT_P50_MS, result.getPhase(NetworkProbe.PHASE_CONNECT));
+        putP50(subItem.metrics, DiagnoseMetrics.NET_RTT_MS, result.getPhase(NetworkProbe.PHASE_CONNECT));
+        putP50(subItem.metrics, DiagnoseMetrics.NET_TLS_P50_MS, result.getPhase(NetworkProbe.PHASE_TLS));
+        putP50(subItem.metrics, DiagnoseMetrics.NET_FIRST_BYTE_P50_MS, result.getPhase(NetworkProbe.PHASE_FIRST_BYTE));
+        putP50(subItem.metrics, DiagnoseMetrics.NET_TOTAL_P50_MS, result.getPhase(NetworkProbe.PHASE_TOTAL));
+        putP50(subItem.metrics, DiagnoseMetrics.NET_WARM_TOTAL_P50_MS, result.getWarmPhase(NetworkProbe.PHASE_TOTAL));
+        NetworkProbe.PhaseStats total = result.getPhase(NetworkProbe.PHASE_TOTAL);
+        if (total != null) {
+            subItem.metrics.put(DiagnoseMetrics.NET_TOTAL_P95_MS, total.p95);
+        }
+        return subItem;
     }
 
-
-    private static class CheckNetworkTask extends AsyncTask<Void, Void, Void> {
-
-        private Handler mainHandler;
-
-        public CheckNetworkTask(Handler mainHandler) {
-            this.mainHandler = mainHandler;
+    private static void putP50(DiagnoseMetrics metrics, int key, NetworkProbe.PhaseStats stats) {
+        if (stats != null) {
+            metrics.put(key, stats.p50);
         }
+    }
 
-        @Override
-        protected Void doInBackground(Void... voids) {
-
-            boolean slowNetwork = false;
-            long startTime = System.currentTimeMillis();
-            boolean connectOuterOk = checkHttpConnection("https://www.taobao.com", true);
-            if (!connectOuterOk) {
-                mainHandler.sendEmptyMessage(MSG_CONNECT_OUTER_FAIL);
-                return null;
-            }
-
-            long endTime = System.currentTimeMillis();
-            if (endTime - startTime > 5 * 1000) {
-                slowNetwork = true;
-            }
-
-            if (slowNetwork) {
-                mainHandler.sendEmptyMessage(MSG_CONNECT_SLOW);
-                return null;
-            } else {
-                mainHandler.sendEmptyMessage(MSG_CONNECT_OK);
-                return null;
+    /**
+     * @return 各地址中指定阶段耗时中位数最大的统计，都没有该阶段时返回null
+     */
+    private static NetworkProbe.PhaseStats maxP50(List<NetworkProbe.EndpointResult> results, int phase) {
+        NetworkProbe.PhaseStats max = null;
+        for (NetworkProbe.EndpointResult result : results) {
+            NetworkProbe.PhaseStats stats = result.getPhase(phase);
+            if (stats != null && (max == null || stats.p50 > max.p50)) {
+                max = stats;
             }
         }
+        return max;
+    }
 
-        private boolean checkHttpConnection(String urlStr, boolean ignoreServerError) {
-            boolean networkOk = true;
-            URL url = null;
-            try {
-                url = new URL(urlStr);
-            } catch (Exception e) {
-                e.printStackTrace();
-                return false;
-            }
-
-            InputStream stream = null;
-            HttpURLConnection connection = null;
-            String result = null;
-            try {
-                connection = (HttpURLConnection) url.openConnection();
-                connection.setReadTimeout(10 * 1000);
-                connection.setConnectTimeout(10 * 1000);
-                connection.setRequestMethod("GET");
-                connection.setDoInput(true);
-                connection.setInstanceFollowRedirects(true);
-                connection.setUseCaches(false);
-                connection.connect();
-                log("connected");
-                int responseCode = connection.getResponseCode();
-                // is client error?
-                if (responseCode >= 400 && responseCode < 500) {
-                    throw new IOException("HTTP error code: " + responseCode);
-                }
-                // is server error?
-                if (!ignoreServerError && responseCode >= 500 && responseCode < 600) {
-                    throw new IOException("HTTP error code: " + responseCode);
-                }
-                stream = connection.getInputStream();
-                log("input stream");
-                if (stream != null) {
-                    // can read succeed?
-                    result = readStream(stream, 500);
-                    log("read, result: >>>" + result);
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
-                networkOk = false;
-            } finally {
-                closeSilently(stream);
-                if (connection != null) {
-                    connection.disconnect();
-                }
-            }
-            return networkOk;
+    private static void log(String log) {
+        if (DEBUGFLAG) {
+            Log.w(TAG, log);
         }
+    }
 
-        /**
-         * Converts the contents of an InputStream to a String.
-         */
-        private String readStream(InputStream stream, int maxReadSize)
-                throws IOException, UnsupportedEncodingException {
-            Reader reader = null;
-            reader = new InputStreamReader(stream, "UTF-8");
-            char[] rawBuffer = new char[maxReadSize];
-            int readSize;
-            StringBuffer buffer = new StringBuffer();
-            while (((readSize = reader.read(rawBuffer)) != -1) && maxReadSize > 0) {
-                if (readSize > maxReadSize) {
-                    readSize = maxReadSize;
-                }
-                buffer.append(rawBuffer, 0, readSize);
-                maxReadSize -= readSize;
-            }
-            return buffer.toString();
+    /**
+     * 根据探测结果判断网络状况
+     * @return MSG_CONNECT_*
+     */
+    private static int checkResults(List<NetworkProbe.EndpointResult> results) {
+        // 第一个地址用于检查能否访问外部网络，其余地址为定位服务
+        if (!results.get(0).isReachable()) {
+            return MSG_CONNECT_OUTER_FAIL;
         }
-
-        private void closeSilently(Closeable closeable) {
-            if (closeable == null) {
-                return;
-            }
-            try {
-                closeable.close();
-            } catch (IOException e) {
-                e.printStackTrace();
+        for (NetworkProbe.EndpointResult result : results) {
+            if (!result.isReachable()) {
+                return MSG_CONNECT_AMAP_FAIL;
             }
         }
+        NetworkProbe.PhaseStats total = maxP50(results, NetworkProbe.PHASE_TOTAL);
+        return total != null && total.p50 > SLOW_THRESHOLD ? MSG_CONNECT_SLOW : MSG_CONNECT_OK;
     }
-
-
 }
@@ -1,17 +1,19 @@
 package com.amap.loc.diagnose.problem;
 
 import android.app.Activity;
-import android.os.Build;
 import android.os.Bundle;
+import android.util.Log;
 
-import com.amap.loc.diagnose.BuildConfig;
+import com.amap.loc.diagnose.DiagnoseEngine;
 import com.amap.loc.diagnose.R;
 
-import java.util.LinkedList;
-import java.util.List;
+import java.io.File;
 
 public class DiagnoseActivity extends Activity {
 
+    private static final String TAG = "DiagnoseActivity";
+    private static final boolean DEBUGFLAG = false;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -24,14 +26,18 @@ public class DiagnoseActivity extends Activity {
                 finish();
             }
         });
-        List<DiagnoseView.Diagnoser> checkCallables = new LinkedList<>();
-
-        // 高于M的手机才检查运行时权限
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-            checkCallables.add(new DefaultLocPermissionDiagnoser());
+        if (DEBUGFLAG) {
+            diagnoseView.setFirstFrameCallback(new DiagnoseView.FirstFrameCallback() {
+                @Override
+                public void onFirstFrame(long timeToFirstFrame) {
+                    Log.i(TAG, "time to first frame: " + timeToFirstFrame + "ms");
+                }
+            });
         }
-        checkCallables.add(new DefaultLocNetDiagnoser());
-        checkCallables.add(new DefaultLocationDiagnoser());
-        diagnoseView.startDiagnose(checkCallables);
+        diagnoseView.setParallel(true);
+        diagnoseView.setUseResultCache(true);
+        diagnoseView.setStreamResults(true);
+        diagnoseView.setResultLog(DiagnoseLog.getInstance(new File(getFilesDir(), "loc_diagnose")));
+        diagnoseView.startDiagnose(DiagnoseEngine.createDefaultDiagnosers());
     }
 }
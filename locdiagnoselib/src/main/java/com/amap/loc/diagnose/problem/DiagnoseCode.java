@@ -0,0 +1,61 @@
+package com.amap.loc.diagnose.problem;
+
+/**
+ * 检测结果编码，用于在不保存描述文字的情况下记录检测结果，见{@link DiagnoseResultCodec}
+ *
+ * 编码会被持久化，已有的值不能修改，只能新增；百位表示检测项，0~9为检测结果（{@link DiagnoseResultItem#code}），
+ * 10及以上为具体的检查（{@link DiagnoseResultItem.SubItem#code}）
+ */
+public final class DiagnoseCode {
+
+    public static final int UNKNOWN = 0;
+
+    // 权限
+    public static final int PERMISSION_OK = 100;
+    public static final int PERMISSION_MISSING = 101;
+    public static final int PERMISSION_INTERNET = 110;
+    public static final int PERMISSION_NETWORK_STATE = 111;
+    public static final int PERMISSION_WIFI = 112;
+    public static final int PERMISSION_BLUETOOTH = 113;
+    public static final int PERMISSION_LOCATION = 114;
+    public static final int PERMISSION_STORAGE = 115;
+
+    // 网络
+    public static final int NET_OK = 200;
+    public static final int NET_OUTER_FAIL = 201;
+    public static final int NET_AMAP_FAIL = 202;
+    public static final int NET_SLOW = 203;
+    public static final int NET_ENDPOINT_OK = 210;
+    public static final int NET_ENDPOINT_SLOW = 211;
+    public static final int NET_ENDPOINT_UNREACHABLE = 212;
+
+    // 定位
+    public static final int LOCATION_OK = 300;
+    public static final int LOCATION_WARNING = 301;
+    public static final int LOCATION_ERROR = 302;
+    public static final int GPS_OK = 310;
+    public static final int GPS_SIGNAL_OK = 311;
+    public static final int GPS_DISABLED = 312;
+    public static final int GPS_TIMEOUT = 313;
+    public static final int GPS_NO_SATELLITE = 314;
+    public static final int GPS_NO_PERMISSION = 315;
+    public static final int GPS_SYSTEM_ERROR = 316;
+    public static final int WIFI_OK = 320;
+    public static final int WIFI_DISABLED = 321;
+    public static final int WIFI_NO_AP = 322;
+    public static final int WIFI_TOO_FEW_AP = 323;
+    public static final int WIFI_NO_PERMISSION = 324;
+    public static final int WIFI_SYSTEM_ERROR = 325;
+    public static final int CELL_OK = 330;
+    public static final int CELL_AIRPLANE_MODE = 331;
+    public static final int CELL_SIM_ERROR = 332;
+    public static final int CELL_NOT_FOUND = 333;
+    public static final int CELL_NO_PERMISSION = 334;
+    public static final int CELL_SYSTEM_ERROR = 335;
+    public static final int CELL_WEAK_SIGNAL = 336;
+    public static final int CELL_STALE = 337;
+    public static final int CELL_NO_SERVING = 338;
+
+    private DiagnoseCode() {
+    }
+}
@@ -0,0 +1,78 @@
+package com.amap.loc.diagnose.problem;
+
+import android.os.Process;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 检测专用的线程池，检测项的耗时操作（例如网络探测）都在这里执行
+ *
+ * 不使用AsyncTask.THREAD_POOL_EXECUTOR等进程共享的线程池，避免检测与宿主应用的后台任务互相抢占或阻塞；线程数有上限，
+ * 空闲一段时间后线程自动退出，线程以"LocDiagnose-"开头命名，默认使用后台优先级
+ *
+ * 提交到该线程池的任务不应阻塞等待同一线程池中的其他任务，否则线程全部被占用时会相互等待
+ */
+public class DiagnoseExecutor implements Executor {
+
+    private static final int DEFAULT_MAX_THREADS = 3;
+    private static final long KEEP_ALIVE_TIME = 30 * 1000;
+
+    private static DiagnoseExecutor defaultExecutor;
+
+    private final ThreadPoolExecutor threadPoolExecutor;
+
+    /**
+     * 默认线程池，最多3个线程，后台优先级
+     */
+    public static synchronized DiagnoseExecutor getDefault() {
+        if (defaultExecutor == null) {
+            defaultExecutor = new DiagnoseExecutor(DEFAULT_MAX_THREADS, Process.THREAD_PRIORITY_BACKGROUND);
+        }
+        return defaultExecutor;
+    }
+
+    /**
+     * @param maxThreads 最大线程数
+     * @param threadPriority 线程优先级，取值见{@link Process#setThreadPriority(int)}，例如
+     *                       {@link Process#THREAD_PRIORITY_BACKGROUND}
+     */
+    public DiagnoseExecutor(int maxThreads, int threadPriority) {
+        if (maxThreads <= 0) {
+            throw new IllegalArgumentException("maxThreads must be positive");
+        }
+        threadPoolExecutor = new ThreadPoolExecutor(maxThreads, maxThreads, KEEP_ALIVE_TIME, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new DiagnoseThreadFactory(threadPriority));
+        threadPoolExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        threadPoolExecutor.execute(command);
+    }
+
+    private static class DiagnoseThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger threadCount = new AtomicInteger(1);
+        private final int threadPriority;
+
+        DiagnoseThreadFactory(int threadPriority) {
+            this.threadPriority = threadPriority;
+        }
+
+        @Override
+        public Thread newThread(final Runnable r) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(threadPriority);
+                    r.run();
+                }
+            }, "LocDiagnose-" + threadCount.getAndIncrement());
+        }
+    }
+}
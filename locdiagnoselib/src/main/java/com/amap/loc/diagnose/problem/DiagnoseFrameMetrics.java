@@ -0,0 +1,304 @@
+package com.amap.loc.diagnose.problem;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.os.Build;
+import android.view.Choreographer;
+import android.view.WindowManager;
+
+import java.util.Locale;
+
+/**
+ * 检测界面的帧耗时统计，见{@link DiagnoseView#setFrameMetrics(DiagnoseFrameMetrics)}
+ *
+ * 在"检测中"界面、切换到结果界面的动画以及逐项展示结果期间，用Choreographer记录相邻两帧的间隔，超过一个刷新周期
+ * 即为掉帧；同时记录结果列表每一项的绑定耗时（包括inflate），超过门限的为慢绑定。掉帧和慢绑定会回调{@link Listener}，
+ * 设置了{@link DiagnoseTrace}时同时记录到trace中，按阶段的汇总见{@link #getStats(int)}，可以用来检查低端机上的
+ * 掉帧是否在预算之内
+ *
+ * 帧间隔需要API 16，API 16以下只记录绑定耗时。只能在主线程中使用
+ */
+public class DiagnoseFrameMetrics {
+
+    /**
+     * 界面阶段
+     */
+    public static final int PHASE_RADAR = 0;
+    public static final int PHASE_TRANSITION = 1;
+    public static final int PHASE_RESULT = 2;
+    public static final int PHASE_COUNT = 3;
+
+    /**
+     * 默认的慢绑定门限，单位毫秒
+     */
+    public static final long DEFAULT_SLOW_BIND_THRESHOLD = 4;
+
+    private static final long DEFAULT_FRAME_INTERVAL_NANOS = 1000000000L / 60;
+    private static final String TRACK_FRAME = "frame";
+    private static final String[] PHASE_NAMES = new String[]{"radar", "transition", "result"};
+
+    public interface Listener {
+        /**
+         * 掉帧，在主线程中回调
+         * @param phase PHASE_*
+         * @param frameNanos 与上一帧的间隔，单位纳秒
+         * @param droppedFrames 掉帧数，不小于1
+         */
+        void onJankFrame(int phase, long frameNanos, int droppedFrames);
+
+        /**
+         * 结果列表项绑定耗时超过门限，在主线程中回调
+         * @param position 列表项位置，即检测项位置
+         * @param bindNanos 绑定耗时，单位纳秒
+         */
+        void onSlowBind(int position, long bindNanos);
+    }
+
+    /**
+     * 一个阶段的帧耗时统计
+     */
+    public static class Stats {
+        /**
+         * PHASE_*
+         */
+        public final int phase;
+        /**
+         * 记录的帧数、掉帧的帧数及总的掉帧数
+         */
+        public final int frames;
+        public final int jankFrames;
+        public final int droppedFrames;
+        /**
+         * 帧间隔的总和及最大值，单位纳秒
+         */
+        public final long totalFrameNanos;
+        public final long maxFrameNanos;
+        /**
+         * 列表项绑定次数、慢绑定次数及最大绑定耗时，单位纳秒
+         */
+        public final int binds;
+        public final int slowBinds;
+        public final long maxBindNanos;
+
+        Stats(int phase, int frames, int jankFrames, int droppedFrames, long totalFrameNanos, long maxFrameNanos,
+              int binds, int slowBinds, long maxBindNanos) {
+            this.phase = phase;
+            this.frames = frames;
+            this.jankFrames = jankFrames;
+            this.droppedFrames = droppedFrames;
+            this.totalFrameNanos = totalFrameNanos;
+            this.maxFrameNanos = maxFrameNanos;
+            this.binds = binds;
+            this.slowBinds = slowBinds;
+            this.maxBindNanos = maxBindNanos;
+        }
+
+        /**
+         * @return 掉帧的帧数占记录帧数的比例，没有记录时为0
+         */
+        public double getJankRatio() {
+            return frames == 0 ? 0 : (double) jankFrames / frames;
+        }
+
+        /**
+         * @return 平均帧间隔，单位纳秒，没有记录时为0
+         */
+        public long getMeanFrameNanos() {
+            return frames == 0 ? 0 : totalFrameNanos / frames;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{" +
+                    "phase=" + phaseName(phase) +
+                    ", frames=" + frames +
+                    ", jankFrames=" + jankFrames +
+                    ", droppedFrames=" + droppedFrames +
+                    ", meanFrame=" + String.format(Locale.US, "%.2fms", getMeanFrameNanos() / 1e6) +
+                    ", maxFrame=" + String.format(Locale.US, "%.2fms", maxFrameNanos / 1e6) +
+                    ", binds=" + binds +
+                    ", slowBinds=" + slowBinds +
+                    ", maxBind=" + String.format(Locale.US, "%.2fms", maxBindNanos / 1e6) +
+                    '}';
+        }
+    }
+
+    private final long frameIntervalNanos;
+    private long slowBindThresholdNanos = DEFAULT_SLOW_BIND_THRESHOLD * 1000000L;
+    private Listener listener;
+    private DiagnoseTrace trace;
+
+    private int phase = -1;
+    private boolean diagnoseFinished;
+    /**
+     * Choreographer.FrameCallback，API 16以下为null
+     */
+    private Object frameCallback;
+    private boolean frameCallbackPosted;
+    private long lastFrameTimeNanos;
+
+    private final int[] frames = new int[PHASE_COUNT];
+    private final int[] jankFrames = new int[PHASE_COUNT];
+    private final int[] droppedFrames = new int[PHASE_COUNT];
+    private final long[] totalFrameNanos = new long[PHASE_COUNT];
+    private final long[] maxFrameNanos = new long[PHASE_COUNT];
+    private final int[] binds = new int[PHASE_COUNT];
+    private final int[] slowBinds = new int[PHASE_COUNT];
+    private final long[] maxBindNanos = new long[PHASE_COUNT];
+
+    /**
+     * @param context 用于获取屏幕刷新率
+     */
+    public DiagnoseFrameMetrics(Context context) {
+        long interval = DEFAULT_FRAME_INTERVAL_NANOS;
+        WindowManager windowManager = (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
+        if (windowManager != null) {
+            float refreshRate = windowManager.getDefaultDisplay().getRefreshRate();
+            if (refreshRate >= 1) {
+                interval = (long) (1e9 / refreshRate);
+            }
+        }
+        frameIntervalNanos = interval;
+    }
+
+    /**
+     * @return 阶段名称，如"radar"
+     */
+    public static String phaseName(int phase) {
+        return phase >= 0 && phase < PHASE_COUNT ? PHASE_NAMES[phase] : "unknown";
+    }
+
+    /**
+     * @param listener 掉帧和慢绑定的回调，为null时不回调
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @param slowBindThreshold 慢绑定门限，单位毫秒，默认为{@link #DEFAULT_SLOW_BIND_THRESHOLD}
+     */
+    public void setSlowBindThreshold(long slowBindThreshold) {
+        this.slowBindThresholdNanos = slowBindThreshold * 1000000L;
+    }
+
+    /**
+     * @return 屏幕的刷新周期，单位纳秒
+     */
+    public long getFrameIntervalNanos() {
+        return frameIntervalNanos;
+    }
+
+    /**
+     * @param phase PHASE_*
+     * @return 该阶段的统计
+     */
+    public Stats getStats(int phase) {
+        return new Stats(phase, frames[phase], jankFrames[phase], droppedFrames[phase], totalFrameNanos[phase],
+                maxFrameNanos[phase], binds[phase], slowBinds[phase], maxBindNanos[phase]);
+    }
+
+    void setTrace(DiagnoseTrace trace) {
+        this.trace = trace;
+    }
+
+    /**
+     * 进入新的阶段，开始记录帧间隔
+     */
+    void setPhase(int phase) {
+        this.phase = phase;
+        // 阶段切换时的帧间隔不计入新阶段
+        lastFrameTimeNanos = 0;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            postFrameCallback();
+        }
+    }
+
+    /**
+     * 所有检测项完成，结果界面展示后不再有界面更新，停止记录帧间隔
+     */
+    void onDiagnoseFinished() {
+        diagnoseFinished = true;
+    }
+
+    /**
+     * 停止记录帧间隔，例如界面被关闭
+     */
+    void stop() {
+        phase = -1;
+    }
+
+    private boolean isRecordingFrames() {
+        return phase >= 0 && (phase != PHASE_RESULT || !diagnoseFinished);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void postFrameCallback() {
+        if (frameCallbackPosted || !isRecordingFrames()) {
+            return;
+        }
+        if (frameCallback == null) {
+            frameCallback = new Choreographer.FrameCallback() {
+                @Override
+                public void doFrame(long frameTimeNanos) {
+                    frameCallbackPosted = false;
+                    if (!isRecordingFrames()) {
+                        return;
+                    }
+                    if (lastFrameTimeNanos > 0) {
+                        recordFrame(lastFrameTimeNanos, frameTimeNanos);
+                    }
+                    lastFrameTimeNanos = frameTimeNanos;
+                    postFrameCallback();
+                }
+            };
+        }
+        Choreographer.getInstance().postFrameCallback((Choreographer.FrameCallback) frameCallback);
+        frameCallbackPosted = true;
+    }
+
+    private void recordFrame(long startNanos, long endNanos) {
+        long frameNanos = endNanos - startNanos;
+        int dropped = (int) ((frameNanos + frameIntervalNanos / 2) / frameIntervalNanos) - 1;
+        frames[phase]++;
+        totalFrameNanos[phase] += frameNanos;
+        maxFrameNanos[phase] = Math.max(maxFrameNanos[phase], frameNanos);
+        if (dropped < 1) {
+            return;
+        }
+        jankFrames[phase]++;
+        droppedFrames[phase] += dropped;
+        if (trace != null) {
+            long offset = trace.nowNanos() - System.nanoTime();
+            trace.complete(DiagnoseTrace.CATEGORY_UI, "jank " + phaseName(phase), TRACK_FRAME,
+                    startNanos + offset, endNanos + offset, "dropped " + dropped);
+        }
+        if (listener != null) {
+            listener.onJankFrame(phase, frameNanos, dropped);
+        }
+    }
+
+    /**
+     * 记录一次结果列表项的绑定
+     * @param startNanos 开始时间，{@link System#nanoTime()}
+     */
+    void recordBind(int position, long startNanos) {
+        long endNanos = System.nanoTime();
+        long bindNanos = endNanos - startNanos;
+        int p = phase >= 0 ? phase : PHASE_RESULT;
+        binds[p]++;
+        maxBindNanos[p] = Math.max(maxBindNanos[p], bindNanos);
+        if (bindNanos < slowBindThresholdNanos) {
+            return;
+        }
+        slowBinds[p]++;
+        if (trace != null) {
+            long offset = trace.nowNanos() - System.nanoTime();
+            trace.complete(DiagnoseTrace.CATEGORY_UI, "slow bind", DiagnoseTrace.CATEGORY_UI,
+                    startNanos + offset, endNanos + offset, "position " + position);
+        }
+        if (listener != null) {
+            listener.onSlowBind(position, bindNanos);
+        }
+    }
+}
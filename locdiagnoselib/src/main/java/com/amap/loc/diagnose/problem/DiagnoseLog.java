@@ -0,0 +1,255 @@
+package com.amap.loc.diagnose.problem;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * 检测结果的本地日志，只追加写入，按文件大小轮转，总大小有上限
+ *
+ * 每条记录为{@link DiagnoseResultCodec}编码的一次检测结果，一条记录通常只有几十字节，默认配置（4个64KB的文件）可以
+ * 保存几千次检测。文件格式：
+ * <pre>
+ * file   := magic("LDLG") frame*
+ * frame  := length(varint) record(length字节) crc32(4字节，record的CRC32)
+ * </pre>
+ * 进程被杀死时最后一条记录可能不完整，读取时丢弃校验失败的记录及其后的内容，重新打开文件写入前截掉这部分内容
+ *
+ * 文件读写在调用线程中进行，建议在后台线程中调用；同一目录只能使用一个实例，见{@link #getInstance(File)}
+ *
+ * 该类不依赖Android API
+ */
+public class DiagnoseLog {
+
+    private static final byte[] MAGIC = new byte[]{'L', 'D', 'L', 'G'};
+    private static final String FILE_NAME = "diagnose.log";
+    private static final int DEFAULT_MAX_FILE_SIZE = 64 * 1024;
+    private static final int DEFAULT_MAX_FILES = 4;
+    private static final int CRC_SIZE = 4;
+
+    private static final Map<String, DiagnoseLog> instances = new HashMap<>();
+
+    private final File dir;
+    private final int maxFileSize;
+    private final int maxFiles;
+
+    private FileChannel channel;
+    private long channelSize;
+    private ByteBuffer buffer = ByteBuffer.allocate(256);
+    private final CRC32 crc32 = new CRC32();
+
+    /**
+     * 获取目录对应的日志，使用默认配置：最多4个文件，每个文件64KB
+     * @param dir 日志目录，例如new File(context.getFilesDir(), "loc_diagnose")
+     */
+    public static DiagnoseLog getInstance(File dir) {
+        synchronized (instances) {
+            String key = dir.getAbsolutePath();
+            DiagnoseLog log = instances.get(key);
+            if (log == null) {
+                log = new DiagnoseLog(dir, DEFAULT_MAX_FILE_SIZE, DEFAULT_MAX_FILES);
+                instances.put(key, log);
+            }
+            return log;
+        }
+    }
+
+    /**
+     * @param dir 日志目录
+     * @param maxFileSize 单个文件的大小上限，超过时轮转
+     * @param maxFiles 文件数上限，包括正在写入的文件，轮转时删除最早的文件
+     */
+    public DiagnoseLog(File dir, int maxFileSize, int maxFiles) {
+        if (maxFileSize <= MAGIC.length || maxFiles <= 0) {
+            throw new IllegalArgumentException("invalid maxFileSize or maxFiles");
+        }
+        this.dir = dir;
+        this.maxFileSize = maxFileSize;
+        this.maxFiles = maxFiles;
+    }
+
+    /**
+     * 追加一次检测结果
+     * @param time 检测时间，毫秒时间戳
+     * @param results 检测结果
+     */
+    public synchronized void append(long time, List<DiagnoseResultItem> results) throws IOException {
+        int recordSize = DiagnoseResultCodec.encodedSize(time, results);
+        int frameSize = DiagnoseResultCodec.varintSize(recordSize) + recordSize + CRC_SIZE;
+        if (buffer.capacity() < frameSize) {
+            buffer = ByteBuffer.allocate(Math.max(frameSize, buffer.capacity() * 2));
+        }
+        buffer.clear();
+        DiagnoseResultCodec.writeVarint(buffer, recordSize);
+        int recordStart = buffer.position();
+        DiagnoseResultCodec.encode(time, results, buffer);
+        crc32.reset();
+        crc32.update(buffer.array(), recordStart, recordSize);
+        buffer.putInt((int) crc32.getValue());
+        buffer.flip();
+
+        ensureChannel();
+        if (channelSize > MAGIC.length && channelSize + frameSize > maxFileSize) {
+            rotate();
+            ensureChannel();
+        }
+        try {
+            writeFully(buffer);
+        } catch (IOException e) {
+            // 写入了部分内容，下次写入时重新打开文件获取实际大小
+            close();
+            throw e;
+        }
+        channelSize += frameSize;
+    }
+
+    /**
+     * 读取所有记录，按写入顺序排列
+     */
+    public synchronized List<DiagnoseResultCodec.Record> readAll() throws IOException {
+        List<DiagnoseResultCodec.Record> records = new ArrayList<>();
+        for (int i = maxFiles - 1; i >= 0; i--) {
+            File file = getFile(i);
+            if (file.exists()) {
+                scan(readFile(file), records);
+            }
+        }
+        return records;
+    }
+
+    /**
+     * @return 所有日志文件的总大小，单位字节
+     */
+    public synchronized long size() {
+        long size = 0;
+        for (int i = 0; i < maxFiles; i++) {
+            size += getFile(i).length();
+        }
+        return size;
+    }
+
+    /**
+     * 删除所有记录
+     */
+    public synchronized void clear() {
+        close();
+        for (int i = 0; i < maxFiles; i++) {
+            getFile(i).delete();
+        }
+    }
+
+    public synchronized void close() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            channel = null;
+        }
+    }
+
+    private File getFile(int index) {
+        return new File(dir, index == 0 ? FILE_NAME : FILE_NAME + "." + index);
+    }
+
+    private void ensureChannel() throws IOException {
+        if (channel != null) {
+            return;
+        }
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("cannot create dir: " + dir);
+        }
+        File file = getFile(0);
+        int validSize = file.exists() ? scan(readFile(file), null) : 0;
+        channel = new FileOutputStream(file, true).getChannel();
+        channelSize = channel.size();
+        if (validSize < channelSize) {
+            // 截掉不完整的记录，避免之后追加的记录无法读取；文件头不正确时清空整个文件
+            channel.truncate(Math.max(validSize, 0));
+            channelSize = channel.size();
+        }
+        if (channelSize == 0) {
+            writeFully(ByteBuffer.wrap(MAGIC));
+            channelSize = MAGIC.length;
+        }
+    }
+
+    private void rotate() {
+        close();
+        getFile(maxFiles - 1).delete();
+        for (int i = maxFiles - 2; i >= 0; i--) {
+            File file = getFile(i);
+            if (file.exists()) {
+                file.renameTo(getFile(i + 1));
+            }
+        }
+    }
+
+    private void writeFully(ByteBuffer src) throws IOException {
+        while (src.hasRemaining()) {
+            channel.write(src);
+        }
+    }
+
+    private static ByteBuffer readFile(File file) throws IOException {
+        FileInputStream fis = new FileInputStream(file);
+        try {
+            FileChannel fileChannel = fis.getChannel();
+            ByteBuffer data = ByteBuffer.allocate((int) fileChannel.size());
+            while (data.hasRemaining() && fileChannel.read(data) != -1) {
+                // 读到文件末尾
+            }
+            data.flip();
+            return data;
+        } finally {
+            fis.close();
+        }
+    }
+
+    /**
+     * 解析文件内容
+     * @param records 解析得到的记录，为null时只校验不解码
+     * @return 最后一条完整记录的结束位置，文件头不正确时返回-1
+     */
+    private int scan(ByteBuffer data, List<DiagnoseResultCodec.Record> records) {
+        for (byte b : MAGIC) {
+            if (!data.hasRemaining() || data.get() != b) {
+                return -1;
+            }
+        }
+        while (data.hasRemaining()) {
+            int frameStart = data.position();
+            try {
+                int recordSize = (int) DiagnoseResultCodec.readVarint(data);
+                if (recordSize < 0 || recordSize + CRC_SIZE > data.remaining()) {
+                    return frameStart;
+                }
+                int recordStart = data.position();
+                crc32.reset();
+                crc32.update(data.array(), recordStart, recordSize);
+                if (data.getInt(recordStart + recordSize) != (int) crc32.getValue()) {
+                    return frameStart;
+                }
+                if (records != null) {
+                    ByteBuffer record = data.duplicate();
+                    record.limit(recordStart + recordSize);
+                    records.add(DiagnoseResultCodec.decode(record));
+                }
+                data.position(recordStart + recordSize + CRC_SIZE);
+            } catch (IOException | RuntimeException e) {
+                // 记录不完整或格式不支持，丢弃该文件剩余的内容
+                return frameStart;
+            }
+        }
+        return data.position();
+    }
+}
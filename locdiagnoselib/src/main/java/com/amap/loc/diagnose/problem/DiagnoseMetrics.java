@@ -0,0 +1,261 @@
+package com.amap.loc.diagnose.problem;
+
+import java.util.Arrays;
+
+/**
+ * 检测过程中得到的数值指标，例如卫星数、wifi热点数、网络延迟
+ *
+ * 以int为键保存long或double类型的值，键按升序排列，不产生装箱对象；每个键有一个名称（如"gps.satellites"），用于
+ * 上报和展示。指标会被持久化，已有的键不能修改，只能新增
+ */
+public class DiagnoseMetrics {
+
+    public static final int TYPE_LONG = 0;
+    public static final int TYPE_DOUBLE = 1;
+
+    /**
+     * 参与定位的卫星数
+     */
+    public static final int GPS_SATELLITES = 1;
+    /**
+     * 搜索到的卫星数，不论是否参与定位
+     */
+    public static final int GPS_VISIBLE_SATELLITES = 2;
+    public static final int WIFI_AP_COUNT = 3;
+    /**
+     * wifi扫描耗时，只在主动扫描时有该指标
+     */
+    public static final int WIFI_SCAN_MS = 4;
+    public static final int CELL_COUNT = 5;
+    /**
+     * 新建连接的请求总耗时中位数；网络检测结果上为各地址中的最大值
+     */
+    public static final int NET_TOTAL_P50_MS = 6;
+    public static final int NET_TOTAL_P95_MS = 7;
+    public static final int NET_DNS_P50_MS = 8;
+    public static final int NET_CONNECT_P50_MS = 9;
+    public static final int NET_TLS_P50_MS = 10;
+    public static final int NET_FIRST_BYTE_P50_MS = 11;
+    /**
+     * 复用连接的请求总耗时中位数
+     */
+    public static final int NET_WARM_TOTAL_P50_MS = 12;
+    public static final int NET_BYTES = 13;
+    /**
+     * 从开始GPS定位到第一次定位回调的耗时
+     */
+    public static final int GPS_TTFF_MS = 14;
+    /**
+     * 网络往返时间，取TCP连接耗时的中位数；网络检测结果上为各地址中的最大值
+     */
+    public static final int NET_RTT_MS = 15;
+    /**
+     * 参与定位的卫星的平均信号强度，double类型
+     */
+    public static final int GPS_CN0_MEAN_DBHZ = 16;
+    /**
+     * GPS检测期间的卫星状态回调次数，以下卫星统计见{@link SatelliteStatistics}
+     */
+    public static final int GPS_STATUS_EVENTS = 17;
+    /**
+     * 最近一次卫星状态回调中有卫星参与定位的卫星系统数
+     */
+    public static final int GPS_CONSTELLATIONS = 18;
+    /**
+     * GPS检测期间卫星参与定位的比例，double类型
+     */
+    public static final int GPS_USED_RATIO = 19;
+    /**
+     * GPS检测期间出现过卫星的天空区域比例，double类型
+     */
+    public static final int GPS_SKY_COVERAGE = 20;
+    /**
+     * 服务小区的制式，取值见{@link com.amap.loc.diagnose.platform.CellStatus}的RAT_*，以下基站统计见{@link CellAnalysis}
+     */
+    public static final int CELL_SERVING_RAT = 21;
+    /**
+     * 服务小区的信号强度，单位dBm
+     */
+    public static final int CELL_SERVING_DBM = 22;
+    public static final int CELL_NEIGHBORS = 23;
+    /**
+     * 最旧的基站信息距今的时间
+     */
+    public static final int CELL_AGE_MS = 24;
+    /**
+     * sim卡异常时无法获取基站信息的原始原因，取值为CELL_NOT_FOUND或CELL_SYSTEM_ERROR，见{@link DiagnoseCode}
+     */
+    public static final int CELL_FAIL_CAUSE = 25;
+
+    private static final String[] NAMES = new String[]{
+            null,
+            "gps.satellites",
+            "gps.visible_satellites",
+            "wifi.ap_count",
+            "wifi.scan_ms",
+            "cell.count",
+            "net.total_p50_ms",
+            "net.total_p95_ms",
+            "net.dns_p50_ms",
+            "net.connect_p50_ms",
+            "net.tls_p50_ms",
+            "net.first_byte_p50_ms",
+            "net.warm_total_p50_ms",
+            "net.bytes",
+            "gps.ttff_ms",
+            "net.rtt_ms",
+            "gps.cn0_mean_dbhz",
+            "gps.status_events",
+            "gps.constellations",
+            "gps.used_ratio",
+            "gps.sky_coverage",
+            "cell.serving_rat",
+            "cell.serving_dbm",
+            "cell.neighbors",
+            "cell.age_ms",
+            "cell.fail_cause",
+    };
+
+    private int[] keys;
+    /**
+     * long类型直接保存，double类型保存{@link Double#doubleToRawLongBits(double)}
+     */
+    private long[] values;
+    private byte[] types;
+    private int size;
+
+    public DiagnoseMetrics() {
+        this(4);
+    }
+
+    public DiagnoseMetrics(int initialCapacity) {
+        keys = new int[initialCapacity];
+        values = new long[initialCapacity];
+        types = new byte[initialCapacity];
+    }
+
+    /**
+     * 指标的名称，如"gps.satellites"
+     * @return 名称，未知的键返回"metric.键"
+     */
+    public static String nameOf(int key) {
+        if (key > 0 && key < NAMES.length) {
+            return NAMES[key];
+        }
+        return "metric." + key;
+    }
+
+    /**
+     * @return 名称对应的键，未知的名称返回-1
+     */
+    public static int keyOf(String name) {
+        for (int i = 1; i < NAMES.length; i++) {
+            if (NAMES[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 设置long类型的指标，已存在时覆盖
+     * @return this，便于连续调用
+     */
+    public DiagnoseMetrics put(int key, long value) {
+        insert(key, value, TYPE_LONG);
+        return this;
+    }
+
+    /**
+     * 设置double类型的指标，已存在时覆盖
+     * @return this，便于连续调用
+     */
+    public DiagnoseMetrics putDouble(int key, double value) {
+        insert(key, Double.doubleToRawLongBits(value), TYPE_DOUBLE);
+        return this;
+    }
+
+    public boolean contains(int key) {
+        return Arrays.binarySearch(keys, 0, size, key) >= 0;
+    }
+
+    /**
+     * @param defaultValue 指标不存在时的返回值
+     * @return 指标值，double类型的指标会被截断为long
+     */
+    public long get(int key, long defaultValue) {
+        int index = Arrays.binarySearch(keys, 0, size, key);
+        return index >= 0 ? valueAt(index) : defaultValue;
+    }
+
+    /**
+     * @param defaultValue 指标不存在时的返回值
+     */
+    public double getDouble(int key, double defaultValue) {
+        int index = Arrays.binarySearch(keys, 0, size, key);
+        return index >= 0 ? doubleValueAt(index) : defaultValue;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int keyAt(int index) {
+        return keys[index];
+    }
+
+    /**
+     * @return TYPE_*
+     */
+    public int typeAt(int index) {
+        return types[index];
+    }
+
+    public long valueAt(int index) {
+        return types[index] == TYPE_DOUBLE ? (long) Double.longBitsToDouble(values[index]) : values[index];
+    }
+
+    public double doubleValueAt(int index) {
+        return types[index] == TYPE_DOUBLE ? Double.longBitsToDouble(values[index]) : values[index];
+    }
+
+    private void insert(int key, long value, int type) {
+        int index = Arrays.binarySearch(keys, 0, size, key);
+        if (index >= 0) {
+            values[index] = value;
+            types[index] = (byte) type;
+            return;
+        }
+        index = -index - 1;
+        if (size == keys.length) {
+            int capacity = Math.max(4, size * 2);
+            keys = Arrays.copyOf(keys, capacity);
+            values = Arrays.copyOf(values, capacity);
+            types = Arrays.copyOf(types, capacity);
+        }
+        System.arraycopy(keys, index, keys, index + 1, size - index);
+        System.arraycopy(values, index, values, index + 1, size - index);
+        System.arraycopy(types, index, types, index + 1, size - index);
+        keys[index] = key;
+        values[index] = value;
+        types[index] = (byte) type;
+        size++;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(nameOf(keys[i])).append('=');
+            if (types[i] == TYPE_DOUBLE) {
+                sb.append(doubleValueAt(i));
+            } else {
+                sb.append(values[i]);
+            }
+        }
+        return sb.append('}').toString();
+    }
+}
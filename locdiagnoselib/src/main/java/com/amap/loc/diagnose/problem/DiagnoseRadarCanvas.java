@@ -0,0 +1,239 @@
+package com.amap.loc.diagnose.problem;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffColorFilter;
+import android.graphics.RectF;
+import android.graphics.drawable.Drawable;
+import android.os.Build;
+import android.util.AttributeSet;
+import android.util.SparseArray;
+import android.view.View;
+import android.view.animation.AnimationUtils;
+import android.view.animation.DecelerateInterpolator;
+import android.view.animation.Interpolator;
+
+import com.amap.loc.diagnose.R;
+
+import java.util.List;
+
+/**
+ * "检测中"界面的雷达扫描和检测项状态卡片，全部在一个View的画布上绘制
+ *
+ * 扫描背景和每个卡片上的加载图标的旋转角度由绘制时间计算，不创建Animation对象；检测项切换时卡片横向滑动，
+ * 只绘制当前可见的卡片，检测项数量不影响绘制开销。图标着色后的Bitmap按资源id缓存，多次打开检测界面时复用
+ */
+public class DiagnoseRadarCanvas extends View {
+
+    private static final long SWEEP_PERIOD = 2000;
+    private static final long LOADING_PERIOD = 1500;
+    private static final long SCROLL_DURATION = 300;
+
+    private static final int SWEEP_SIZE_DP = 260;
+    private static final int STATUS_HEIGHT_DP = 60;
+    private static final int STATUS_MARGIN_DP = 20;
+    private static final int STATUS_SPACING_DP = 10;
+    private static final int STATUS_BOTTOM_DP = 16;
+    private static final int STATUS_PADDING_DP = 10;
+    private static final int STATUS_ICON_DP = 30;
+
+    /**
+     * 着色为白色的图标，只在主线程中访问
+     */
+    private static final SparseArray<Bitmap> tintedIcons = new SparseArray<>();
+
+    private final float density;
+    private final Drawable sweepDrawable;
+    private final Drawable statusBackground;
+    private final Bitmap loadingBitmap;
+    private final Paint bitmapPaint = new Paint(Paint.FILTER_BITMAP_FLAG | Paint.ANTI_ALIAS_FLAG);
+    private final Paint titlePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint hintPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final RectF rect = new RectF();
+    private final Interpolator scrollInterpolator = new DecelerateInterpolator();
+
+    private String[] titles = new String[0];
+    private Bitmap[] icons = new Bitmap[0];
+
+    private int status;
+    private float scrollFrom;
+    private float scrollTo;
+    private long scrollStartTime;
+    private Runnable firstFrameAction;
+
+    public DiagnoseRadarCanvas(Context context) {
+        this(context, null);
+    }
+
+    @SuppressWarnings("deprecation")
+    public DiagnoseRadarCanvas(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        density = getResources().getDisplayMetrics().density;
+        sweepDrawable = getResources().getDrawable(R.drawable.bg_diagnosing_sweep);
+        statusBackground = getResources().getDrawable(R.drawable.bg_diagnosing_status);
+        loadingBitmap = BitmapFactory.decodeResource(getResources(), R.drawable.loading_white);
+        titlePaint.setColor(0xFFFFFFFF);
+        titlePaint.setTextSize(12 * density);
+        hintPaint.setColor(0xFFFFFFFF);
+        hintPaint.setTextSize(10 * density);
+    }
+
+    /**
+     * 设置检测项，每个检测项一个状态卡片
+     */
+    public void setStatusItems(List<DiagnoseView.Diagnoser> diagnosers) {
+        int count = diagnosers.size();
+        titles = new String[count];
+        icons = new Bitmap[count];
+        for (int i = 0; i < count; i++) {
+            DiagnoseView.Diagnoser diagnoser = diagnosers.get(i);
+            titles[i] = diagnoser.getTitle();
+            icons[i] = getTintedIcon(diagnoser.getIcon());
+        }
+        invalidate();
+    }
+
+    /**
+     * 滑动到指定检测项的状态卡片
+     */
+    public void setStatus(int status) {
+        long now = AnimationUtils.currentAnimationTimeMillis();
+        scrollFrom = currentScroll(now);
+        scrollTo = status;
+        scrollStartTime = now;
+        this.status = status;
+        invalidate();
+    }
+
+    /**
+     * 设置第一帧绘制完成后要执行的操作，在主线程中执行一次
+     */
+    public void setFirstFrameAction(Runnable firstFrameAction) {
+        this.firstFrameAction = firstFrameAction;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    private Bitmap getTintedIcon(int iconResId) {
+        Bitmap tinted = tintedIcons.get(iconResId);
+        if (tinted != null) {
+            return tinted;
+        }
+        Bitmap source = BitmapFactory.decodeResource(getResources(), iconResId);
+        if (source == null) {
+            return null;
+        }
+        tinted = Bitmap.createBitmap(source.getWidth(), source.getHeight(), Bitmap.Config.ARGB_8888);
+        Paint paint = new Paint();
+        paint.setColorFilter(new PorterDuffColorFilter(0xFFFFFFFF, PorterDuff.Mode.SRC_ATOP));
+        new Canvas(tinted).drawBitmap(source, 0, 0, paint);
+        source.recycle();
+        tintedIcons.put(iconResId, tinted);
+        return tinted;
+    }
+
+    /**
+     * @return 当前滑动位置，以卡片为单位
+     */
+    private float currentScroll(long now) {
+        float progress = (float) (now - scrollStartTime) / SCROLL_DURATION;
+        if (progress >= 1) {
+            return scrollTo;
+        }
+        return scrollFrom + (scrollTo - scrollFrom) * scrollInterpolator.getInterpolation(Math.max(progress, 0));
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        long now = AnimationUtils.currentAnimationTimeMillis();
+        int width = getWidth();
+        int height = getHeight();
+
+        // 雷达扫描
+        int sweepSize = dp(SWEEP_SIZE_DP);
+        int left = (width - sweepSize) / 2;
+        int top = (height - sweepSize) / 2;
+        sweepDrawable.setBounds(left, top, left + sweepSize, top + sweepSize);
+        canvas.save();
+        canvas.rotate(360f * (now % SWEEP_PERIOD) / SWEEP_PERIOD, width / 2f, height / 2f);
+        sweepDrawable.draw(canvas);
+        canvas.restore();
+
+        // 状态卡片，只绘制与画布相交的卡片
+        int margin = dp(STATUS_MARGIN_DP);
+        int cardWidth = width - 2 * margin;
+        float pitch = cardWidth + dp(STATUS_SPACING_DP);
+        float scrollPx = currentScroll(now) * pitch;
+        int cardTop = height - dp(STATUS_BOTTOM_DP) - dp(STATUS_HEIGHT_DP);
+        float loadingAngle = 360f * (now % LOADING_PERIOD) / LOADING_PERIOD;
+        int first = Math.max(0, (int) ((scrollPx - margin) / pitch));
+        for (int i = first; i < titles.length; i++) {
+            float cardLeft = margin + i * pitch - scrollPx;
+            if (cardLeft >= width) {
+                break;
+            }
+            if (cardLeft + cardWidth > 0) {
+                drawStatusCard(canvas, i, cardLeft, cardTop, cardWidth, loadingAngle);
+            }
+        }
+
+        if (getVisibility() == VISIBLE) {
+            scheduleNextFrame();
+        }
+        if (firstFrameAction != null) {
+            // 在本次绘制结束后执行
+            post(firstFrameAction);
+            firstFrameAction = null;
+        }
+    }
+
+    private void drawStatusCard(Canvas canvas, int index, float left, int top, int cardWidth, float loadingAngle) {
+        int cardHeight = dp(STATUS_HEIGHT_DP);
+        int padding = dp(STATUS_PADDING_DP);
+        int iconSize = dp(STATUS_ICON_DP);
+        statusBackground.setBounds((int) left, top, (int) left + cardWidth, top + cardHeight);
+        statusBackground.draw(canvas);
+
+        float iconTop = top + (cardHeight - iconSize) / 2f;
+        Bitmap icon = icons[index];
+        if (icon != null) {
+            rect.set(left + padding, iconTop, left + padding + iconSize, iconTop + iconSize);
+            canvas.drawBitmap(icon, null, rect, bitmapPaint);
+        }
+
+        float textLeft = left + padding + iconSize + padding;
+        float titleBaseline = top + padding + dp(5) - titlePaint.ascent();
+        canvas.drawText(titles[index] == null ? "" : titles[index], textLeft, titleBaseline, titlePaint);
+        float hintBaseline = titleBaseline + titlePaint.descent() + dp(2) - hintPaint.ascent();
+        canvas.drawText("正在检测...", textLeft, hintBaseline, hintPaint);
+
+        if (loadingBitmap != null) {
+            float loadingLeft = left + cardWidth - padding - iconSize;
+            rect.set(loadingLeft, iconTop, loadingLeft + iconSize, iconTop + iconSize);
+            canvas.save();
+            canvas.rotate(loadingAngle, rect.centerX(), rect.centerY());
+            canvas.drawBitmap(loadingBitmap, null, rect, bitmapPaint);
+            canvas.restore();
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void scheduleNextFrame() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            postInvalidateOnAnimation();
+        } else {
+            postInvalidateDelayed(16);
+        }
+    }
+
+    private int dp(int value) {
+        return (int) (value * density + 0.5f);
+    }
+}
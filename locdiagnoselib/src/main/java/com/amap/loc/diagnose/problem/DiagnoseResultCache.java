@@ -0,0 +1,152 @@
+package com.amap.loc.diagnose.problem;
+
+import android.Manifest;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.location.LocationManager;
+import android.net.ConnectivityManager;
+import android.net.wifi.WifiManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.amap.loc.diagnose.permission.PermissionStateService;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 最近检测结果的缓存，进程内共享，用于短时间内重复打开检测界面时立即展示结果
+ *
+ * 每个检测项的结果按检测项类型缓存，有效期由{@link DiagnoseView.CacheableDiagnoser#getResultTtl()}指定；
+ * 飞行模式、wifi开关、网络连接、定位开关发生变化时，所有缓存失效；应用的运行时权限发生变化时，变化前缓存的结果失效
+ *
+ * 所有方法都必须在主线程中调用
+ */
+public class DiagnoseResultCache {
+
+    private static final boolean DEBUGFLAG = false;
+    private static final String TAG = "DiagnoseCache";
+
+    /**
+     * 检测结果依赖的权限，任意一个权限状态变化都会使缓存失效
+     */
+    private static final String[] WATCHED_PERMISSIONS = new String[]{
+            Manifest.permission.ACCESS_FINE_LOCATION,
+            Manifest.permission.ACCESS_COARSE_LOCATION,
+            Manifest.permission.ACCESS_WIFI_STATE,
+            Manifest.permission.CHANGE_WIFI_STATE,
+            Manifest.permission.ACCESS_NETWORK_STATE,
+            Manifest.permission.INTERNET,
+            Manifest.permission.BLUETOOTH,
+            Manifest.permission.BLUETOOTH_ADMIN,
+            Manifest.permission.WRITE_EXTERNAL_STORAGE,
+            Manifest.permission.READ_EXTERNAL_STORAGE,
+            Manifest.permission.READ_PHONE_STATE,
+    };
+
+    private static DiagnoseResultCache instance;
+
+    private static class Entry {
+        DiagnoseResultItem resultItem;
+        long createTime;
+        long ttl;
+        int permissionState;
+    }
+
+    private final Context appContext;
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    private final BroadcastReceiver invalidateReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            // 注册时收到的粘性广播只代表当前状态，不是状态变化
+            if (isInitialStickyBroadcast()) {
+                return;
+            }
+            if (DEBUGFLAG) {
+                Log.w(TAG, "invalidate, action: " + intent.getAction());
+            }
+            invalidate();
+        }
+    };
+
+    public static synchronized DiagnoseResultCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new DiagnoseResultCache(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private DiagnoseResultCache(Context appContext) {
+        this.appContext = appContext;
+        IntentFilter intentFilter = new IntentFilter();
+        intentFilter.addAction(Intent.ACTION_AIRPLANE_MODE_CHANGED);
+        intentFilter.addAction(WifiManager.WIFI_STATE_CHANGED_ACTION);
+        intentFilter.addAction(ConnectivityManager.CONNECTIVITY_ACTION);
+        intentFilter.addAction(LocationManager.PROVIDERS_CHANGED_ACTION);
+        appContext.registerReceiver(invalidateReceiver, intentFilter);
+    }
+
+    /**
+     * 获取检测项未过期的缓存结果
+     * @param diagnoser 检测项
+     * @return 缓存结果，不存在或已失效时返回null
+     */
+    public DiagnoseResultItem get(DiagnoseView.Diagnoser diagnoser) {
+        String key = diagnoser.getClass().getName();
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (SystemClock.elapsedRealtime() - entry.createTime > entry.ttl
+                || entry.permissionState != readPermissionState()) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.resultItem;
+    }
+
+    /**
+     * 缓存检测结果，检测项未实现{@link DiagnoseView.CacheableDiagnoser}或有效期不大于0时不缓存
+     * @param diagnoser 检测项
+     * @param resultItem 检测结果
+     */
+    public void put(DiagnoseView.Diagnoser diagnoser, DiagnoseResultItem resultItem) {
+        if (!(diagnoser instanceof DiagnoseView.CacheableDiagnoser) || resultItem == null) {
+            return;
+        }
+        long ttl = ((DiagnoseView.CacheableDiagnoser) diagnoser).getResultTtl();
+        if (ttl <= 0) {
+            return;
+        }
+        Entry entry = new Entry();
+        entry.resultItem = resultItem;
+        entry.createTime = SystemClock.elapsedRealtime();
+        entry.ttl = ttl;
+        entry.permissionState = readPermissionState();
+        entries.put(diagnoser.getClass().getName(), entry);
+    }
+
+    /**
+     * 清除所有缓存结果
+     */
+    public void invalidate() {
+        entries.clear();
+    }
+
+    /**
+     * 将关注的权限授权状态压缩为一个int，每个权限占一位
+     */
+    private int readPermissionState() {
+        PermissionStateService permissions = PermissionStateService.getInstance(appContext);
+        int state = 0;
+        for (int i = 0; i < WATCHED_PERMISSIONS.length; i++) {
+            if (permissions.isGranted(WATCHED_PERMISSIONS[i])) {
+                state |= 1 << i;
+            }
+        }
+        return state;
+    }
+}
@@ -0,0 +1,273 @@
+package com.amap.loc.diagnose.problem;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 检测结果的二进制编码，只保存编码、检查结果和数值指标，不保存描述文字
+ *
+ * 格式（varint为无符号LEB128，zigzag为有符号值先zigzag再varint）：
+ * <pre>
+ * record  := version(1字节) time(varint，毫秒时间戳) itemCount(varint) item*
+ * item    := code(varint) checkResult(1字节) metrics subCount(varint) subItem*
+ * subItem := code(varint) checkResult(1字节) metrics
+ * metrics := metricCount(varint) (tag(varint) value)*
+ * </pre>
+ * tag为key &lt;&lt; 1 | type，type为0时value为zigzag编码的long，为1时value为8字节的double；checkResult：0 Ok，1 Error，
+ * 2 Warning，3 未设置
+ *
+ * 该类不依赖Android API
+ */
+public final class DiagnoseResultCodec {
+
+    public static final int VERSION = 1;
+
+    private static final int CHECK_RESULT_OK = 0;
+    private static final int CHECK_RESULT_ERROR = 1;
+    private static final int CHECK_RESULT_WARNING = 2;
+    private static final int CHECK_RESULT_NONE = 3;
+
+    /**
+     * 解码得到的一次检测记录，检测结果中只有编码、检查结果和数值指标
+     */
+    public static class Record {
+        public final long time;
+        public final List<DiagnoseResultItem> results;
+
+        Record(long time, List<DiagnoseResultItem> results) {
+            this.time = time;
+            this.results = results;
+        }
+
+        @Override
+        public String toString() {
+            return "Record{" +
+                    "time=" + time +
+                    ", results=" + results +
+                    '}';
+        }
+    }
+
+    private DiagnoseResultCodec() {
+    }
+
+    /**
+     * 计算编码后的字节数
+     */
+    public static int encodedSize(long time, List<DiagnoseResultItem> results) {
+        int size = 1 + varintSize(time) + varintSize(results.size());
+        for (DiagnoseResultItem item : results) {
+            size += varintSize(item.code) + 1 + metricsSize(item.metrics);
+            List<DiagnoseResultItem.SubItem> subItems = item.subItems;
+            int subCount = subItems == null ? 0 : subItems.size();
+            size += varintSize(subCount);
+            for (int i = 0; i < subCount; i++) {
+                DiagnoseResultItem.SubItem subItem = subItems.get(i);
+                size += varintSize(subItem.code) + 1 + metricsSize(subItem.metrics);
+            }
+        }
+        return size;
+    }
+
+    /**
+     * 编码一次检测记录
+     * @param time 检测时间，毫秒时间戳
+     * @param results 检测结果
+     * @param out 输出，剩余空间至少为{@link #encodedSize(long, List)}
+     */
+    public static void encode(long time, List<DiagnoseResultItem> results, ByteBuffer out) {
+        out.put((byte) VERSION);
+        writeVarint(out, time);
+        writeVarint(out, results.size());
+        for (DiagnoseResultItem item : results) {
+            writeVarint(out, item.code);
+            out.put(encodeCheckResult(item.checkResult));
+            writeMetrics(out, item.metrics);
+            List<DiagnoseResultItem.SubItem> subItems = item.subItems;
+            int subCount = subItems == null ? 0 : subItems.size();
+            writeVarint(out, subCount);
+            for (int i = 0; i < subCount; i++) {
+                DiagnoseResultItem.SubItem subItem = subItems.get(i);
+                writeVarint(out, subItem.code);
+                out.put(encodeCheckResult(subItem.checkResult));
+                writeMetrics(out, subItem.metrics);
+            }
+        }
+    }
+
+    public static byte[] encode(long time, List<DiagnoseResultItem> results) {
+        ByteBuffer buffer = ByteBuffer.allocate(encodedSize(time, results));
+        encode(time, results, buffer);
+        return buffer.array();
+    }
+
+    /**
+     * 解码一次检测记录
+     * @param in 输入，从当前位置开始解码，解码后位置移动到记录末尾
+     * @throws IOException 数据不完整或版本不支持时
+     */
+    public static Record decode(ByteBuffer in) throws IOException {
+        try {
+            int version = in.get() & 0xff;
+            if (version != VERSION) {
+                throw new IOException("unsupported version: " + version);
+            }
+            long time = readVarint(in);
+            int itemCount = readCount(in);
+            List<DiagnoseResultItem> results = new ArrayList<>(itemCount);
+            for (int i = 0; i < itemCount; i++) {
+                DiagnoseResultItem item = new DiagnoseResultItem();
+                item.code = (int) readVarint(in);
+                item.checkResult = decodeCheckResult(in.get());
+                item.metrics = readMetrics(in);
+                int subCount = readCount(in);
+                if (subCount > 0) {
+                    item.subItems = new ArrayList<>(subCount);
+                }
+                for (int j = 0; j < subCount; j++) {
+                    int code = (int) readVarint(in);
+                    DiagnoseResultItem.CheckResult checkResult = decodeCheckResult(in.get());
+                    DiagnoseResultItem.SubItem subItem = new DiagnoseResultItem.SubItem(checkResult, code, null);
+                    subItem.metrics = readMetrics(in);
+                    item.subItems.add(subItem);
+                }
+                results.add(item);
+            }
+            return new Record(time, results);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("truncated record");
+        }
+    }
+
+    private static int metricsSize(DiagnoseMetrics metrics) {
+        int metricCount = metrics == null ? 0 : metrics.size();
+        int size = varintSize(metricCount);
+        for (int i = 0; i < metricCount; i++) {
+            int type = metrics.typeAt(i);
+            size += varintSize(tag(metrics.keyAt(i), type));
+            size += type == DiagnoseMetrics.TYPE_DOUBLE ? 8 : varintSize(zigzag(metrics.valueAt(i)));
+        }
+        return size;
+    }
+
+    private static void writeMetrics(ByteBuffer out, DiagnoseMetrics metrics) {
+        int metricCount = metrics == null ? 0 : metrics.size();
+        writeVarint(out, metricCount);
+        for (int i = 0; i < metricCount; i++) {
+            int type = metrics.typeAt(i);
+            writeVarint(out, tag(metrics.keyAt(i), type));
+            if (type == DiagnoseMetrics.TYPE_DOUBLE) {
+                out.putLong(Double.doubleToRawLongBits(metrics.doubleValueAt(i)));
+            } else {
+                writeVarint(out, zigzag(metrics.valueAt(i)));
+            }
+        }
+    }
+
+    /**
+     * @return 指标，没有指标时返回null
+     */
+    private static DiagnoseMetrics readMetrics(ByteBuffer in) throws IOException {
+        int metricCount = readCount(in);
+        if (metricCount == 0) {
+            return null;
+        }
+        DiagnoseMetrics metrics = new DiagnoseMetrics(metricCount);
+        for (int i = 0; i < metricCount; i++) {
+            long tag = readVarint(in);
+            int key = (int) (tag >>> 1);
+            if ((tag & 1) == DiagnoseMetrics.TYPE_DOUBLE) {
+                metrics.putDouble(key, Double.longBitsToDouble(in.getLong()));
+            } else {
+                metrics.put(key, unzigzag(readVarint(in)));
+            }
+        }
+        return metrics;
+    }
+
+    private static long tag(int key, int type) {
+        return ((long) key << 1) | type;
+    }
+
+    private static byte encodeCheckResult(DiagnoseResultItem.CheckResult checkResult) {
+        if (checkResult == null) {
+            return CHECK_RESULT_NONE;
+        }
+        switch (checkResult) {
+            case Ok:
+                return CHECK_RESULT_OK;
+            case Error:
+                return CHECK_RESULT_ERROR;
+            case Warning:
+                return CHECK_RESULT_WARNING;
+            default:
+                return CHECK_RESULT_NONE;
+        }
+    }
+
+    private static DiagnoseResultItem.CheckResult decodeCheckResult(byte b) throws IOException {
+        switch (b) {
+            case CHECK_RESULT_OK:
+                return DiagnoseResultItem.CheckResult.Ok;
+            case CHECK_RESULT_ERROR:
+                return DiagnoseResultItem.CheckResult.Error;
+            case CHECK_RESULT_WARNING:
+                return DiagnoseResultItem.CheckResult.Warning;
+            case CHECK_RESULT_NONE:
+                return null;
+            default:
+                throw new IOException("invalid check result: " + b);
+        }
+    }
+
+    /**
+     * 读取数量，数量不可能超过剩余字节数，用于避免损坏的数据导致分配过大的数组
+     */
+    private static int readCount(ByteBuffer in) throws IOException {
+        long count = readVarint(in);
+        if (count > in.remaining()) {
+            throw new IOException("invalid count: " + count);
+        }
+        return (int) count;
+    }
+
+    static int varintSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    static void writeVarint(ByteBuffer out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    static long readVarint(ByteBuffer in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("malformed varint");
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
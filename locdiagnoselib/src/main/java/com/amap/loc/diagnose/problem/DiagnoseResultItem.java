@@ -10,6 +10,9 @@ import java.util.List;
  *
  * 检查存在异常时，使用{@link #checkError(String, List)}方法创建，此时要展示异常描述及具体的异常原因，
  *
+ * 除描述文字外，检测结果及每个具体检查还带有编码（见{@link DiagnoseCode}）和数值指标（见{@link DiagnoseMetrics}），
+ * 用于在不保存描述文字的情况下记录和统计检测结果；具体检查的描述文字可以不设置，展示时再根据编码和指标生成，见
+ * {@link SubItem#getDescription()}
  */
 public class DiagnoseResultItem {
 
@@ -32,14 +35,50 @@ public class DiagnoseResultItem {
             this.description = description;
         }
 
+        public SubItem(CheckResult checkResult, int code, String description) {
+            this.checkResult = checkResult;
+            this.code = code;
+            this.description = description;
+        }
+
         public CheckResult checkResult;
+        /**
+         * 描述文字，为null时在展示时根据编码和指标生成，展示时应使用{@link #getDescription()}
+         */
         public String description;
+        /**
+         * 编码，见{@link DiagnoseCode}
+         */
+        public int code = DiagnoseCode.UNKNOWN;
+        /**
+         * 数值指标，没有指标时为null
+         */
+        public DiagnoseMetrics metrics;
+
+        /**
+         * 获取描述文字，未设置时生成并保存，只应在需要展示时调用
+         */
+        public String getDescription() {
+            if (description == null) {
+                description = renderDescription();
+            }
+            return description;
+        }
+
+        /**
+         * 根据编码和指标生成描述文字，子类可以重写该方法，在展示时才生成包含额外信息的描述
+         */
+        protected String renderDescription() {
+            return DiagnoseText.render(code, metrics);
+        }
 
         @Override
         public String toString() {
             return "SubItem{" +
                     "checkResult=" + checkResult +
+                    ", code=" + code +
                     ", description='" + description + '\'' +
+                    ", metrics=" + metrics +
                     '}';
         }
     }
@@ -48,8 +87,21 @@ public class DiagnoseResultItem {
     /*package*/ String title;
 
     public CheckResult checkResult;
+    /**
+     * 编码，见{@link DiagnoseCode}
+     */
+    public int code = DiagnoseCode.UNKNOWN;
+    /**
+     * 数值指标，没有指标时为null
+     */
+    public DiagnoseMetrics metrics;
     public String errorHint;
     public List<SubItem> subItems;
+    /**
+     * 检测尚未完成的中间结果，只包含已经确定的具体检查，checkResult为这些检查的汇总，见
+     * {@link DiagnoseView.StreamingDiagnoser}；中间结果不会被缓存、记录或上报
+     */
+    public boolean partial = false;
 
     public static DiagnoseResultItem checkOk() {
         DiagnoseResultItem resultItem = new DiagnoseResultItem();
@@ -75,8 +127,11 @@ public class DiagnoseResultItem {
                 "icon=" + icon +
                 ", title='" + title + '\'' +
                 ", checkResult=" + checkResult +
+                ", code=" + code +
                 ", errorHint='" + errorHint + '\'' +
+                ", metrics=" + metrics +
                 ", subItems=" + subItems +
+                (partial ? ", partial" : "") +
                 '}';
     }
 }
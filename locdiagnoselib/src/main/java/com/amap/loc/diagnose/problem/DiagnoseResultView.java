@@ -16,13 +16,33 @@ import android.widget.TextView;
 
 import com.amap.loc.diagnose.R;
 
+import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * 检测结果列表
+ *
+ * 结果会被逐项更新多次（见{@link DiagnoseView#setStreamResults(boolean)}），为避免重复inflate：列表项按检测项位置
+ * 使用稳定的id，只重新绑定结果发生变化的可见项；子项（具体检查）的view在所有列表项之间共用一个复用池，
+ * 列表项之间只增减差额部分的子项view
+ */
 public class DiagnoseResultView extends FrameLayout {
 
+    /**
+     * 复用池最多保留的子项view数
+     */
+    private static final int MAX_POOLED_SUB_ITEM_VIEWS = 16;
+
     private List<DiagnoseResultItem> data;
+    /**
+     * 上一次绑定时各位置的结果，用于找出发生变化的位置
+     */
+    private final List<DiagnoseResultItem> boundData = new ArrayList<>();
     private ListView listView;
+    private ViewGroup listHeaderView;
     private DiagnoseResultListAdapter adapter;
+    private final SubItemViewPool subItemViewPool = new SubItemViewPool();
+    private DiagnoseFrameMetrics frameMetrics;
 
     public DiagnoseResultView(Context context) {
         super(context);
@@ -40,6 +60,17 @@ public class DiagnoseResultView extends FrameLayout {
         listView = findViewById(R.id.view_diagnose_result_list);
     }
 
+    /**
+     * 设置帧耗时统计，记录每个列表项的绑定耗时，见{@link DiagnoseView#setFrameMetrics(DiagnoseFrameMetrics)}
+     * @param frameMetrics 帧耗时统计，为null时不记录
+     */
+    public void setFrameMetrics(DiagnoseFrameMetrics frameMetrics) {
+        this.frameMetrics = frameMetrics;
+        if (adapter != null) {
+            adapter.frameMetrics = frameMetrics;
+        }
+    }
+
     public void setData(List<DiagnoseResultItem> data) {
         this.data = data;
         int errorCount = 0;
@@ -48,21 +79,84 @@ public class DiagnoseResultView extends FrameLayout {
                 errorCount++;
             }
         }
+        boolean structureChanged = adapter == null || boundData.size() != data.size();
+        // 结果可能被刷新多次，header只添加一次
         if (errorCount > 0) {
-            ViewGroup listHeaderView = (ViewGroup) LayoutInflater.from(getContext()).inflate(R.layout.view_diagnose_result_header, listView, false);
-            listView.addHeaderView(listHeaderView);
-            ((TextView)listHeaderView.findViewById(R.id.view_diagnose_result_header_hint)).setText("请按照建议配置手机");
+            if (listHeaderView == null) {
+                listHeaderView = (ViewGroup) LayoutInflater.from(getContext()).inflate(R.layout.view_diagnose_result_header, listView, false);
+                listView.addHeaderView(listHeaderView);
+                ((TextView)listHeaderView.findViewById(R.id.view_diagnose_result_header_hint)).setText("请按照建议配置手机");
+                structureChanged = true;
+            }
             Spannable ss = new SpannableString(errorCount + "项");
             ss.setSpan(new RelativeSizeSpan(2.5f), 0, ss.length() - 1, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
             ((TextView)listHeaderView.findViewById(R.id.view_diagnose_result_header_desc)).setText(ss);
+        } else if (listHeaderView != null) {
+            listView.removeHeaderView(listHeaderView);
+            listHeaderView = null;
+            structureChanged = true;
+        }
+        if (adapter == null) {
+            adapter = new DiagnoseResultListAdapter(data, subItemViewPool);
+            adapter.frameMetrics = frameMetrics;
+            listView.setAdapter(adapter);
+        } else if (structureChanged) {
+            adapter.data = data;
+            adapter.notifyDataSetChanged();
+        } else {
+            adapter.data = data;
+            rebindChangedRows();
+        }
+        boundData.clear();
+        boundData.addAll(data);
+    }
+
+    /**
+     * 列表结构没有变化时，只重新绑定结果发生变化的可见项；不可见的项在滚动到可见时绑定
+     */
+    private void rebindChangedRows() {
+        int firstVisible = listView.getFirstVisiblePosition();
+        int headerCount = listView.getHeaderViewsCount();
+        for (int i = 0; i < data.size(); i++) {
+            if (boundData.get(i) == data.get(i)) {
+                continue;
+            }
+            int childIndex = i + headerCount - firstVisible;
+            if (childIndex >= 0 && childIndex < listView.getChildCount()) {
+                adapter.getView(i, listView.getChildAt(childIndex), listView);
+            }
+        }
+    }
+
+    /**
+     * 子项view的复用池，所有列表项共用
+     */
+    private static class SubItemViewPool {
+
+        private final List<View> views = new ArrayList<>();
+
+        View acquire(ViewGroup parent) {
+            if (!views.isEmpty()) {
+                return views.remove(views.size() - 1);
+            }
+            View view = LayoutInflater.from(parent.getContext())
+                    .inflate(R.layout.item_view_diagnose_result_sub, parent, false);
+            view.setTag(view.findViewById(R.id.item_view_diagnose_result_sub_desc));
+            return view;
+        }
+
+        void release(View view) {
+            if (views.size() < MAX_POOLED_SUB_ITEM_VIEWS) {
+                views.add(view);
+            }
         }
-        adapter = new DiagnoseResultListAdapter(data);
-        listView.setAdapter(adapter);
     }
 
     private static class DiagnoseResultListAdapter extends BaseAdapter {
 
         private List<DiagnoseResultItem> data;
+        private final SubItemViewPool subItemViewPool;
+        private DiagnoseFrameMetrics frameMetrics;
 
         private static class ViewHolder {
             ImageView icon;
@@ -70,10 +164,15 @@ public class DiagnoseResultView extends FrameLayout {
             TextView title;
             TextView desc;
             ViewGroup subItemsContainer;
+            /**
+             * 当前绑定的结果，结果未变化时不重新绑定
+             */
+            DiagnoseResultItem boundItem;
         }
 
-        DiagnoseResultListAdapter(List<DiagnoseResultItem> data) {
+        DiagnoseResultListAdapter(List<DiagnoseResultItem> data, SubItemViewPool subItemViewPool) {
             this.data = data;
+            this.subItemViewPool = subItemViewPool;
         }
 
         @Override
@@ -86,13 +185,22 @@ public class DiagnoseResultView extends FrameLayout {
             return data.get(position);
         }
 
+        /**
+         * 每个位置对应一个检测项，结果更新时位置不变
+         */
         @Override
         public long getItemId(int position) {
             return position;
         }
 
+        @Override
+        public boolean hasStableIds() {
+            return true;
+        }
+
         @Override
         public View getView(int position, View convertView, ViewGroup parent) {
+            long startNanos = frameMetrics == null ? 0 : System.nanoTime();
             ViewHolder vh;
             if (convertView == null) {
                 convertView = LayoutInflater.from(parent.getContext()).inflate(R.layout.item_view_diagnose_result, parent, false);
@@ -107,9 +215,19 @@ public class DiagnoseResultView extends FrameLayout {
                 vh = (ViewHolder) convertView.getTag();
             }
             DiagnoseResultItem item = data.get(position);
+            if (vh.boundItem == item) {
+                return convertView;
+            }
+            vh.boundItem = item;
             vh.title.setText(item.title);
             vh.icon.setImageResource(item.icon);
-            if (item.checkResult == DiagnoseResultItem.CheckResult.Ok) {
+            vh.checkOk.setVisibility(VISIBLE);
+            if (item.partial && item.checkResult == DiagnoseResultItem.CheckResult.Ok) {
+                // 已确定的检查都正常，剩余检查仍在进行
+                vh.desc.setTextColor(0xff666666);
+                vh.desc.setText("检测中");
+                vh.checkOk.setVisibility(INVISIBLE);
+            } else if (item.checkResult == DiagnoseResultItem.CheckResult.Ok) {
                 vh.desc.setTextColor(0xff666666);
                 vh.desc.setText("无异常");
                 vh.checkOk.setImageResource(R.drawable.ok);
@@ -122,22 +240,40 @@ public class DiagnoseResultView extends FrameLayout {
                 vh.desc.setText(item.errorHint);
                 vh.checkOk.setImageResource(R.drawable.warning);
             }
-            if (item.checkResult != DiagnoseResultItem.CheckResult.Ok && item.subItems != null && item.subItems.size() > 0) {
-                vh.subItemsContainer.setVisibility(VISIBLE);
-                vh.subItemsContainer.removeAllViews();
+            bindSubItems(vh.subItemsContainer, item);
+            if (frameMetrics != null) {
+                frameMetrics.recordBind(position, startNanos);
+            }
+            return convertView;
+        }
+
+        /**
+         * 复用容器中已有的子项view，只从复用池中取出或归还差额部分
+         */
+        private void bindSubItems(ViewGroup container, DiagnoseResultItem item) {
+            int count = 0;
+            if (item.checkResult != DiagnoseResultItem.CheckResult.Ok && item.subItems != null) {
                 for (DiagnoseResultItem.SubItem subItem : item.subItems) {
-                    if (subItem.checkResult != DiagnoseResultItem.CheckResult.Ok) {
-                        ViewGroup subItemView = (ViewGroup) LayoutInflater.from(parent.getContext())
-                                .inflate(R.layout.item_view_diagnose_result_sub, vh.subItemsContainer, false);
-//                        ((TextView) subItemView.findViewById(R.id.item_view_diagnose_result_sub_title)).setText(subItem.title);
-                        ((TextView) subItemView.findViewById(R.id.item_view_diagnose_result_sub_desc)).setText(subItem.description);
-                        vh.subItemsContainer.addView(subItemView);
+                    if (subItem.checkResult == DiagnoseResultItem.CheckResult.Ok) {
+                        continue;
                     }
+                    View subItemView;
+                    if (count < container.getChildCount()) {
+                        subItemView = container.getChildAt(count);
+                    } else {
+                        subItemView = subItemViewPool.acquire(container);
+                        container.addView(subItemView);
+                    }
+                    ((TextView) subItemView.getTag()).setText(subItem.getDescription());
+                    count++;
                 }
-            } else {
-                vh.subItemsContainer.setVisibility(GONE);
             }
-            return convertView;
+            while (container.getChildCount() > count) {
+                View subItemView = container.getChildAt(container.getChildCount() - 1);
+                container.removeViewAt(container.getChildCount() - 1);
+                subItemViewPool.release(subItemView);
+            }
+            container.setVisibility(count > 0 ? VISIBLE : GONE);
         }
     }
 
@@ -0,0 +1,420 @@
+package com.amap.loc.diagnose.problem;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 检测项调度器，按照检测项之间的依赖关系调度检测
+ *
+ * 没有依赖的检测项在{@link #start()}时全部立即开始；实现了{@link DiagnoseView.DependentDiagnoser}的检测项，
+ * 会在其依赖的检测项全部完成后立即开始，不需要等待其他无关的检测项；串行调度时（见{@link #setSerial(boolean)}），
+ * 每个检测项额外依赖它的前一个检测项
+ *
+ * 所有方法及回调都在主线程中调用
+ */
+public class DiagnoseScheduler {
+
+    public interface Callback {
+        /**
+         * 某个检测项开始检测
+         * @param index 检测项在列表中的位置
+         */
+        void onDiagnoseStart(int index);
+
+        /**
+         * 实现了{@link DiagnoseView.StreamingDiagnoser}的检测项在完成前给出了中间结果，完成后不再回调
+         * @param index 检测项在列表中的位置
+         * @param partialResult 中间结果，见{@link DiagnoseResultItem#partial}
+         */
+        void onDiagnoseProgress(int index, DiagnoseResultItem partialResult);
+
+        /**
+         * 某个检测项完成
+         * @param index 检测项在列表中的位置
+         * @param diagnoseResultItem 检测结果
+         */
+        void onDiagnoseFinish(int index, DiagnoseResultItem diagnoseResultItem);
+
+        /**
+         * 检测项先使用了缓存结果，之后重新检测得到了新的结果
+         * @param index 检测项在列表中的位置
+         * @param diagnoseResultItem 新的检测结果
+         */
+        void onDiagnoseRefresh(int index, DiagnoseResultItem diagnoseResultItem);
+
+        /**
+         * 所有检测项都已完成
+         * @param diagnoseResults 检测结果，按检测项在列表中的顺序排列
+         */
+        void onAllDiagnoseFinish(List<DiagnoseResultItem> diagnoseResults);
+    }
+
+    private final Context context;
+    private final List<DiagnoseView.Diagnoser> diagnosers;
+    private final Callback callback;
+
+    private final DiagnoseResultItem[] results;
+    private final boolean[] started;
+    /**
+     * 检测项的结果是否为缓存结果，后台重新检测完成后为false
+     */
+    private final boolean[] fromCache;
+    private final long[] startTimes;
+    private DiagnoseTrace trace;
+    private DiagnoseTrace.Span runSpan;
+    private DiagnoseTrace.Span[] spans;
+    /**
+     * 每个检测项依赖的检测项位置
+     */
+    private int[][] dependencies;
+    private int finishCount;
+    private boolean cancelled = false;
+    private boolean serial = false;
+    private long minDiagnoseDuration = 0;
+    private DiagnoseResultCache resultCache;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    /**
+     * @param context 传给检测项的Context
+     * @param diagnosers 要调度的检测项，调度器不会调用检测项的prepare方法
+     * @param callback 检测结果回调
+     * @throws IllegalArgumentException 检测项之间存在循环依赖时
+     */
+    public DiagnoseScheduler(Context context, List<DiagnoseView.Diagnoser> diagnosers, Callback callback) {
+        this.context = context;
+        this.diagnosers = new ArrayList<>(diagnosers);
+        this.callback = callback;
+        int count = this.diagnosers.size();
+        results = new DiagnoseResultItem[count];
+        started = new boolean[count];
+        fromCache = new boolean[count];
+        startTimes = new long[count];
+        dependencies = resolveDependencies(this.diagnosers, false);
+        checkCycle(dependencies);
+    }
+
+    /**
+     * 设置是否串行调度，必须在{@link #start()}之前调用
+     * @param serial 为true时按列表顺序依次检测，每个检测项在前一个检测项完成后才开始
+     * @throws IllegalArgumentException 串行顺序与检测项声明的依赖关系冲突时
+     */
+    public void setSerial(boolean serial) {
+        this.serial = serial;
+        dependencies = resolveDependencies(diagnosers, serial);
+        checkCycle(dependencies);
+    }
+
+    /**
+     * 设置每个检测项的最短检测时间，必须在{@link #start()}之前调用
+     *
+     * 检测项实际完成的时间早于该时间时，推迟到该时间再作为完成处理，用于界面上逐项展示检测过程
+     *
+     * @param minDiagnoseDuration 最短检测时间，单位毫秒，默认为0
+     */
+    public void setMinDiagnoseDuration(long minDiagnoseDuration) {
+        this.minDiagnoseDuration = minDiagnoseDuration;
+    }
+
+    /**
+     * 设置检测结果缓存，必须在{@link #start()}之前调用
+     *
+     * 设置后，检测项有未过期的缓存结果时，直接使用缓存结果作为该检测项的结果，同时仍然在后台重新检测，新的结果会
+     * 更新缓存并通过{@link Callback#onDiagnoseRefresh(int, DiagnoseResultItem)}回调
+     *
+     * @param resultCache 检测结果缓存，为null时不使用缓存
+     */
+    public void setResultCache(DiagnoseResultCache resultCache) {
+        this.resultCache = resultCache;
+    }
+
+    /**
+     * 设置耗时记录，必须在{@link #start()}之前调用；每个检测项从开始到完成记录在以其标题命名的轨道上，最短检测时间
+     * 导致的推迟单独记录为"hold"
+     * @param trace 耗时记录，为null时不记录
+     */
+    public void setTrace(DiagnoseTrace trace) {
+        this.trace = trace;
+        this.spans = trace == null ? null : new DiagnoseTrace.Span[diagnosers.size()];
+    }
+
+    public void start() {
+        if (trace != null) {
+            runSpan = trace.begin(DiagnoseTrace.CATEGORY_ENGINE, serial ? "diagnose serial" : "diagnose parallel");
+        }
+        if (diagnosers.isEmpty()) {
+            if (trace != null) {
+                trace.end(runSpan);
+            }
+            callback.onAllDiagnoseFinish(new LinkedList<DiagnoseResultItem>());
+            return;
+        }
+        scheduleReady();
+    }
+
+    /**
+     * 取消调度，取消后不会再启动新的检测项，也不会再有任何回调；实现了{@link DiagnoseView.CancellableDiagnoser}
+     * 的检测项会被取消，包括已经完成但仍在后台刷新缓存结果的检测项
+     */
+    public void cancel() {
+        if (cancelled) {
+            return;
+        }
+        cancelled = true;
+        handler.removeCallbacksAndMessages(null);
+        for (DiagnoseView.Diagnoser diagnoser : diagnosers) {
+            if (diagnoser instanceof DiagnoseView.CancellableDiagnoser) {
+                ((DiagnoseView.CancellableDiagnoser) diagnoser).cancel();
+            }
+        }
+    }
+
+    public boolean isSerial() {
+        return serial;
+    }
+
+    public boolean isFinished(int index) {
+        return results[index] != null;
+    }
+
+    /**
+     * @return 该检测项当前的结果是否为缓存结果，后台重新检测完成、结果被替换后返回false
+     */
+    public boolean isFromCache(int index) {
+        return fromCache[index];
+    }
+
+    public int size() {
+        return results.length;
+    }
+
+    private void scheduleReady() {
+        for (int i = 0; i < diagnosers.size(); i++) {
+            if (cancelled) {
+                return;
+            }
+            if (!started[i] && isReady(i)) {
+                started[i] = true;
+                startTimes[i] = SystemClock.elapsedRealtime();
+                DiagnoseView.Diagnoser diagnoser = diagnosers.get(i);
+                if (trace != null) {
+                    spans[i] = trace.begin(DiagnoseTrace.CATEGORY_ENGINE, "diagnose", diagnoser.getTitle());
+                }
+                callback.onDiagnoseStart(i);
+                if (diagnoser instanceof DiagnoseView.DependentDiagnoser) {
+                    ((DiagnoseView.DependentDiagnoser) diagnoser).onDependenciesResolved(collectDependencyResults(i));
+                }
+                DiagnoseResultItem cached = resultCache == null ? null : resultCache.get(diagnoser);
+                if (cached != null) {
+                    if (trace != null) {
+                        trace.instant(DiagnoseTrace.CATEGORY_ENGINE, "cache hit", diagnoser.getTitle());
+                    }
+                    // 先以缓存结果完成，再在后台重新检测
+                    fromCache[i] = true;
+                    onFinish(i, cached, true);
+                    diagnoser.diagnose(context, new RefreshCallback(i));
+                } else {
+                    if (diagnoser instanceof DiagnoseView.StreamingDiagnoser) {
+                        ((DiagnoseView.StreamingDiagnoser) diagnoser).setProgressCallback(new IndexedProgressCallback(i));
+                    }
+                    diagnoser.diagnose(context, new IndexedFinishCallback(i));
+                }
+            }
+        }
+    }
+
+    private boolean isReady(int index) {
+        for (int dependency : dependencies[index]) {
+            if (results[dependency] == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Map<Class<? extends DiagnoseView.Diagnoser>, DiagnoseResultItem> collectDependencyResults(int index) {
+        Map<Class<? extends DiagnoseView.Diagnoser>, DiagnoseResultItem> dependencyResults = new HashMap<>();
+        for (int dependency : dependencies[index]) {
+            dependencyResults.put(diagnosers.get(dependency).getClass(), results[dependency]);
+        }
+        return dependencyResults;
+    }
+
+    private void onFinish(int index, DiagnoseResultItem diagnoseResultItem, boolean fromCache) {
+        if (cancelled || results[index] != null) {
+            return;
+        }
+        DiagnoseView.Diagnoser d = diagnosers.get(index);
+        diagnoseResultItem.icon = d.getIcon();
+        diagnoseResultItem.title = d.getTitle();
+        if (resultCache != null && !fromCache) {
+            resultCache.put(d, diagnoseResultItem);
+        }
+        results[index] = diagnoseResultItem;
+        finishCount++;
+        if (trace != null) {
+            trace.end(spans[index], String.valueOf(diagnoseResultItem.code));
+        }
+        callback.onDiagnoseFinish(index, diagnoseResultItem);
+        if (finishCount < results.length) {
+            // 有检测项完成，启动依赖已经全部完成的检测项
+            scheduleReady();
+            return;
+        }
+        List<DiagnoseResultItem> diagnoseResults = new LinkedList<>();
+        for (DiagnoseResultItem item : results) {
+            diagnoseResults.add(item);
+        }
+        if (trace != null) {
+            trace.end(runSpan);
+        }
+        callback.onAllDiagnoseFinish(diagnoseResults);
+    }
+
+    /**
+     * 将检测项声明的依赖类型转换为依赖项的位置，依赖的类型不在检测列表中时忽略该依赖
+     */
+    private static int[][] resolveDependencies(List<DiagnoseView.Diagnoser> diagnosers, boolean serial) {
+        int count = diagnosers.size();
+        int[][] dependencies = new int[count][];
+        for (int i = 0; i < count; i++) {
+            DiagnoseView.Diagnoser diagnoser = diagnosers.get(i);
+            List<Class<? extends DiagnoseView.Diagnoser>> declared = null;
+            if (diagnoser instanceof DiagnoseView.DependentDiagnoser) {
+                declared = ((DiagnoseView.DependentDiagnoser) diagnoser).getDependencies();
+            }
+            List<Integer> resolved = new LinkedList<>();
+            if (serial && i > 0) {
+                resolved.add(i - 1);
+            }
+            if (declared != null) {
+                for (int j = 0; j < count; j++) {
+                    if (j != i && !resolved.contains(j) && declared.contains(diagnosers.get(j).getClass())) {
+                        resolved.add(j);
+                    }
+                }
+            }
+            dependencies[i] = new int[resolved.size()];
+            int k = 0;
+            for (Integer index : resolved) {
+                dependencies[i][k++] = index;
+            }
+        }
+        return dependencies;
+    }
+
+    private static void checkCycle(int[][] dependencies) {
+        // 0: 未访问，1: 访问中，2: 已完成
+        int[] state = new int[dependencies.length];
+        for (int i = 0; i < dependencies.length; i++) {
+            visit(i, dependencies, state);
+        }
+    }
+
+    private static void visit(int index, int[][] dependencies, int[] state) {
+        if (state[index] == 2) {
+            return;
+        }
+        if (state[index] == 1) {
+            throw new IllegalArgumentException("cyclic dependency between diagnosers");
+        }
+        state[index] = 1;
+        for (int dependency : dependencies[index]) {
+            visit(dependency, dependencies, state);
+        }
+        state[index] = 2;
+    }
+
+    private class IndexedFinishCallback implements DiagnoseView.DiagnoseFinishCallback {
+
+        private final int index;
+
+        IndexedFinishCallback(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public void onDiagnoseFinish(final DiagnoseResultItem diagnoseResultItem) {
+            if (cancelled) {
+                return;
+            }
+            long delay = startTimes[index] + minDiagnoseDuration - SystemClock.elapsedRealtime();
+            if (delay <= 0) {
+                onFinish(index, diagnoseResultItem, false);
+                return;
+            }
+            final DiagnoseTrace.Span holdSpan = trace == null ? null
+                    : trace.begin(DiagnoseTrace.CATEGORY_UI, "hold", diagnosers.get(index).getTitle());
+            handler.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    if (trace != null) {
+                        trace.end(holdSpan);
+                    }
+                    onFinish(index, diagnoseResultItem, false);
+                }
+            }, delay);
+        }
+    }
+
+    private class IndexedProgressCallback implements DiagnoseView.DiagnoseProgressCallback {
+
+        private final int index;
+
+        IndexedProgressCallback(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public void onDiagnoseProgress(DiagnoseResultItem partialResult) {
+            if (cancelled || results[index] != null) {
+                return;
+            }
+            DiagnoseView.Diagnoser d = diagnosers.get(index);
+            partialResult.icon = d.getIcon();
+            partialResult.title = d.getTitle();
+            if (trace != null) {
+                trace.instant(DiagnoseTrace.CATEGORY_ENGINE, "progress " + partialResult.subItems.size(), d.getTitle());
+            }
+            callback.onDiagnoseProgress(index, partialResult);
+        }
+    }
+
+    /**
+     * 已使用缓存结果的检测项，在后台重新检测完成后的回调
+     */
+    private class RefreshCallback implements DiagnoseView.DiagnoseFinishCallback {
+
+        private final int index;
+        private boolean refreshed = false;
+
+        RefreshCallback(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public void onDiagnoseFinish(DiagnoseResultItem diagnoseResultItem) {
+            if (cancelled || refreshed) {
+                return;
+            }
+            refreshed = true;
+            DiagnoseView.Diagnoser d = diagnosers.get(index);
+            if (trace != null) {
+                trace.instant(DiagnoseTrace.CATEGORY_ENGINE, "refresh " + diagnoseResultItem.code, d.getTitle());
+            }
+            diagnoseResultItem.icon = d.getIcon();
+            diagnoseResultItem.title = d.getTitle();
+            resultCache.put(d, diagnoseResultItem);
+            results[index] = diagnoseResultItem;
+            fromCache[index] = false;
+            callback.onDiagnoseRefresh(index, diagnoseResultItem);
+        }
+    }
+}
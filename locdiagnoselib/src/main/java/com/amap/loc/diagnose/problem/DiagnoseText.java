@@ -0,0 +1,139 @@
+package com.amap.loc.diagnose.problem;
+
+import com.amap.loc.diagnose.platform.CellStatus;
+
+/**
+ * 根据编码和数值指标生成描述文字，只在界面展示时调用，见{@link DiagnoseResultItem.SubItem#getDescription()}
+ */
+final class DiagnoseText {
+
+    private DiagnoseText() {
+    }
+
+    static String render(int code, DiagnoseMetrics metrics) {
+        switch (code) {
+            // 权限
+            case DiagnoseCode.PERMISSION_INTERNET:
+                return "缺少访问网络权限，会导致无法访问网络, 无法进行网络定位";
+            case DiagnoseCode.PERMISSION_NETWORK_STATE:
+                return "缺少检查网络连接信息权限，会导致无法判断当前网络连接状态，影响定位";
+            case DiagnoseCode.PERMISSION_WIFI:
+                return "缺少获取Wifi信息权限，会导致无法获取附近wifi信息，影响定位准确性";
+            case DiagnoseCode.PERMISSION_BLUETOOTH:
+                return "缺少获取蓝牙信息权限，会导致无法获取附近蓝牙信息，影响室内定位准确性";
+            case DiagnoseCode.PERMISSION_LOCATION:
+                return "缺少定位权限权限，会导致无法进行GPS定位，影响定位准确性";
+            case DiagnoseCode.PERMISSION_STORAGE:
+                return "缺少读写外部存储权限权限，会导致无法读写sd卡，影响定位sdk缓存数据的存取";
+
+            // 网络
+            case DiagnoseCode.NET_ENDPOINT_OK:
+            case DiagnoseCode.NET_ENDPOINT_SLOW:
+                return "网络延迟：" + get(metrics, DiagnoseMetrics.NET_TOTAL_P50_MS) + "ms";
+            case DiagnoseCode.NET_ENDPOINT_UNREACHABLE:
+                return "无法连接到服务器";
+
+            // GPS
+            case DiagnoseCode.GPS_OK:
+                return "gps定位正常，卫星数：" + get(metrics, DiagnoseMetrics.GPS_SATELLITES)
+                        + (has(metrics, DiagnoseMetrics.GPS_TTFF_MS)
+                        ? "，首次定位耗时：" + get(metrics, DiagnoseMetrics.GPS_TTFF_MS) + "ms" : "");
+            case DiagnoseCode.GPS_SIGNAL_OK:
+                return "gps信号正常，卫星数：" + get(metrics, DiagnoseMetrics.GPS_SATELLITES);
+            case DiagnoseCode.GPS_DISABLED:
+                return "无法进行GPS定位，GPS定位开关关闭";
+            case DiagnoseCode.GPS_TIMEOUT:
+                return "无法进行GPS定位，GPS定位超时，卫星数：" + get(metrics, DiagnoseMetrics.GPS_SATELLITES)
+                        + ", 如果您在室内，请尝试到室外重新检测";
+            case DiagnoseCode.GPS_NO_SATELLITE:
+                return "无法进行GPS定位，未搜索到卫星, 如果您在室内，请尝试到室外重新检测";
+            case DiagnoseCode.GPS_NO_PERMISSION:
+                return "无法进行GPS定位，无定位权限";
+            case DiagnoseCode.GPS_SYSTEM_ERROR:
+                return "无法进行GPS定位，系统错误";
+
+            // wifi
+            case DiagnoseCode.WIFI_OK:
+                return "wifi定位正常" + wifiScanSuffix(metrics);
+            case DiagnoseCode.WIFI_DISABLED:
+                return "无法进行wifi定位，wifi关闭";
+            case DiagnoseCode.WIFI_NO_AP:
+                return "无法进行wifi定位，无wifi热点" + wifiScanSuffix(metrics);
+            case DiagnoseCode.WIFI_TOO_FEW_AP:
+                return "无法进行wifi定位，wifi热点过少" + wifiScanSuffix(metrics);
+            case DiagnoseCode.WIFI_NO_PERMISSION:
+                return "无法进行wifi定位，无定位权限";
+            case DiagnoseCode.WIFI_SYSTEM_ERROR:
+                return "无法进行wifi定位，系统错误";
+
+            // 基站
+            case DiagnoseCode.CELL_OK:
+                return "基站信息正常，扫描到基站数量：" + get(metrics, DiagnoseMetrics.CELL_COUNT) + servingCellSuffix(metrics);
+            case DiagnoseCode.CELL_WEAK_SIGNAL:
+                return "基站信号弱" + servingCellSuffix(metrics) + "，基站定位精度可能较差";
+            case DiagnoseCode.CELL_STALE:
+                return "基站信息已过期（" + get(metrics, DiagnoseMetrics.CELL_AGE_MS) / 1000 + "秒前），基站定位可能不准确";
+            case DiagnoseCode.CELL_NO_SERVING:
+                return "未注册到服务小区，扫描到基站数量：" + get(metrics, DiagnoseMetrics.CELL_COUNT) + "，基站定位可能不准确";
+            case DiagnoseCode.CELL_AIRPLANE_MODE:
+                return "飞行模式开启，无法获取基站信息进行基站定位";
+            case DiagnoseCode.CELL_SIM_ERROR:
+                return "无法进行基站定位，sim卡异常" + cellFailCauseSuffix(metrics);
+            case DiagnoseCode.CELL_NOT_FOUND:
+                return "无法进行基站定位，未获取到基站信息";
+            case DiagnoseCode.CELL_NO_PERMISSION:
+                return "无法进行基站定位，无定位权限";
+            case DiagnoseCode.CELL_SYSTEM_ERROR:
+                return "无法进行基站定位，系统错误";
+            default:
+                return metrics == null ? "" : metrics.toString();
+        }
+    }
+
+    private static String wifiScanSuffix(DiagnoseMetrics metrics) {
+        if (has(metrics, DiagnoseMetrics.WIFI_SCAN_MS)) {
+            return "，扫描耗时：" + get(metrics, DiagnoseMetrics.WIFI_SCAN_MS) + "ms";
+        }
+        if (has(metrics, DiagnoseMetrics.WIFI_AP_COUNT)) {
+            return "，使用系统缓存的扫描结果";
+        }
+        return "";
+    }
+
+    /**
+     * sim卡异常时附带的原始原因，如"，未获取到基站信息"
+     */
+    private static String cellFailCauseSuffix(DiagnoseMetrics metrics) {
+        if (!has(metrics, DiagnoseMetrics.CELL_FAIL_CAUSE)) {
+            return "";
+        }
+        switch ((int) get(metrics, DiagnoseMetrics.CELL_FAIL_CAUSE)) {
+            case DiagnoseCode.CELL_NOT_FOUND:
+                return "，未获取到基站信息";
+            case DiagnoseCode.CELL_SYSTEM_ERROR:
+                return "，系统错误";
+            default:
+                return "";
+        }
+    }
+
+    private static String servingCellSuffix(DiagnoseMetrics metrics) {
+        if (!has(metrics, DiagnoseMetrics.CELL_SERVING_RAT)) {
+            return "";
+        }
+        int rat = (int) get(metrics, DiagnoseMetrics.CELL_SERVING_RAT);
+        if (rat == CellStatus.RAT_UNKNOWN) {
+            return "";
+        }
+        return "，服务小区：" + CellStatus.ratName(rat)
+                + (has(metrics, DiagnoseMetrics.CELL_SERVING_DBM) ? " " + get(metrics, DiagnoseMetrics.CELL_SERVING_DBM) + "dBm" : "");
+    }
+
+    private static boolean has(DiagnoseMetrics metrics, int key) {
+        return metrics != null && metrics.contains(key);
+    }
+
+    private static long get(DiagnoseMetrics metrics, int key) {
+        return metrics == null ? 0 : metrics.get(key, 0);
+    }
+}
@@ -0,0 +1,316 @@
+package com.amap.loc.diagnose.problem;
+
+import com.amap.loc.diagnose.platform.DiagnoseClock;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 记录一次检测中各阶段的开始和结束时间，例如prepare、每个检测项、GPS首次定位、wifi扫描、基站查询、HTTP各阶段、
+ * 界面切换，用于分析检测耗时在哪个阶段
+ *
+ * 每个阶段是一个{@link Span}，属于一条轨道（track），同一轨道上的Span只能嵌套不能交错，同时进行的阶段应放在
+ * 不同轨道上。Span结束时回调{@link Listener}，也可以在检测结束后用{@link #writeChromeJson(Writer)}导出为
+ * Chrome trace格式，在chrome://tracing或https://ui.perfetto.dev中查看
+ *
+ * 时间为单调递增的时间，默认为{@link System#nanoTime()}，可以在任意线程中使用
+ */
+public class DiagnoseTrace {
+
+    public static final String CATEGORY_ENGINE = "engine";
+    public static final String CATEGORY_LOCATION = "location";
+    public static final String CATEGORY_NETWORK = "network";
+    public static final String CATEGORY_UI = "ui";
+
+    /**
+     * 最多记录的Span数，超过后不再记录，但仍会回调Listener
+     */
+    private static final int MAX_SPANS = 4096;
+
+    public interface Listener {
+        /**
+         * Span结束，在结束Span的线程中回调
+         * @param span 已结束的Span
+         */
+        void onSpanEnd(Span span);
+    }
+
+    public static class Span {
+        public final String category;
+        public final String name;
+        public final String track;
+        /**
+         * 开始时间，单位纳秒
+         */
+        public final long startNanos;
+        private long endNanos = -1;
+        private String detail;
+
+        Span(String category, String name, String track, long startNanos) {
+            this.category = category;
+            this.name = name;
+            this.track = track;
+            this.startNanos = startNanos;
+        }
+
+        /**
+         * @return 结束时间，单位纳秒，未结束时为-1
+         */
+        public long getEndNanos() {
+            return endNanos;
+        }
+
+        /**
+         * @return 耗时，单位纳秒，未结束时为-1；瞬时事件为0
+         */
+        public long getDurationNanos() {
+            return endNanos < 0 ? -1 : endNanos - startNanos;
+        }
+
+        /**
+         * @return 结束时附带的说明，如检测结果编码，没有时为null
+         */
+        public String getDetail() {
+            return detail;
+        }
+
+        @Override
+        public String toString() {
+            return track + "/" + name + ": " + (getDurationNanos() < 0 ? "running"
+                    : String.format(Locale.US, "%.3fms", getDurationNanos() / 1e6))
+                    + (detail == null ? "" : " (" + detail + ")");
+        }
+    }
+
+    private final DiagnoseClock clock;
+    private final long originNanos;
+    private final List<Span> spans = new ArrayList<>();
+    private volatile Listener listener;
+
+    public DiagnoseTrace() {
+        this(null);
+    }
+
+    /**
+     * @param clock 使用该时钟的时间，用于在FakePlatform上按虚拟时间记录，为null时使用{@link System#nanoTime()}
+     */
+    public DiagnoseTrace(DiagnoseClock clock) {
+        this.clock = clock;
+        this.originNanos = nowNanos();
+    }
+
+    /**
+     * @param listener Span结束的回调，为null时不回调
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @return 当前时间，单位纳秒
+     */
+    public long nowNanos() {
+        return clock == null ? System.nanoTime() : clock.elapsedRealtime() * 1000000L;
+    }
+
+    /**
+     * 开始一个阶段，轨道与分类相同
+     */
+    public Span begin(String category, String name) {
+        return begin(category, name, category);
+    }
+
+    /**
+     * 开始一个阶段
+     * @param track 轨道名称，同时进行的阶段使用不同的轨道
+     * @return 用于结束该阶段的Span
+     */
+    public Span begin(String category, String name, String track) {
+        Span span = new Span(category, name, track, nowNanos());
+        add(span);
+        return span;
+    }
+
+    /**
+     * 结束一个阶段，已结束的Span不会重复结束
+     * @param span 为null时忽略
+     */
+    public void end(Span span) {
+        end(span, null);
+    }
+
+    /**
+     * 结束一个阶段
+     * @param span 为null时忽略
+     * @param detail 附带的说明，如检测结果编码
+     */
+    public void end(Span span, String detail) {
+        if (span != null) {
+            endAt(span, nowNanos(), detail);
+        }
+    }
+
+    /**
+     * 记录一个已经结束的阶段，用于开始和结束时间已经在别处测量的情况
+     * @param startNanos 开始时间，与{@link #nowNanos()}的时间基准相同
+     * @param endNanos 结束时间
+     */
+    public void complete(String category, String name, String track, long startNanos, long endNanos, String detail) {
+        Span span = new Span(category, name, track, startNanos);
+        add(span);
+        endAt(span, endNanos, detail);
+    }
+
+    /**
+     * 记录一个瞬时事件，如界面状态切换
+     */
+    public void instant(String category, String name, String track) {
+        long now = nowNanos();
+        complete(category, name, track, now, now, null);
+    }
+
+    private synchronized void add(Span span) {
+        if (spans.size() < MAX_SPANS) {
+            spans.add(span);
+        }
+    }
+
+    private void endAt(Span span, long endNanos, String detail) {
+        synchronized (this) {
+            if (span.endNanos >= 0) {
+                return;
+            }
+            span.endNanos = Math.max(endNanos, span.startNanos);
+            span.detail = detail;
+        }
+        Listener l = listener;
+        if (l != null) {
+            l.onSpanEnd(span);
+        }
+    }
+
+    /**
+     * @return 已记录的Span，包括未结束的，按开始记录的顺序排列
+     */
+    public synchronized List<Span> getSpans() {
+        return new ArrayList<>(spans);
+    }
+
+    /**
+     * 导出为Chrome trace JSON格式，未结束的Span导出到导出时为止
+     */
+    public void writeChromeJson(Writer writer) throws IOException {
+        List<Span> snapshot;
+        long now = nowNanos();
+        synchronized (this) {
+            snapshot = new ArrayList<>(spans);
+        }
+        // 每条轨道对应一个线程id，按第一次出现的顺序分配
+        Map<String, Integer> tracks = new LinkedHashMap<>();
+        for (Span span : snapshot) {
+            if (!tracks.containsKey(span.track)) {
+                tracks.put(span.track, tracks.size() + 1);
+            }
+        }
+        writer.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[\n");
+        writer.write("{\"ph\":\"M\",\"pid\":1,\"tid\":0,\"name\":\"process_name\",\"args\":{\"name\":\"LocDiagnose\"}}");
+        for (Map.Entry<String, Integer> track : tracks.entrySet()) {
+            writer.write(",\n{\"ph\":\"M\",\"pid\":1,\"tid\":");
+            writer.write(String.valueOf(track.getValue()));
+            writer.write(",\"name\":\"thread_name\",\"args\":{\"name\":");
+            writeString(writer, track.getKey());
+            writer.write("}}");
+            writer.write(",\n{\"ph\":\"M\",\"pid\":1,\"tid\":");
+            writer.write(String.valueOf(track.getValue()));
+            writer.write(",\"name\":\"thread_sort_index\",\"args\":{\"sort_index\":");
+            writer.write(String.valueOf(track.getValue()));
+            writer.write("}}");
+        }
+        for (Span span : snapshot) {
+            long end;
+            String detail;
+            synchronized (this) {
+                end = span.endNanos;
+                detail = span.detail;
+            }
+            boolean instant = end == span.startNanos;
+            writer.write(",\n{\"ph\":\"");
+            writer.write(instant ? "i\",\"s\":\"t" : "X");
+            writer.write("\",\"pid\":1,\"tid\":");
+            writer.write(String.valueOf(tracks.get(span.track)));
+            writer.write(",\"cat\":");
+            writeString(writer, span.category);
+            writer.write(",\"name\":");
+            writeString(writer, span.name);
+            writer.write(",\"ts\":");
+            writer.write(toMicros(span.startNanos - originNanos));
+            if (!instant) {
+                writer.write(",\"dur\":");
+                writer.write(toMicros((end < 0 ? now : end) - span.startNanos));
+            }
+            if (detail != null || end < 0) {
+                writer.write(",\"args\":{");
+                if (detail != null) {
+                    writer.write("\"detail\":");
+                    writeString(writer, detail);
+                }
+                if (end < 0) {
+                    writer.write(detail != null ? ",\"unfinished\":true" : "\"unfinished\":true");
+                }
+                writer.write("}");
+            }
+            writer.write("}");
+        }
+        writer.write("\n]}\n");
+    }
+
+    /**
+     * @return Chrome trace JSON格式的字符串，见{@link #writeChromeJson(Writer)}
+     */
+    public String toChromeJson() {
+        StringWriter writer = new StringWriter();
+        try {
+            writeChromeJson(writer);
+        } catch (IOException e) {
+            // StringWriter不会抛出IOException
+            throw new IllegalStateException(e);
+        }
+        return writer.toString();
+    }
+
+    private static String toMicros(long nanos) {
+        return String.format(Locale.US, "%.3f", nanos / 1000.0);
+    }
+
+    private static void writeString(Writer writer, String value) throws IOException {
+        writer.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    writer.write("\\\"");
+                    break;
+                case '\\':
+                    writer.write("\\\\");
+                    break;
+                case '\n':
+                    writer.write("\\n");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        writer.write(String.format(Locale.US, "\\u%04x", (int) c));
+                    } else {
+                        writer.write(c);
+                    }
+                    break;
+            }
+        }
+        writer.write('"');
+    }
+}
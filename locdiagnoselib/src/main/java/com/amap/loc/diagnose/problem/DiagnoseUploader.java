@@ -0,0 +1,630 @@
+package com.amap.loc.diagnose.problem;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 检测结果上报，将检测结果保存在本地队列中，攒批压缩后发送到收集服务
+ *
+ * 上报分两步：
+ * <ol>
+ * <li>{@link #enqueue(long, List)}将检测结果追加到队列（一个{@link DiagnoseLog}），队列中的结果达到
+ * {@link #setBatchSize(int)}条，或第一条结果入队后超过{@link #setFlushDelay(long)}时，将队列中的结果打包为一个批次文件，
+ * 清空队列</li>
+ * <li>按生成顺序发送批次文件，发送成功后删除；发送失败时按指数退避重试，期间新的结果继续入队，网络不可用时批次文件保留在本地，
+ * 批次文件数超过{@link #setMaxBatches(int)}时丢弃最早的批次</li>
+ * </ol>
+ * 请求为POST，请求体为gzip压缩后的frame*，frame := length(varint) record(length字节)，record为
+ * {@link DiagnoseResultCodec}编码的一次检测结果；请求头X-Diagnose-Codec-Version为编码版本，X-Diagnose-Report-Count为
+ * 检测结果条数。收集服务返回2xx表示成功，返回4xx（408、429除外）表示该批次无法被接收，直接丢弃，其余情况重试
+ *
+ * 打包后清空队列前进程被杀死时，这部分结果下次会被重复打包，即同一条结果可能被上报多次
+ *
+ * 所有文件读写和网络请求都在单独的低优先级线程中依次进行，方法可以在任意线程中调用，不会阻塞调用线程；
+ * 同一目录只能使用一个实例
+ *
+ * 该类不依赖Android API
+ */
+public class DiagnoseUploader {
+
+    private static final String QUEUE_DIR = "queue";
+    private static final String BATCH_PREFIX = "batch-";
+    private static final String BATCH_SUFFIX = ".gz";
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final int QUEUE_MAX_FILE_SIZE = 64 * 1024;
+    private static final int QUEUE_MAX_FILES = 2;
+
+    private static final int DEFAULT_BATCH_SIZE = 20;
+    private static final long DEFAULT_FLUSH_DELAY = 10 * 60 * 1000;
+    private static final int DEFAULT_MAX_BATCHES = 16;
+    private static final long DEFAULT_MIN_BACKOFF = 30 * 1000;
+    private static final long DEFAULT_MAX_BACKOFF = 30 * 60 * 1000;
+    private static final int TIMEOUT = 15 * 1000;
+    private static final long KEEP_ALIVE_TIME = 30 * 1000;
+
+    /**
+     * 上报统计
+     */
+    public static class Stats {
+        /**
+         * 队列中尚未打包的检测结果数
+         */
+        public final int queuedReports;
+        /**
+         * 已打包尚未发送成功的批次数
+         */
+        public final int pendingBatches;
+        /**
+         * 已打包尚未发送成功的检测结果数
+         */
+        public final int pendingReports;
+        /**
+         * 发送成功的批次数和检测结果数
+         */
+        public final int uploadedBatches;
+        public final int uploadedReports;
+        /**
+         * 发送成功的压缩后总字节数，除以uploadedReports即为平均每条结果的字节数
+         */
+        public final long uploadedBytes;
+        /**
+         * 因超过数量上限或被收集服务拒绝而丢弃的批次数
+         */
+        public final int droppedBatches;
+        /**
+         * 失败的发送次数，包括之后重试成功的
+         */
+        public final int failedAttempts;
+        /**
+         * 最近一次发送（从开始发送第一个批次到全部发送成功或失败）的耗时，单位毫秒，未发送过时为-1
+         */
+        public final long lastFlushLatency;
+
+        Stats(int queuedReports, int pendingBatches, int pendingReports, int uploadedBatches, int uploadedReports,
+              long uploadedBytes, int droppedBatches, int failedAttempts, long lastFlushLatency) {
+            this.queuedReports = queuedReports;
+            this.pendingBatches = pendingBatches;
+            this.pendingReports = pendingReports;
+            this.uploadedBatches = uploadedBatches;
+            this.uploadedReports = uploadedReports;
+            this.uploadedBytes = uploadedBytes;
+            this.droppedBatches = droppedBatches;
+            this.failedAttempts = failedAttempts;
+            this.lastFlushLatency = lastFlushLatency;
+        }
+
+        /**
+         * @return 平均每条检测结果压缩后的字节数，未发送成功过时返回0
+         */
+        public long getBytesPerReport() {
+            return uploadedReports == 0 ? 0 : uploadedBytes / uploadedReports;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{" +
+                    "queuedReports=" + queuedReports +
+                    ", pendingBatches=" + pendingBatches +
+                    ", pendingReports=" + pendingReports +
+                    ", uploadedBatches=" + uploadedBatches +
+                    ", uploadedReports=" + uploadedReports +
+                    ", uploadedBytes=" + uploadedBytes +
+                    ", droppedBatches=" + droppedBatches +
+                    ", failedAttempts=" + failedAttempts +
+                    ", lastFlushLatency=" + lastFlushLatency +
+                    '}';
+        }
+    }
+
+    /**
+     * 已打包的批次，文件名为batch-序号-检测结果数.gz
+     */
+    private static class Batch {
+        final File file;
+        final long seq;
+        final int reportCount;
+
+        Batch(File file, long seq, int reportCount) {
+            this.file = file;
+            this.seq = seq;
+            this.reportCount = reportCount;
+        }
+    }
+
+    private final File dir;
+    private final URL collectorUrl;
+    private final Map<String, String> headers = new LinkedHashMap<>();
+    private final ScheduledThreadPoolExecutor executor;
+    private final Random random = new Random();
+
+    private volatile int batchSize = DEFAULT_BATCH_SIZE;
+    private volatile long flushDelay = DEFAULT_FLUSH_DELAY;
+    private volatile int maxBatches = DEFAULT_MAX_BATCHES;
+    private volatile long minBackoff = DEFAULT_MIN_BACKOFF;
+    private volatile long maxBackoff = DEFAULT_MAX_BACKOFF;
+
+    // 以下字段只在上报线程中访问，batches在上报线程中修改时加锁
+    private DiagnoseLog queue;
+    private List<Batch> batches;
+    private long nextSeq;
+    private int backoffCount = 0;
+    private ScheduledFuture<?> scheduledFlush;
+    private long scheduledFlushTime;
+    /**
+     * 最近一次请求中收集服务返回的Retry-After，单位毫秒，没有时为0
+     */
+    private long lastRetryAfter;
+
+    // 统计，由this保护
+    private int queuedReports;
+    private int pendingReports;
+    private int uploadedBatches;
+    private int uploadedReports;
+    private long uploadedBytes;
+    private int droppedBatches;
+    private int failedAttempts;
+    private long lastFlushLatency = -1;
+
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            scheduledFlush = null;
+            doFlush(true);
+        }
+    };
+
+    /**
+     * @param dir 队列和批次文件的目录，例如new File(context.getFilesDir(), "loc_diagnose_upload")，不能与
+     *            {@link DiagnoseLog}使用同一目录
+     * @param collectorUrl 收集服务地址
+     */
+    public DiagnoseUploader(File dir, String collectorUrl) throws IOException {
+        this.dir = dir;
+        this.collectorUrl = new URL(collectorUrl);
+        executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "LocDiagnose-Upload");
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        executor.setKeepAliveTime(KEEP_ALIVE_TIME, TimeUnit.MILLISECONDS);
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * 设置每个批次的检测结果数，队列中的结果达到该数量时立即打包发送
+     * @param batchSize 检测结果数，默认20
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be positive");
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * 设置队列中的结果最多等待多久打包发送
+     * @param flushDelay 第一条结果入队后的等待时间，单位毫秒，默认10分钟
+     */
+    public void setFlushDelay(long flushDelay) {
+        if (flushDelay < 0) {
+            throw new IllegalArgumentException("flushDelay must not be negative");
+        }
+        this.flushDelay = flushDelay;
+    }
+
+    /**
+     * 设置本地保存的批次数上限，超过时丢弃最早的批次
+     * @param maxBatches 批次数上限，默认16
+     */
+    public void setMaxBatches(int maxBatches) {
+        if (maxBatches <= 0) {
+            throw new IllegalArgumentException("maxBatches must be positive");
+        }
+        this.maxBatches = maxBatches;
+    }
+
+    /**
+     * 设置发送失败后重试的退避时间范围，第n次连续失败后等待minBackoff * 2^(n-1)，不超过maxBackoff，并随机减少最多一半
+     * @param minBackoff 最短退避时间，单位毫秒，默认30秒
+     * @param maxBackoff 最长退避时间，单位毫秒，默认30分钟
+     */
+    public void setBackoff(long minBackoff, long maxBackoff) {
+        if (minBackoff <= 0 || maxBackoff < minBackoff) {
+            throw new IllegalArgumentException("invalid backoff: " + minBackoff + ", " + maxBackoff);
+        }
+        this.minBackoff = minBackoff;
+        this.maxBackoff = maxBackoff;
+    }
+
+    /**
+     * 设置请求头，例如收集服务需要的应用标识
+     */
+    public void setHeader(String name, String value) {
+        synchronized (headers) {
+            headers.put(name, value);
+        }
+    }
+
+    /**
+     * 追加一次检测结果，立即返回
+     * @param time 检测时间，毫秒时间戳
+     * @param results 检测结果，入队前不能再修改
+     */
+    public void enqueue(final long time, final List<DiagnoseResultItem> results) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                doEnqueue(time, results);
+            }
+        });
+    }
+
+    /**
+     * 立即打包队列中的结果并发送所有批次，忽略退避等待，立即返回
+     */
+    public void flush() {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                doFlush(true);
+            }
+        });
+    }
+
+    /**
+     * 停止上报，未发送的结果保留在本地，下次创建实例后继续发送
+     */
+    public void shutdown() {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (queue != null) {
+                    queue.close();
+                }
+            }
+        });
+        executor.shutdown();
+    }
+
+    public synchronized Stats getStats() {
+        return new Stats(queuedReports, batches == null ? 0 : batches.size(), pendingReports, uploadedBatches,
+                uploadedReports, uploadedBytes, droppedBatches, failedAttempts, lastFlushLatency);
+    }
+
+    private void doEnqueue(long time, List<DiagnoseResultItem> results) {
+        try {
+            load();
+            queue.append(time, results);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        synchronized (this) {
+            queuedReports++;
+        }
+        if (queuedReports >= batchSize) {
+            doFlush(false);
+        } else if (scheduledFlush == null) {
+            schedule(flushDelay);
+        }
+    }
+
+    /**
+     * 打包队列中的结果并依次发送批次
+     * @param ignoreBackoff 是否忽略退避等待立即发送
+     */
+    private void doFlush(boolean ignoreBackoff) {
+        try {
+            load();
+            seal();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (batches == null || batches.isEmpty()) {
+            return;
+        }
+        if (!ignoreBackoff && backoffCount > 0 && scheduledFlush != null) {
+            // 退避等待中，等待结束后一起发送
+            return;
+        }
+        long startTime = System.nanoTime();
+        long retryAfter = 0;
+        while (!batches.isEmpty()) {
+            Batch batch = batches.get(0);
+            int responseCode;
+            try {
+                responseCode = upload(batch);
+            } catch (IOException e) {
+                responseCode = -1;
+            }
+            if (responseCode >= 200 && responseCode < 300) {
+                long bytes = batch.file.length();
+                removeBatch(batch);
+                synchronized (this) {
+                    uploadedBatches++;
+                    uploadedReports += batch.reportCount;
+                    uploadedBytes += bytes;
+                }
+                backoffCount = 0;
+            } else if (responseCode >= 400 && responseCode < 500 && responseCode != 408 && responseCode != 429) {
+                // 收集服务不接受该批次，重试也不会成功
+                removeBatch(batch);
+                synchronized (this) {
+                    droppedBatches++;
+                    failedAttempts++;
+                }
+            } else {
+                synchronized (this) {
+                    failedAttempts++;
+                }
+                backoffCount++;
+                retryAfter = lastRetryAfter;
+                break;
+            }
+        }
+        synchronized (this) {
+            lastFlushLatency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+        }
+        if (backoffCount > 0) {
+            schedule(Math.max(nextBackoff(), retryAfter));
+        } else if (scheduledFlush != null && queuedReports == 0) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+    }
+
+    /**
+     * 安排一次发送，已有更早的安排时忽略
+     */
+    private void schedule(long delay) {
+        long time = System.currentTimeMillis() + delay;
+        if (scheduledFlush != null) {
+            if (scheduledFlushTime <= time) {
+                return;
+            }
+            scheduledFlush.cancel(false);
+        }
+        scheduledFlushTime = time;
+        scheduledFlush = executor.schedule(flushRunnable, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private long nextBackoff() {
+        int shift = Math.min(backoffCount - 1, 30);
+        long backoff = Math.min(maxBackoff, minBackoff << shift);
+        if (backoff < 0) {
+            backoff = maxBackoff;
+        }
+        // 随机减少最多一半，避免大量设备同时恢复网络后同时重试
+        return backoff - (long) (random.nextDouble() * backoff / 2);
+    }
+
+    /**
+     * 首次使用时打开队列，加载已有的批次，删除未完成的临时文件
+     */
+    private void load() throws IOException {
+        if (batches != null) {
+            return;
+        }
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("cannot create dir: " + dir);
+        }
+        DiagnoseLog queue = new DiagnoseLog(new File(dir, QUEUE_DIR), QUEUE_MAX_FILE_SIZE, QUEUE_MAX_FILES);
+        int queued = queue.readAll().size();
+        List<Batch> batches = new ArrayList<>();
+        File[] files = dir.listFiles();
+        int pending = 0;
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.endsWith(TMP_SUFFIX)) {
+                    file.delete();
+                    continue;
+                }
+                Batch batch = parseBatch(file);
+                if (batch != null) {
+                    batches.add(batch);
+                    pending += batch.reportCount;
+                    nextSeq = Math.max(nextSeq, batch.seq + 1);
+                }
+            }
+        }
+        sortBatches(batches);
+        this.queue = queue;
+        synchronized (this) {
+            this.batches = batches;
+            queuedReports = queued;
+            pendingReports = pending;
+        }
+        trimBatches();
+    }
+
+    /**
+     * 将队列中的结果打包为一个批次文件，然后清空队列
+     */
+    private void seal() throws IOException {
+        List<DiagnoseResultCodec.Record> records = queue.readAll();
+        if (records.isEmpty()) {
+            return;
+        }
+        byte[] data = encodeBatch(records);
+        long seq = nextSeq++;
+        File file = new File(dir, BATCH_PREFIX + seq + "-" + records.size() + BATCH_SUFFIX);
+        File tmpFile = new File(dir, file.getName() + TMP_SUFFIX);
+        FileOutputStream fos = new FileOutputStream(tmpFile);
+        try {
+            fos.write(data);
+            fos.getFD().sync();
+        } finally {
+            fos.close();
+        }
+        if (!tmpFile.renameTo(file)) {
+            tmpFile.delete();
+            throw new IOException("cannot rename " + tmpFile);
+        }
+        queue.clear();
+        synchronized (this) {
+            batches.add(new Batch(file, seq, records.size()));
+            queuedReports = 0;
+            pendingReports += records.size();
+        }
+        trimBatches();
+    }
+
+    private void trimBatches() {
+        while (batches.size() > maxBatches) {
+            removeBatch(batches.get(0));
+            synchronized (this) {
+                droppedBatches++;
+            }
+        }
+    }
+
+    private void removeBatch(Batch batch) {
+        batch.file.delete();
+        synchronized (this) {
+            batches.remove(batch);
+            pendingReports -= batch.reportCount;
+        }
+    }
+
+    /**
+     * @return 响应码
+     */
+    private int upload(Batch batch) throws IOException {
+        byte[] data = readFile(batch.file);
+        lastRetryAfter = 0;
+        HttpURLConnection connection = (HttpURLConnection) collectorUrl.openConnection();
+        try {
+            connection.setConnectTimeout(TIMEOUT);
+            connection.setReadTimeout(TIMEOUT);
+            connection.setDoOutput(true);
+            connection.setUseCaches(false);
+            connection.setRequestMethod("POST");
+            connection.setFixedLengthStreamingMode(data.length);
+            connection.setRequestProperty("Content-Type", "application/octet-stream");
+            connection.setRequestProperty("Content-Encoding", "gzip");
+            connection.setRequestProperty("X-Diagnose-Codec-Version", String.valueOf(DiagnoseResultCodec.VERSION));
+            connection.setRequestProperty("X-Diagnose-Report-Count", String.valueOf(batch.reportCount));
+            synchronized (headers) {
+                for (Map.Entry<String, String> entry : headers.entrySet()) {
+                    connection.setRequestProperty(entry.getKey(), entry.getValue());
+                }
+            }
+            OutputStream os = connection.getOutputStream();
+            try {
+                os.write(data);
+            } finally {
+                os.close();
+            }
+            int responseCode = connection.getResponseCode();
+            String retryAfter = connection.getHeaderField("Retry-After");
+            if (retryAfter != null) {
+                try {
+                    lastRetryAfter = Math.min(maxBackoff, Long.parseLong(retryAfter.trim()) * 1000);
+                } catch (NumberFormatException e) {
+                    // 只支持秒数格式
+                }
+            }
+            drain(responseCode >= 400 ? connection.getErrorStream() : connection.getInputStream());
+            return responseCode;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    static byte[] encodeBatch(List<DiagnoseResultCodec.Record> records) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(bos);
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        for (DiagnoseResultCodec.Record record : records) {
+            int recordSize = DiagnoseResultCodec.encodedSize(record.time, record.results);
+            int frameSize = DiagnoseResultCodec.varintSize(recordSize) + recordSize;
+            if (buffer.capacity() < frameSize) {
+                buffer = ByteBuffer.allocate(Math.max(frameSize, buffer.capacity() * 2));
+            }
+            buffer.clear();
+            DiagnoseResultCodec.writeVarint(buffer, recordSize);
+            DiagnoseResultCodec.encode(record.time, record.results, buffer);
+            gzip.write(buffer.array(), 0, buffer.position());
+        }
+        gzip.close();
+        return bos.toByteArray();
+    }
+
+    private static Batch parseBatch(File file) {
+        String name = file.getName();
+        if (!name.startsWith(BATCH_PREFIX) || !name.endsWith(BATCH_SUFFIX)) {
+            return null;
+        }
+        String[] parts = name.substring(BATCH_PREFIX.length(), name.length() - BATCH_SUFFIX.length()).split("-");
+        if (parts.length != 2) {
+            return null;
+        }
+        try {
+            return new Batch(file, Long.parseLong(parts[0]), Integer.parseInt(parts[1]));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static void sortBatches(List<Batch> batches) {
+        Collections.sort(batches, new Comparator<Batch>() {
+            @Override
+            public int compare(Batch lhs, Batch rhs) {
+                return lhs.seq < rhs.seq ? -1 : (lhs.seq == rhs.seq ? 0 : 1);
+            }
+        });
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        FileInputStream fis = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream((int) file.length());
+            byte[] buffer = new byte[4096];
+            int len;
+            while ((len = fis.read(buffer)) != -1) {
+                bos.write(buffer, 0, len);
+            }
+            return bos.toByteArray();
+        } finally {
+            fis.close();
+        }
+    }
+
+    private static void drain(InputStream is) throws IOException {
+        if (is == null) {
+            return;
+        }
+        try {
+            byte[] buffer = new byte[1024];
+            while (is.read(buffer) != -1) {
+                // 读完响应，连接可以被复用
+            }
+        } finally {
+            is.close();
+        }
+    }
+}
@@ -1,21 +1,50 @@
 package com.amap.loc.diagnose.problem;
 
-import android.animation.ValueAnimator;
+import android.animation.Animator;
+import android.animation.AnimatorListenerAdapter;
+import android.annotation.TargetApi;
 import android.content.Context;
 import android.os.Build;
 import android.os.Handler;
+import android.os.Looper;
+import android.os.MessageQueue;
 import android.util.AttributeSet;
 import android.view.LayoutInflater;
 import android.view.View;
+import android.view.ViewPropertyAnimator;
+import android.view.ViewStub;
 import android.widget.FrameLayout;
 
+import com.amap.loc.diagnose.DiagnoseEngine;
 import com.amap.loc.diagnose.R;
 
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
+/**
+ * 定位异常检测界面，展示检测过程及检测结果，检测本身由{@link DiagnoseEngine}进行
+ */
 public class DiagnoseView extends FrameLayout {
 
+    private static final long RADAR_STATUS_INTERVAL = 1500;
+    /**
+     * 串行检测时每个检测项最少展示的时间
+     */
+    private static final long SERIAL_MIN_DIAGNOSE_DURATION = 2000;
+    /**
+     * "检测中"界面切换到结果界面的动画时长
+     */
+    private static final long RESULT_TRANSITION_DURATION = 500;
+
+    public interface FirstFrameCallback {
+        /**
+         * "检测中"界面第一帧绘制完成后在主线程中回调
+         * @param timeToFirstFrame 从创建DiagnoseView到第一帧绘制完成的时间，单位毫秒
+         */
+        void onFirstFrame(long timeToFirstFrame);
+    }
+
     public interface DiagnoseFinishCallback {
         /**
          * 检查完成后的回调方法，必须在主线程被调用
@@ -24,6 +53,14 @@ public class DiagnoseView extends FrameLayout {
         void onDiagnoseFinish(DiagnoseResultItem diagnoseResultItem);
     }
 
+    public interface DiagnoseProgressCallback {
+        /**
+         * 检测过程中有新的具体检查结果，必须在主线程被调用
+         * @param partialResult 中间结果，见{@link DiagnoseResultItem#partial}
+         */
+        void onDiagnoseProgress(DiagnoseResultItem partialResult);
+    }
+
     public interface Diagnoser {
         /**
          * 某些检测，如定位，因为涉及到GPS检测，可能需要耗时10s以上，为了优化体验，这种检测应该尽早启动，这种检测的启动
@@ -36,10 +73,13 @@ public class DiagnoseView extends FrameLayout {
 
         void prepare(Context context);
         /**
-         * 执行检测操作，当位于该Diagnoser以前的其他Diagnoser调用finishCallback回调后，接下来就会调用
+         * 执行检测操作，串行检测时，当位于该Diagnoser以前的其他Diagnoser调用finishCallback回调后，接下来就会调用
          * 该Diagnoser的diagnose方法，同时使用getIcon和getTitle方法获取本检测项的图标和标题，在检测中
          * 及检测结果界面显示
          *
+         * 并行检测时（见{@link DiagnoseView#setParallel(boolean)}），所有Diagnoser的diagnose方法会在prepare
+         * 全部返回后立即被调用，不再等待其他Diagnoser完成
+         *
          * 有的检测可能属于耗时操作，需要在异步线程里进行检测，并在检测完成后在主线程中回调finishCallback
          *
          * 有的检测可能不耗时，可以直接在主线程中完成
@@ -62,20 +102,106 @@ public class DiagnoseView extends FrameLayout {
         String getTitle();
     }
 
+    /**
+     * 依赖其他检测项结果的检测项，由{@link DiagnoseScheduler}保证在依赖的检测项全部完成后才调用diagnose方法，
+     * 并通过onDependenciesResolved传入依赖项的结果；并行检测时没有依赖关系的检测项仍然并行执行，串行检测时每个
+     * 检测项还依赖它的前一个检测项，因此只能依赖列表中位于它之前的检测项，否则构成循环依赖
+     */
+    public interface DependentDiagnoser extends Diagnoser {
+        /**
+         * 当前检测项依赖的检测项类型，依赖的类型不在本次检测列表中时忽略，不允许循环依赖
+         * @return 依赖的检测项类型
+         */
+        List<Class<? extends Diagnoser>> getDependencies();
+
+        /**
+         * 依赖的检测项全部完成后、diagnose方法调用前，在主线程中回调
+         * @param dependencyResults 依赖的检测项类型及其检测结果
+         */
+        void onDependenciesResolved(Map<Class<? extends Diagnoser>, DiagnoseResultItem> dependencyResults);
+    }
+
+    /**
+     * 检测结果可以缓存的检测项，开启结果缓存时生效，串行和并行检测都适用，见{@link DiagnoseView#setUseResultCache(boolean)}
+     */
+    public interface CacheableDiagnoser extends Diagnoser {
+        /**
+         * 检测结果的有效期，有效期内再次检测时会先展示缓存结果，同时在后台重新检测
+         * @return 有效期，单位毫秒，不大于0时不缓存
+         */
+        long getResultTtl();
+    }
+
+    /**
+     * 可以取消的检测项，检测被取消时（例如检测界面被关闭）在主线程中回调{@link #cancel()}
+     */
+    public interface CancellableDiagnoser extends Diagnoser {
+        /**
+         * 停止正在进行的检测并释放资源，取消后不需要再回调检测结果
+         */
+        void cancel();
+    }
+
+    /**
+     * 可以在完成前逐项给出中间结果的检测项，例如定位检测中GPS需要等待较长时间，wifi和基站的结果可以先展示
+     */
+    public interface StreamingDiagnoser extends Diagnoser {
+        /**
+         * 在diagnose之前在主线程中回调；设置时已有中间结果的，应立即回调最新的中间结果
+         * @param progressCallback 中间结果回调，检测完成后不再使用，仍通过DiagnoseFinishCallback回调最终结果
+         */
+        void setProgressCallback(DiagnoseProgressCallback progressCallback);
+    }
+
+    /**
+     * 可以记录各阶段耗时的检测项，见{@link DiagnoseTrace}
+     */
+    public interface TraceableDiagnoser extends Diagnoser {
+        /**
+         * 在prepare之前在主线程中回调，之后检测过程中的各阶段记录到该trace中
+         * @param trace 耗时记录，不记录时不会回调
+         */
+        void setTrace(DiagnoseTrace trace);
+    }
+
     public interface DiagnoseViewCallback {
         void onBack();
     }
 
     private DiagnoseViewCallback diagnoseViewCallback;
+    private FirstFrameCallback firstFrameCallback;
+
+    /**
+     * 创建时间，用于计算第一帧的耗时
+     */
+    private final long createNanos = System.nanoTime();
+    private long timeToFirstFrame = -1;
 
     private DiagnoseRadarView radarView;
+    /**
+     * 结果界面在第一帧之后的空闲时间预先inflate，或在需要展示时inflate，inflate之前为null
+     */
+    private ViewStub resultStub;
     private DiagnoseResultView resultView;
+    private OnClickListener backListener;
 
-    private List<Diagnoser> diagnosers;
     private List<DiagnoseResultItem> diagnoseResults = new LinkedList<>();
-    private int checkIndex;
-    private long latestCheckTime;
+    private int diagnoserCount;
     private boolean destroyed = false;
+
+    private boolean parallel = false;
+    private boolean useResultCache = false;
+    private boolean streamResults = false;
+    /**
+     * 结果界面是否已经展示，逐项展示结果时在第一个结果到达时展示
+     */
+    private boolean resultShown = false;
+    private DiagnoseLog resultLog;
+    private DiagnoseUploader uploader;
+    private DiagnoseTrace trace;
+    private DiagnoseFrameMetrics frameMetrics;
+    private DiagnoseEngine engine;
+    private int radarIndex;
     private Handler handler = new Handler();
 
     public DiagnoseView(Context context) {
@@ -91,9 +217,9 @@ public class DiagnoseView extends FrameLayout {
     private void init() {
         LayoutInflater.from(getContext()).inflate(R.layout.view_diagnose, this);
         radarView = findViewById(R.id.activity_diagnose_radar);
-        resultView = findViewById(R.id.activity_diagnose_result);
+        resultStub = findViewById(R.id.activity_diagnose_result_stub);
 
-        OnClickListener backListener = new OnClickListener() {
+        backListener = new OnClickListener() {
             @Override
             public void onClick(View v) {
                 if (diagnoseViewCallback != null) {
@@ -102,96 +228,361 @@ public class DiagnoseView extends FrameLayout {
             }
         };
         radarView.findViewById(R.id.view_diagnose_radar_back).setOnClickListener(backListener);
-        resultView.findViewById(R.id.view_diagnose_result_back).setOnClickListener(backListener);
+        radarView.setFirstFrameAction(firstFrameAction);
+    }
+
+    /**
+     * 第一帧绘制完成：记录耗时，之后在主线程空闲时预先inflate结果界面，不影响第一帧和检测的启动
+     */
+    private Runnable firstFrameAction = new Runnable() {
+        @Override
+        public void run() {
+            if (destroyed) {
+                return;
+            }
+            long elapsedNanos = System.nanoTime() - createNanos;
+            timeToFirstFrame = elapsedNanos / 1000000;
+            if (trace != null) {
+                long now = trace.nowNanos();
+                trace.complete(DiagnoseTrace.CATEGORY_UI, "first frame", DiagnoseTrace.CATEGORY_UI,
+                        now - elapsedNanos, now, null);
+            }
+            if (firstFrameCallback != null) {
+                firstFrameCallback.onFirstFrame(timeToFirstFrame);
+            }
+            Looper.myQueue().addIdleHandler(inflateResultIdleHandler);
+        }
+    };
+
+    private MessageQueue.IdleHandler inflateResultIdleHandler = new MessageQueue.IdleHandler() {
+        @Override
+        public boolean queueIdle() {
+            if (!destroyed) {
+                getResultView();
+            }
+            return false;
+        }
+    };
+
+    /**
+     * @return 结果界面，尚未inflate时inflate
+     */
+    private DiagnoseResultView getResultView() {
+        if (resultView == null) {
+            DiagnoseTrace.Span inflateSpan = trace == null ? null
+                    : trace.begin(DiagnoseTrace.CATEGORY_UI, "result inflate");
+            resultView = (DiagnoseResultView) resultStub.inflate();
+            resultStub = null;
+            resultView.findViewById(R.id.view_diagnose_result_back).setOnClickListener(backListener);
+            resultView.setFrameMetrics(frameMetrics);
+            if (trace != null) {
+                trace.end(inflateSpan);
+            }
+        }
+        return resultView;
     }
 
     public void startDiagnose(List<Diagnoser> diagnosers) {
-        if (diagnosers == null || diagnosers.isEmpty()) {
+        if (diagnosers == null || diagnosers.isEmpty() || engine != null) {
             return;
         }
-        this.diagnosers = diagnosers;
-        for (Diagnoser diagnoser : diagnosers) {
-            diagnoser.prepare(getContext());
+        diagnoserCount = diagnosers.size();
+        engine = new DiagnoseEngine(getContext());
+        engine.setParallel(parallel);
+        engine.setUseResultCache(useResultCache);
+        engine.setResultLog(resultLog);
+        engine.setUploader(uploader);
+        engine.setTrace(trace);
+        if (!parallel) {
+            engine.setMinDiagnoseDuration(SERIAL_MIN_DIAGNOSE_DURATION);
         }
         radarView.initStatus(diagnosers);
-        startDiagnose();
+        if (frameMetrics != null) {
+            frameMetrics.setTrace(trace);
+            frameMetrics.setPhase(DiagnoseFrameMetrics.PHASE_RADAR);
+        }
+        if (streamResults) {
+            // 尚未完成的检测项先以"检测中"占位
+            for (Diagnoser diagnoser : diagnosers) {
+                DiagnoseResultItem placeholder = DiagnoseResultItem.checkOk();
+                placeholder.partial = true;
+                placeholder.icon = diagnoser.getIcon();
+                placeholder.title = diagnoser.getTitle();
+                diagnoseResults.add(placeholder);
+            }
+        }
+        if (parallel) {
+            radarIndex = 0;
+            onRadarStatusChange(radarIndex);
+            handler.postDelayed(radarRunnable, RADAR_STATUS_INTERVAL);
+        }
+        engine.start(diagnosers, engineCallback);
     }
 
     public void setDiagnoseViewCallback(DiagnoseViewCallback diagnoseViewCallback) {
         this.diagnoseViewCallback = diagnoseViewCallback;
     }
 
-    private void startDiagnose() {
-        check();
+    /**
+     * 设置第一帧回调，用于统计检测界面的启动耗时，第一帧已经绘制时不会再回调，见{@link #getTimeToFirstFrame()}
+     * @param firstFrameCallback 第一帧回调，为null时不回调
+     */
+    public void setFirstFrameCallback(FirstFrameCallback firstFrameCallback) {
+        this.firstFrameCallback = firstFrameCallback;
+    }
+
+    /**
+     * 从创建DiagnoseView到"检测中"界面第一帧绘制完成的时间，设置了耗时记录时同时记录为"first frame"
+     * @return 单位毫秒，第一帧尚未绘制时为-1
+     */
+    public long getTimeToFirstFrame() {
+        return timeToFirstFrame;
+    }
+
+    /**
+     * 设置是否并行检测，必须在{@link #startDiagnose(List)}之前调用
+     *
+     * 默认为串行检测，每个检测项依次执行，且每项至少展示2s；并行检测时，所有检测项在prepare完成后同时开始，
+     * 检测结果按完成顺序收集，总耗时取决于最慢的检测项，"检测中"界面的状态轮播与检测完成顺序无关；检测项之间的
+     * 依赖关系见{@link DependentDiagnoser}
+     *
+     * @param parallel 是否并行检测
+     */
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    /**
+     * 设置是否使用检测结果缓存，必须在{@link #startDiagnose(List)}之前调用
+     *
+     * 使用缓存时，实现了{@link CacheableDiagnoser}的检测项若有未过期的结果，会直接展示该结果，同时在后台重新检测，
+     * 新结果会刷新结果界面
+     *
+     * @param useResultCache 是否使用检测结果缓存
+     */
+    public void setUseResultCache(boolean useResultCache) {
+        this.useResultCache = useResultCache;
+    }
+
+    /**
+     * 设置是否逐项展示检测结果，必须在{@link #startDiagnose(List)}之前调用
+     *
+     * 默认在所有检测项完成后才展示结果界面；逐项展示时，第一个检测项完成（或{@link StreamingDiagnoser}给出中间结果）
+     * 即切换到结果界面，尚未完成的检测项显示为"检测中"，之后每有新的结果就更新对应的条目。适合与并行检测一起使用，
+     * 避免等待最慢的检测项（如GPS定位）
+     *
+     * @param streamResults 是否逐项展示检测结果
+     */
+    public void setStreamResults(boolean streamResults) {
+        this.streamResults = streamResults;
+    }
+
+    /**
+     * 设置检测结果日志，必须在{@link #startDiagnose(List)}之前调用，见{@link DiagnoseEngine#setResultLog(DiagnoseLog)}
+     * @param resultLog 检测结果日志，为null时不记录
+     */
+    public void setResultLog(DiagnoseLog resultLog) {
+        this.resultLog = resultLog;
+    }
+
+    /**
+     * 设置检测结果上报，必须在{@link #startDiagnose(List)}之前调用，见{@link DiagnoseEngine#setUploader(DiagnoseUploader)}
+     * @param uploader 检测结果上报，为null时不上报
+     */
+    public void setUploader(DiagnoseUploader uploader) {
+        this.uploader = uploader;
+    }
+
+    /**
+     * 设置耗时记录，必须在{@link #startDiagnose(List)}之前调用，除检测过程外还会记录界面状态切换和结果展示动画，
+     * 见{@link DiagnoseEngine#setTrace(DiagnoseTrace)}
+     * @param trace 耗时记录，为null时不记录
+     */
+    public void setTrace(DiagnoseTrace trace) {
+        this.trace = trace;
+    }
+
+    /**
+     * 设置帧耗时统计，必须在{@link #startDiagnose(List)}之前调用，记录"检测中"界面、结果展示动画及逐项展示结果期间的
+     * 掉帧和结果列表项的慢绑定，设置了耗时记录时同时记录到trace中，见{@link DiagnoseFrameMetrics}
+     * @param frameMetrics 帧耗时统计，为null时不记录
+     */
+    public void setFrameMetrics(DiagnoseFrameMetrics frameMetrics) {
+        this.frameMetrics = frameMetrics;
+        if (resultView != null) {
+            resultView.setFrameMetrics(frameMetrics);
+        }
+    }
+
+    /**
+     * 并行检测时，"检测中"界面按固定间隔轮流展示尚未完成的检测项
+     */
+    private int nextPendingIndex(int from) {
+        for (int i = 1; i <= diagnoserCount; i++) {
+            int index = (from + i) % diagnoserCount;
+            if (!engine.isFinished(index)) {
+                return index;
+            }
+        }
+        return from;
+    }
+
+    private void onRadarStatusChange(int index) {
+        radarView.onStatusChange(index);
+        if (trace != null) {
+            trace.instant(DiagnoseTrace.CATEGORY_UI, "radar " + index, DiagnoseTrace.CATEGORY_UI);
+        }
     }
 
-    private void check() {
-        if (destroyed) {
+    /**
+     * 逐项展示时，用新的结果替换对应位置的条目，第一次替换时切换到结果界面
+     */
+    private void updateStreamResult(int index, DiagnoseResultItem diagnoseResultItem) {
+        if (destroyed || !streamResults) {
             return;
         }
-        if (checkIndex >= diagnosers.size()) {
-            onCheckFinish();
+        diagnoseResults.set(index, diagnoseResultItem);
+        if (resultShown) {
+            resultView.setData(diagnoseResults);
             return;
         }
-        latestCheckTime = System.currentTimeMillis();
-        radarView.onStatusChange(checkIndex);
-        Diagnoser current = diagnosers.get(checkIndex);
-        current.diagnose(getContext(), diagnoseFinishCallback);
+        handler.removeCallbacks(radarRunnable);
+        onCheckFinish();
     }
 
     private void onCheckFinish() {
-        resultView.setVisibility(View.VISIBLE);
+        resultShown = true;
+        DiagnoseTrace.Span bindSpan = trace == null ? null
+                : trace.begin(DiagnoseTrace.CATEGORY_UI, "result bind");
+        getResultView().setVisibility(View.VISIBLE);
         resultView.setData(diagnoseResults);
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
-            resultView.setTranslationY(radarView.getHeight());
-            resultView.setAlpha(0f);
-            ValueAnimator va = ValueAnimator.ofFloat(0f, 1f);
-            va.setDuration(500);
-            va.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
-                @Override
-                public void onAnimationUpdate(ValueAnimator animation) {
-                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
-                        float curr = (float) animation.getAnimatedValue();
-                        float offset = radarView.getHeight() * curr;
-                        radarView.setTranslationY(-offset);
-                        radarView.setAlpha(1f - curr);
-                        resultView.setTranslationY(radarView.getHeight() - offset);
-                        resultView.setAlpha(curr);
-                    }
-                }
-            });
-            va.start();
+        if (trace != null) {
+            trace.end(bindSpan);
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB_MR1) {
+            if (frameMetrics != null) {
+                frameMetrics.setPhase(DiagnoseFrameMetrics.PHASE_TRANSITION);
+            }
+            startResultTransition();
+        } else {
+            radarView.setVisibility(View.GONE);
+            if (frameMetrics != null) {
+                frameMetrics.setPhase(DiagnoseFrameMetrics.PHASE_RESULT);
+            }
         }
     }
 
+    /**
+     * "检测中"界面上移淡出，结果界面跟随上移淡入；使用属性动画，API 21及以上在RenderThread中执行，不需要每帧回调，
+     * 结束后隐藏"检测中"界面，停止雷达绘制
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB_MR1)
+    private void startResultTransition() {
+        int height = radarView.getHeight();
+        resultView.setTranslationY(height);
+        resultView.setAlpha(0f);
+        final DiagnoseTrace.Span transitionSpan = trace == null ? null
+                : trace.begin(DiagnoseTrace.CATEGORY_UI, "result transition");
+        ViewPropertyAnimator radarAnimator = radarView.animate()
+                .translationY(-height)
+                .alpha(0f)
+                .setDuration(RESULT_TRANSITION_DURATION);
+        ViewPropertyAnimator resultAnimator = resultView.animate()
+                .translationY(0f)
+                .alpha(1f)
+                .setDuration(RESULT_TRANSITION_DURATION);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            radarAnimator.withLayer();
+            resultAnimator.withLayer();
+        }
+        radarAnimator.setListener(new AnimatorListenerAdapter() {
+            @Override
+            public void onAnimationEnd(Animator animation) {
+                radarView.setVisibility(View.GONE);
+                if (trace != null) {
+                    trace.end(transitionSpan);
+                }
+                if (frameMetrics != null && !destroyed) {
+                    frameMetrics.setPhase(DiagnoseFrameMetrics.PHASE_RESULT);
+                }
+            }
+        });
+    }
+
     @Override
     protected void onDetachedFromWindow() {
         super.onDetachedFromWindow();
         destroyed = true;
+        handler.removeCallbacksAndMessages(null);
+        Looper.myQueue().removeIdleHandler(inflateResultIdleHandler);
+        if (frameMetrics != null) {
+            frameMetrics.stop();
+        }
+        if (engine != null) {
+            engine.cancel();
+        }
     }
 
+    private DiagnoseEngine.Callback engineCallback = new DiagnoseEngine.Callback() {
+        @Override
+        public void onDiagnoseStart(int index) {
+            if (!parallel && !destroyed) {
+                onRadarStatusChange(index);
+            }
+        }
 
-    private DiagnoseFinishCallback diagnoseFinishCallback = new DiagnoseFinishCallback() {
         @Override
-        public void onDiagnoseFinish(DiagnoseResultItem diagnoseResultItem) {
+        public void onDiagnoseProgress(int index, DiagnoseResultItem partialResult) {
+            updateStreamResult(index, partialResult);
+        }
+
+        @Override
+        public void onDiagnoseFinish(int index, DiagnoseResultItem diagnoseResultItem) {
+            updateStreamResult(index, diagnoseResultItem);
+        }
+
+        @Override
+        public void onDiagnoseRefresh(int index, DiagnoseResultItem diagnoseResultItem) {
+            if (destroyed || !resultShown) {
+                // 还没有展示结果，所有检测项完成时会使用最新的结果
+                return;
+            }
+            diagnoseResults.set(index, diagnoseResultItem);
+            resultView.setData(diagnoseResults);
+        }
+
+        @Override
+        public void onAllDiagnoseFinish(List<DiagnoseResultItem> results) {
             if (destroyed) {
                 return;
             }
-            Diagnoser d = diagnosers.get(checkIndex);
-            diagnoseResultItem.icon = d.getIcon();
-            diagnoseResultItem.title = d.getTitle();
-            diagnoseResults.add(diagnoseResultItem);
-            long curr = System.currentTimeMillis();
-            long target = latestCheckTime + 2000;   // 最快2s以后再进行下一项检查
-            checkIndex++;
-            handler.postDelayed(runCheckRunnable, Math.max(0, target - curr));  // 如果已经超过1s，直接进行下一项检查
+            handler.removeCallbacks(radarRunnable);
+            if (frameMetrics != null) {
+                frameMetrics.onDiagnoseFinished();
+            }
+            if (resultShown) {
+                // 逐项展示时结果界面已经展示，各项结果均已更新
+                resultView.setData(diagnoseResults);
+                return;
+            }
+            diagnoseResults.clear();
+            diagnoseResults.addAll(results);
+            onCheckFinish();
         }
     };
 
-    private Runnable runCheckRunnable = new Runnable() {
+    private Runnable radarRunnable = new Runnable() {
         @Override
         public void run() {
-            check();
+            if (destroyed) {
+                return;
+            }
+            int next = nextPendingIndex(radarIndex);
+            if (next != radarIndex) {
+                radarIndex = next;
+                onRadarStatusChange(radarIndex);
+            }
+            handler.postDelayed(this, RADAR_STATUS_INTERVAL);
         }
     };
 }
@@ -0,0 +1,63 @@
+package com.amap.loc.diagnose.problem;
+
+/**
+ * GPS检测提前结束的判定条件
+ *
+ * 卫星状态回调中，参与定位且信号强度（C/N0）不低于{@link #minCn0DbHz}的卫星数达到{@link #minUsedSatellites}
+ * 时，认为GPS信号正常，不再等待第一次定位回调；GPS开始检测{@link #noSatelliteTimeout}毫秒后仍未搜索到任何卫星时，
+ * 认为当前无GPS信号，不再等待定位超时
+ */
+public class GnssFixCriteria {
+
+    public static final GnssFixCriteria DEFAULT = new GnssFixCriteria(4, 20f, 8 * 1000);
+
+    /**
+     * 参与定位的卫星数下限
+     */
+    public final int minUsedSatellites;
+    /**
+     * 卫星信号强度下限，单位dB-Hz
+     */
+    public final float minCn0DbHz;
+    /**
+     * 搜星时间上限，单位毫秒
+     */
+    public final long noSatelliteTimeout;
+
+    public GnssFixCriteria(int minUsedSatellites, float minCn0DbHz, long noSatelliteTimeout) {
+        if (minUsedSatellites <= 0 || noSatelliteTimeout <= 0) {
+            throw new IllegalArgumentException("minUsedSatellites and noSatelliteTimeout must be positive");
+        }
+        this.minUsedSatellites = minUsedSatellites;
+        this.minCn0DbHz = minCn0DbHz;
+        this.noSatelliteTimeout = noSatelliteTimeout;
+    }
+
+    /**
+     * 单颗卫星是否满足条件
+     * @param usedInFix 是否参与定位
+     * @param cn0DbHz 信号强度
+     * @return 是否满足条件
+     */
+    public boolean isQualified(boolean usedInFix, float cn0DbHz) {
+        return usedInFix && cn0DbHz >= minCn0DbHz;
+    }
+
+    /**
+     * 满足条件的卫星数是否足够
+     * @param qualifiedSatellites 满足{@link #isQualified(boolean, float)}的卫星数
+     * @return 是否可以提前判定GPS正常
+     */
+    public boolean isSatisfied(int qualifiedSatellites) {
+        return qualifiedSatellites >= minUsedSatellites;
+    }
+
+    @Override
+    public String toString() {
+        return "GnssFixCriteria{" +
+                "minUsedSatellites=" + minUsedSatellites +
+                ", minCn0DbHz=" + minCn0DbHz +
+                ", noSatelliteTimeout=" + noSatelliteTimeout +
+                '}';
+    }
+}
@@ -0,0 +1,597 @@
+package com.amap.loc.diagnose.problem;
+
+import com.amap.loc.diagnose.platform.CellSource;
+import com.amap.loc.diagnose.platform.CellStatus;
+import com.amap.loc.diagnose.platform.DiagnoseClock;
+import com.amap.loc.diagnose.platform.DiagnosePlatform;
+import com.amap.loc.diagnose.platform.LocationSource;
+import com.amap.loc.diagnose.platform.SatelliteStatus;
+import com.amap.loc.diagnose.platform.WifiSource;
+
+import java.util.LinkedList;
+
+/**
+ * 定位检测流程：GPS、wifi、基站三项检查同时进行，全部完成后汇总结果
+ *
+ * 只通过{@link DiagnosePlatform}访问系统，不依赖Android，可以在JVM中用benchmark模块中的FakePlatform
+ * 运行。所有方法和回调都在platform的时钟所在线程中进行，每个对象只能检测一次。异常情况的整理见{@link DefaultLocationDiagnoser}
+ */
+public class LocationCheck {
+
+    public interface Listener {
+        /**
+         * GPS、wifi、基站中的某一项检查已经确定，全部确定后只回调{@link #onCheckFinish(DiagnoseResultItem)}
+         * @param partialResult 中间结果，子项为已经确定的检查，按GPS、wifi、基站的顺序排列
+         */
+        void onCheckProgress(DiagnoseResultItem partialResult);
+
+        /**
+         * 检测完成
+         * @param result 检测结果，子项依次为GPS、wifi、基站
+         */
+        void onCheckFinish(DiagnoseResultItem result);
+    }
+
+    /**
+     * 默认的GPS定位超时时间
+     */
+    public static final long DEFAULT_GPS_TIMEOUT = 20 * 1000;
+    /**
+     * wifi扫描耗时上限，正常情况下收到扫描结果广播即结束等待
+     */
+    private static final long WIFI_SCAN_TIMEOUT = 3 * 1000;
+
+    private static final String TRACK_GPS = "location gps";
+    private static final String TRACK_WIFI = "location wifi";
+    private static final String TRACK_CELL = "location cell";
+
+    private GnssFixCriteria gnssFixCriteria = GnssFixCriteria.DEFAULT;
+    private long gpsTimeout = DEFAULT_GPS_TIMEOUT;
+    /**
+     * 是否主动发起wifi扫描，为false时只使用系统缓存的扫描结果
+     */
+    private boolean activeWifiScan = true;
+
+    private DiagnosePlatform platform;
+    private DiagnoseClock clock;
+    private Listener listener;
+    private DiagnoseTrace trace;
+    private DiagnoseTrace.Span gpsSpan;
+    private DiagnoseTrace.Span wifiSpan;
+    private DiagnoseTrace.Span cellSpan;
+    /**
+     * 已回调的中间结果包含的检查数，同一结果不重复回调
+     */
+    private int reportedCount = 0;
+
+    private DiagnoseResultItem result;
+    private DiagnoseResultItem.SubItem gpsItem;
+    private DiagnoseResultItem.SubItem wifiItem;
+    private DiagnoseResultItem.SubItem apItem;
+
+    private boolean gpsStarted = false;
+    private final SatelliteStatistics satelliteStatistics = new SatelliteStatistics();
+    private int satellitesNum;
+    /**
+     * 搜索到的卫星数，不论是否参与定位
+     */
+    private int visibleSatellitesNum;
+    /**
+     * 参与定位的卫星的平均信号强度，单位dB-Hz
+     */
+    private double meanCn0;
+    private long gpsStartTime;
+    /**
+     * 首次定位耗时，未定位时为-1
+     */
+    private long gpsTtff = -1;
+
+    private boolean wifiScanning = false;
+    private long wifiScanStartTime;
+    private long wifiScanDuration = -1;
+    /**
+     * wifi扫描已结束但基站检查还未完成，等待基站检查结果后再判断wifi
+     */
+    private boolean wifiCheckPending = false;
+    /**
+     * 热点数，未获取到时为-1
+     */
+    private int wifiApCount = -1;
+    private final CellAnalysis cellAnalysis = new CellAnalysis();
+    /**
+     * 是否获取到了基站信息，获取到时分析结果见cellAnalysis
+     */
+    private boolean cellAnalyzed = false;
+    /**
+     * sim卡异常时无法获取基站信息的原始原因，没有时为DiagnoseCode.UNKNOWN
+     */
+    private int apFailCause = DiagnoseCode.UNKNOWN;
+
+    private final Runnable gpsTimeoutTask = new Runnable() {
+        @Override
+        public void run() {
+            onGpsResult(DiagnoseResultItem.CheckResult.Warning, DiagnoseCode.GPS_TIMEOUT);
+        }
+    };
+
+    private final Runnable gpsNoSatelliteTask = new Runnable() {
+        @Override
+        public void run() {
+            if (visibleSatellitesNum == 0) {
+                onGpsResult(DiagnoseResultItem.CheckResult.Warning, DiagnoseCode.GPS_NO_SATELLITE);
+            }
+        }
+    };
+
+    private final Runnable gpsOkTask = new Runnable() {
+        @Override
+        public void run() {
+            onGpsResult(DiagnoseResultItem.CheckResult.Ok, DiagnoseCode.GPS_OK);
+        }
+    };
+
+    private final Runnable gpsDisabledTask = new Runnable() {
+        @Override
+        public void run() {
+            onGpsResult(DiagnoseResultItem.CheckResult.Error, DiagnoseCode.GPS_DISABLED);
+        }
+    };
+
+    private final Runnable wifiScanTimeoutTask = new Runnable() {
+        @Override
+        public void run() {
+            onWifiScanFinish();
+        }
+    };
+
+    private final Runnable finishTask = new Runnable() {
+        @Override
+        public void run() {
+            clean();
+            Listener l = listener;
+            listener = null;
+            if (l != null) {
+                l.onCheckFinish(result);
+            }
+        }
+    };
+
+    private final LocationSource.Listener locationListener = new LocationSource.Listener() {
+        @Override
+        public void onLocationChanged() {
+            clock.removeCallbacks(gpsTimeoutTask);
+            if (gpsTtff < 0) {
+                gpsTtff = clock.elapsedRealtime() - gpsStartTime;
+                if (trace != null && gpsSpan != null) {
+                    trace.complete(DiagnoseTrace.CATEGORY_LOCATION, "first fix", TRACK_GPS,
+                            gpsSpan.startNanos, trace.nowNanos(), null);
+                }
+            }
+            clock.postDelayed(gpsOkTask, 0);
+        }
+
+        @Override
+        public void onSatelliteStatus(SatelliteStatus status) {
+            satelliteStatistics.add(status);
+            int count = status.getCount();
+            int numOfSatellites = 0;
+            int numOfQualified = 0;
+            float totalCn0 = 0;
+            for (int i = 0; i < count; i++) {
+                boolean usedInFix = status.usedInFix(i);
+                float cn0 = status.getCn0DbHz(i);
+                if (usedInFix) {
+                    numOfSatellites++;
+                    totalCn0 += cn0;
+                }
+                if (gnssFixCriteria.isQualified(usedInFix, cn0)) {
+                    numOfQualified++;
+                }
+            }
+            LocationCheck.this.onSatelliteStatus(count, numOfSatellites, numOfQualified, totalCn0);
+        }
+
+        @Override
+        public void onGpsStopped() {
+            satellitesNum = 0;
+        }
+
+        @Override
+        public void onProviderDisabled() {
+            clock.removeCallbacks(gpsTimeoutTask);
+            clock.postDelayed(gpsDisabledTask, 0);
+        }
+    };
+
+    private final WifiSource.Listener wifiListener = new WifiSource.Listener() {
+        @Override
+        public void onScanResults() {
+            onWifiScanFinish();
+        }
+
+        @Override
+        public void onWifiDisabled() {
+            if (trace != null) {
+                trace.end(wifiSpan, "wifi disabled");
+            }
+            clock.removeCallbacks(wifiScanTimeoutTask);
+            stopWifiScan();
+            onWifiResult(false, DiagnoseCode.WIFI_DISABLED);
+        }
+    };
+
+    private final CellSource.Callback cellCallback = new CellSource.Callback() {
+        @Override
+        public void onCellInfo(CellStatus status) {
+            if (platform == null) {
+                // 已取消
+                return;
+            }
+            if (trace != null) {
+                trace.end(cellSpan, status == null ? "-1" : String.valueOf(status.getCount()));
+            }
+            if (status == null) {
+                onApFail(DiagnoseCode.CELL_SYSTEM_ERROR);
+                return;
+            }
+            cellAnalysis.analyze(status);
+            int code = cellAnalysis.getCode();
+            if (code == DiagnoseCode.CELL_NOT_FOUND) {
+                onApFail(code);
+                return;
+            }
+            cellAnalyzed = true;
+            // 有基站但服务小区缺失、信息过期或信号弱时，基站定位仍可用但精度较差
+            onApResult(code == DiagnoseCode.CELL_OK ? DiagnoseResultItem.CheckResult.Ok
+                    : DiagnoseResultItem.CheckResult.Warning, code);
+        }
+    };
+
+    /**
+     * 设置GPS检测提前结束的条件，必须在{@link #start(DiagnosePlatform, Listener)}之前调用
+     * @param gnssFixCriteria GPS检测提前结束的条件，不能为null
+     */
+    public void setGnssFixCriteria(GnssFixCriteria gnssFixCriteria) {
+        if (gnssFixCriteria == null) {
+            throw new IllegalArgumentException("gnssFixCriteria must not be null");
+        }
+        this.gnssFixCriteria = gnssFixCriteria;
+    }
+
+    /**
+     * 设置GPS定位超时时间，必须在{@link #start(DiagnosePlatform, Listener)}之前调用
+     * @param gpsTimeout 超时时间，单位毫秒，默认为20秒
+     */
+    public void setGpsTimeout(long gpsTimeout) {
+        if (gpsTimeout <= 0) {
+            throw new IllegalArgumentException("gpsTimeout must be positive");
+        }
+        this.gpsTimeout = gpsTimeout;
+    }
+
+    /**
+     * 设置是否主动发起wifi扫描，必须在{@link #start(DiagnosePlatform, Listener)}之前调用
+     * @param activeWifiScan 是否主动扫描，默认为true
+     */
+    public void setActiveWifiScan(boolean activeWifiScan) {
+        this.activeWifiScan = activeWifiScan;
+    }
+
+    /**
+     * 设置耗时记录，必须在{@link #start(DiagnosePlatform, Listener)}之前调用；GPS（含首次定位）、wifi扫描、基站查询
+     * 分别记录在各自的轨道上
+     * @param trace 耗时记录，为null时不记录
+     */
+    public void setTrace(DiagnoseTrace trace) {
+        this.trace = trace;
+    }
+
+    /**
+     * @return GPS检测期间的卫星统计，在时钟所在线程中读取；GPS检测结束后不再更新
+     */
+    public SatelliteStatistics getSatelliteStatistics() {
+        return satelliteStatistics;
+    }
+
+    /**
+     * @return 基站信息分析结果，在时钟所在线程中读取；未获取到基站信息时各项统计为0
+     */
+    public CellAnalysis getCellAnalysis() {
+        return cellAnalysis;
+    }
+
+    /**
+     * 开始检测，只能调用一次
+     * @param listener 检测完成的回调，在时钟所在线程中异步回调
+     */
+    public void start(DiagnosePlatform platform, Listener listener) {
+        if (this.platform != null || result != null) {
+            throw new IllegalStateException("already started");
+        }
+        this.platform = platform;
+        this.clock = platform.clock;
+        this.listener = listener;
+
+        if (!platform.location.hasLocationPermission()) {
+            onGpsResult(DiagnoseResultItem.CheckResult.Error, DiagnoseCode.GPS_NO_PERMISSION);
+            onApResult(false, DiagnoseCode.CELL_NO_PERMISSION);
+            onWifiResult(false, DiagnoseCode.WIFI_NO_PERMISSION);
+            return;
+        }
+
+        // gps
+        gpsStartTime = clock.elapsedRealtime();
+        if (trace != null) {
+            gpsSpan = trace.begin(DiagnoseTrace.CATEGORY_LOCATION, "gps", TRACK_GPS);
+        }
+        if (platform.location.start(locationListener)) {
+            gpsStarted = true;
+            clock.postDelayed(gpsTimeoutTask, gpsTimeout);
+            clock.postDelayed(gpsNoSatelliteTask, gnssFixCriteria.noSatelliteTimeout);
+        } else {
+            onGpsResult(DiagnoseResultItem.CheckResult.Error, DiagnoseCode.GPS_SYSTEM_ERROR);
+        }
+
+        // ap
+        if (platform.connectivity.isAirplaneModeOn()) {
+            onApResult(false, DiagnoseCode.CELL_AIRPLANE_MODE);
+        } else if (platform.cell.isAvailable()) {
+            if (trace != null) {
+                cellSpan = trace.begin(DiagnoseTrace.CATEGORY_LOCATION, "cell query", TRACK_CELL);
+            }
+            platform.cell.requestCellInfo(cellCallback);
+        } else {
+            onApResult(false, DiagnoseCode.CELL_SYSTEM_ERROR);
+        }
+
+        // wifi
+        // wifi检查依赖基站检查结果，因为有个逻辑是"如果没有基站且仅有1个wifi热点，就不定位"，需要在只有1个
+        // wifi热点时，结合基站检查结果来决定wifi热点是否"过少"；wifi扫描和基站检查同时进行，若扫描先结束，
+        // 会等到基站检查完成后再判断wifi，见checkWifiScanResult
+        switch (platform.wifi.getState()) {
+            case WifiSource.STATE_UNAVAILABLE:
+                onWifiResult(false, DiagnoseCode.WIFI_SYSTEM_ERROR);
+                return;
+            case WifiSource.STATE_DISABLED:
+                onWifiResult(false, DiagnoseCode.WIFI_DISABLED);
+                return;
+            default:
+                break;
+        }
+        if (!activeWifiScan) {
+            checkWifiScanResult();
+            return;
+        }
+        wifiScanStartTime = clock.elapsedRealtime();
+        if (trace != null) {
+            wifiSpan = trace.begin(DiagnoseTrace.CATEGORY_LOCATION, "wifi scan", TRACK_WIFI);
+        }
+        if (platform.wifi.startScan(wifiListener)) {
+            wifiScanning = true;
+            // 收到扫描结果后立即检查wifi热点，超时时间只作为上限，超时后使用已有的热点信息
+            clock.postDelayed(wifiScanTimeoutTask, WIFI_SCAN_TIMEOUT);
+        } else {
+            // 扫描被系统限制或失败，不会再有扫描结果，直接使用系统缓存的热点信息
+            onWifiScanFinish();
+        }
+    }
+
+    /**
+     * 取消检测，取消后不会再回调
+     */
+    public void cancel() {
+        listener = null;
+        if (clock != null) {
+            clock.removeCallbacks(gpsOkTask);
+            clock.removeCallbacks(gpsDisabledTask);
+            clock.removeCallbacks(wifiScanTimeoutTask);
+            clock.removeCallbacks(finishTask);
+        }
+        clean();
+        if (trace != null) {
+            trace.end(gpsSpan, "cancelled");
+            trace.end(wifiSpan, "cancelled");
+            trace.end(cellSpan, "cancelled");
+        }
+        platform = null;
+    }
+
+    /**
+     * wifi扫描结束（收到扫描结果、扫描失败或超时），只处理第一次
+     */
+    private void onWifiScanFinish() {
+        if (wifiScanDuration >= 0) {
+            return;
+        }
+        wifiScanDuration = clock.elapsedRealtime() - wifiScanStartTime;
+        if (trace != null) {
+            trace.end(wifiSpan, wifiScanning ? null : "not started");
+        }
+        clock.removeCallbacks(wifiScanTimeoutTask);
+        stopWifiScan();
+        checkWifiScanResult();
+    }
+
+    private void stopWifiScan() {
+        if (wifiScanning) {
+            wifiScanning = false;
+            platform.wifi.stopScan();
+        }
+    }
+
+    private void checkWifiScanResult() {
+        int count = platform.wifi.getScanResultCount();
+        if (count < 0) {
+            onWifiResult(false, DiagnoseCode.WIFI_SYSTEM_ERROR);
+            return;
+        }
+        wifiApCount = count;
+        if (count == 0) {
+            onWifiResult(false, DiagnoseCode.WIFI_NO_AP);
+        } else if (count > 1) {
+            onWifiResult(true, DiagnoseCode.WIFI_OK);
+        } else if (apItem == null) {
+            // 仅有1个热点时需要结合基站检查结果，基站检查完成后再判断
+            wifiCheckPending = true;
+        } else if (apItem.checkResult == DiagnoseResultItem.CheckResult.Error) {
+            onWifiResult(false, DiagnoseCode.WIFI_TOO_FEW_AP);
+        } else {
+            onWifiResult(true, DiagnoseCode.WIFI_OK);
+        }
+    }
+
+    private void clean() {
+        stopGps();
+        if (platform != null) {
+            stopWifiScan();
+        }
+    }
+
+    private void stopGps() {
+        if (gpsStarted) {
+            gpsStarted = false;
+            platform.location.stop();
+        }
+        if (clock != null) {
+            clock.removeCallbacks(gpsTimeoutTask);
+            clock.removeCallbacks(gpsNoSatelliteTask);
+        }
+    }
+
+    /**
+     * 卫星状态更新，满足{@link GnssFixCriteria}时不等待定位回调，直接判定GPS正常
+     * @param totalCn0 参与定位的卫星的信号强度之和
+     */
+    private void onSatelliteStatus(int visible, int usedInFix, int qualified, float totalCn0) {
+        satellitesNum = usedInFix;
+        meanCn0 = usedInFix > 0 ? totalCn0 / usedInFix : 0;
+        visibleSatellitesNum = visible;
+        if (visible > 0) {
+            clock.removeCallbacks(gpsNoSatelliteTask);
+        }
+        if (gnssFixCriteria.isSatisfied(qualified)) {
+            clock.removeCallbacks(gpsTimeoutTask);
+            onGpsResult(DiagnoseResultItem.CheckResult.Ok, DiagnoseCode.GPS_SIGNAL_OK);
+        }
+    }
+
+    /**
+     * 有新的检查结果，检查是否所有检查都已经完成，如果完成就出结果，否则回调中间结果后继续等待
+     */
+    private void checkResult() {
+        if (result != null) {
+            return;
+        }
+        DiagnoseResultItem item = new DiagnoseResultItem();
+        item.subItems = new LinkedList<>();
+        if (gpsItem != null) {
+            item.subItems.add(gpsItem);
+        }
+        if (wifiItem != null) {
+            item.subItems.add(wifiItem);
+        }
+        if (apItem != null) {
+            item.subItems.add(apItem);
+        }
+        item.checkResult = DiagnoseResultItem.CheckResult.Ok;
+        item.code = DiagnoseCode.LOCATION_OK;
+        for (DiagnoseResultItem.SubItem subItem : item.subItems) {
+            if (subItem.checkResult == DiagnoseResultItem.CheckResult.Error) {
+                item.checkResult = DiagnoseResultItem.CheckResult.Error;
+                item.code = DiagnoseCode.LOCATION_ERROR;
+                item.errorHint = "可能无法定位";
+                break;
+            } else if (subItem.checkResult == DiagnoseResultItem.CheckResult.Warning) {
+                item.checkResult = DiagnoseResultItem.CheckResult.Warning;
+                item.code = DiagnoseCode.LOCATION_WARNING;
+                item.errorHint = "警告";
+            }
+        }
+        if (item.subItems.size() < 3) {
+            if (item.subItems.size() <= reportedCount) {
+                return;
+            }
+            reportedCount = item.subItems.size();
+            item.partial = true;
+            if (listener != null) {
+                listener.onCheckProgress(item);
+            }
+            return;
+        }
+        result = item;
+        clock.postDelayed(finishTask, 0);
+    }
+
+    private void onGpsResult(DiagnoseResultItem.CheckResult checkResult, int code) {
+        if (gpsItem != null) {
+            return;
+        }
+        stopGps();
+        if (trace != null) {
+            trace.end(gpsSpan, String.valueOf(code));
+        }
+        gpsItem = new DiagnoseResultItem.SubItem(checkResult, code, null);
+        gpsItem.metrics = new DiagnoseMetrics()
+                .put(DiagnoseMetrics.GPS_SATELLITES, satellitesNum)
+                .put(DiagnoseMetrics.GPS_VISIBLE_SATELLITES, visibleSatellitesNum);
+        if (gpsTtff >= 0) {
+            gpsItem.metrics.put(DiagnoseMetrics.GPS_TTFF_MS, gpsTtff);
+        }
+        if (satellitesNum > 0) {
+            gpsItem.metrics.putDouble(DiagnoseMetrics.GPS_CN0_MEAN_DBHZ, meanCn0);
+        }
+        satelliteStatistics.writeTo(gpsItem.metrics);
+        checkResult();
+    }
+
+    private void onWifiResult(boolean isOk, int code) {
+        if (wifiItem != null) {
+            return;
+        }
+        wifiItem = new DiagnoseResultItem.SubItem(isOk ? DiagnoseResultItem.CheckResult.Ok : DiagnoseResultItem.CheckResult.Error,
+                code, null);
+        if (wifiApCount >= 0) {
+            wifiItem.metrics = new DiagnoseMetrics().put(DiagnoseMetrics.WIFI_AP_COUNT, wifiApCount);
+            if (activeWifiScan && wifiScanDuration >= 0) {
+                wifiItem.metrics.put(DiagnoseMetrics.WIFI_SCAN_MS, wifiScanDuration);
+            }
+        }
+        checkResult();
+    }
+
+    private void onApFail(int code) {
+        if (!platform.cell.isSimReady()) {
+            // 原始原因作为指标附带，展示时追加在描述后面
+            apFailCause = code;
+            onApResult(false, DiagnoseCode.CELL_SIM_ERROR);
+        } else {
+            onApResult(false, code);
+        }
+    }
+
+    private void onApResult(boolean isOk, int code) {
+        onApResult(isOk ? DiagnoseResultItem.CheckResult.Ok : DiagnoseResultItem.CheckResult.Error, code);
+    }
+
+    private void onApResult(DiagnoseResultItem.CheckResult checkResult, int code) {
+        if (apItem != null) {
+            return;
+        }
+        apItem = new DiagnoseResultItem.SubItem(checkResult, code, null);
+        if (cellAnalyzed) {
+            apItem.metrics = new DiagnoseMetrics();
+            cellAnalysis.writeTo(apItem.metrics);
+        }
+        if (apFailCause != DiagnoseCode.UNKNOWN) {
+            if (apItem.metrics == null) {
+                apItem.metrics = new DiagnoseMetrics();
+            }
+            apItem.metrics.put(DiagnoseMetrics.CELL_FAIL_CAUSE, apFailCause);
+        }
+        if (wifiCheckPending) {
+            wifiCheckPending = false;
+            checkWifiScanResult();
+        }
+        checkResult();
+    }
+}
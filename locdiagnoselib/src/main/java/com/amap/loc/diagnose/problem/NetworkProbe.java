@@ -0,0 +1,981 @@
+package com.amap.loc.diagnose.problem;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * 网络延迟探测，对多个地址并行探测，每个地址探测多次，分别统计DNS解析、TCP连接、TLS握手、首字节时间及总耗时的
+ * p50/p95
+ *
+ * 为了分别统计各阶段耗时，这里不使用HttpURLConnection，而是直接用Socket发送最简单的HTTP请求，只读取响应状态行；
+ * 只要服务器返回了HTTP响应，不论状态码是多少，都认为该地址可以连通
+ *
+ * 可以使用HEAD或只请求1个字节的Range请求减少流量（见{@link #setMethod(int)}）；开启连接复用后（见
+ * {@link #setKeepAlive(boolean)}），同一地址的多次探测复用同一个连接，第一次探测为冷连接，之后的探测只包含
+ * 请求本身的耗时，两者分别统计，用于区分建立连接的开销和请求本身的开销
+ *
+ * 与HttpURLConnection一样使用系统代理（{@link ProxySelector#getDefault()}）：HTTP代理下http地址发送绝对路径的请求，
+ * https地址先通过CONNECT建立隧道，隧道建立的耗时计入TCP连接阶段，DNS阶段为解析代理地址的耗时；SOCKS代理由代理解析
+ * 目标地址，没有DNS阶段
+ *
+ * 每个地址只在第一次建立连接时解析一次域名，之后新建的连接直接使用解析结果：系统的DNS缓存会使之后的解析耗时接近0，
+ * 计入统计会拉低DNS耗时，因此DNS阶段只有一个样本
+ *
+ * https地址的域名校验见{@link #setHostnameVerifier(HostnameVerifier)}
+ *
+ * 探测可以通过{@link #cancel()}取消，取消时会关闭正在使用的连接，阻塞在网络读写上的探测会立即结束
+ *
+ * 该类不依赖Android API，可以在JVM中针对本地HTTP服务进行测试
+ */
+public class NetworkProbe {
+
+    public static final int PHASE_DNS = 0;
+    public static final int PHASE_CONNECT = 1;
+    public static final int PHASE_TLS = 2;
+    public static final int PHASE_FIRST_BYTE = 3;
+    public static final int PHASE_TOTAL = 4;
+    public static final int PHASE_COUNT = 5;
+
+    private static final String[] PHASE_NAMES = new String[]{"DNS", "TCP", "TLS", "首字节", "总耗时"};
+
+    /**
+     * GET请求，只读取状态行，不读取响应体
+     */
+    public static final int METHOD_GET = 0;
+    /**
+     * HEAD请求，没有响应体
+     */
+    public static final int METHOD_HEAD = 1;
+    /**
+     * 带"Range: bytes=0-0"的GET请求，服务器支持时响应体只有1个字节
+     */
+    public static final int METHOD_RANGE = 2;
+
+    /**
+     * 异步探测的回调
+     */
+    public interface Listener {
+        /**
+         * 所有地址都探测完成，在执行最后一个探测任务的线程中回调，探测被取消时不回调
+         * @param results 探测结果，与探测地址的顺序一致
+         */
+        void onProbeFinish(List<EndpointResult> results);
+    }
+
+    private static final int MAX_LINE_LENGTH = 8 * 1024;
+    private static final int MAX_HEADER_COUNT = 100;
+    /**
+     * 复用连接时需要读完响应体，响应体超过该长度时不再读取，直接关闭连接
+     */
+    private static final int MAX_DRAIN_LENGTH = 64 * 1024;
+
+    /**
+     * 探测地址
+     */
+    public static class Endpoint {
+        public final String name;
+        public final URL url;
+
+        /**
+         * @param name 地址名称，用于展示
+         * @param url 地址，仅支持http和https
+         * @throws IllegalArgumentException 地址不合法时
+         */
+        public Endpoint(String name, String url) {
+            try {
+                this.url = new URL(url);
+            } catch (MalformedURLException e) {
+                throw new IllegalArgumentException(e);
+            }
+            if (!"http".equals(this.url.getProtocol()) && !"https".equals(this.url.getProtocol())) {
+                throw new IllegalArgumentException("unsupported protocol: " + url);
+            }
+            this.name = name;
+        }
+
+        boolean isHttps() {
+            return "https".equals(url.getProtocol());
+        }
+
+        int port() {
+            return url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+        }
+
+        String hostHeader() {
+            return url.getPort() == -1 || url.getPort() == url.getDefaultPort()
+                    ? url.getHost() : url.getHost() + ":" + url.getPort();
+        }
+
+        String path() {
+            String file = url.getFile();
+            return file == null || file.isEmpty() ? "/" : file;
+        }
+
+        @Override
+        public String toString() {
+            return "Endpoint{" +
+                    "name='" + name + '\'' +
+                    ", url=" + url +
+                    '}';
+        }
+    }
+
+    /**
+     * 某个阶段多次探测的耗时统计，单位毫秒
+     */
+    public static class PhaseStats {
+        public final int count;
+        public final long p50;
+        public final long p95;
+        public final long max;
+
+        PhaseStats(long[] samples, int count) {
+            long[] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            this.count = count;
+            this.p50 = percentile(sorted, 50);
+            this.p95 = percentile(sorted, 95);
+            this.max = count == 0 ? -1 : sorted[count - 1];
+        }
+
+        @Override
+        public String toString() {
+            return "p50 " + p50 + "ms/p95 " + p95 + "ms";
+        }
+    }
+
+    /**
+     * 某个地址的探测结果
+     */
+    public static class EndpointResult {
+        public final Endpoint endpoint;
+        public int successCount;
+        public int failCount;
+        /**
+         * 最近一次成功探测的HTTP状态码
+         */
+        public int responseCode = -1;
+        /**
+         * 最近一次失败的原因
+         */
+        public Throwable lastError;
+        /**
+         * 从网络接收的字节数，包括失败的探测
+         */
+        public long bytesReceived;
+        /**
+         * 探测使用的代理，没有代理时为{@link Proxy#NO_PROXY}
+         */
+        public Proxy proxy = Proxy.NO_PROXY;
+        /**
+         * 新建连接的探测中各阶段耗时统计，下标为PHASE_*，没有成功样本的阶段为null（例如http地址没有TLS阶段）
+         */
+        public final PhaseStats[] phases = new PhaseStats[PHASE_COUNT];
+        /**
+         * 复用连接的探测中各阶段耗时统计，只有首字节和总耗时，总耗时从发送请求开始计算；未开启连接复用或服务器
+         * 不支持时全部为null
+         */
+        public final PhaseStats[] warmPhases = new PhaseStats[PHASE_COUNT];
+
+        EndpointResult(Endpoint endpoint) {
+            this.endpoint = endpoint;
+        }
+
+        public boolean isReachable() {
+            return successCount > 0;
+        }
+
+        public PhaseStats getPhase(int phase) {
+            return phases[phase];
+        }
+
+        public PhaseStats getWarmPhase(int phase) {
+            return warmPhases[phase];
+        }
+
+        /**
+         * 各阶段耗时的简要描述，如"DNS p50 10ms/p95 20ms，TCP p50 30ms/p95 40ms，..."；有复用连接的探测时，
+         * 追加"；复用连接 首字节 p50 10ms/p95 20ms，..."
+         */
+        public String describePhases() {
+            StringBuilder sb = new StringBuilder();
+            appendPhases(sb, phases);
+            if (warmPhases[PHASE_TOTAL] != null) {
+                sb.append("；复用连接 ");
+                appendPhases(sb, warmPhases);
+            }
+            return sb.toString();
+        }
+
+        private static void appendPhases(StringBuilder sb, PhaseStats[] stats) {
+            boolean first = true;
+            for (int i = 0; i < PHASE_COUNT; i++) {
+                if (stats[i] == null) {
+                    continue;
+                }
+                if (!first) {
+                    sb.append("，");
+                }
+                first = false;
+                sb.append(PHASE_NAMES[i]).append(' ').append(stats[i]);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "EndpointResult{" +
+                    "endpoint=" + endpoint +
+                    ", successCount=" + successCount +
+                    ", failCount=" + failCount +
+                    ", responseCode=" + responseCode +
+                    ", bytesReceived=" + bytesReceived +
+                    ", proxy=" + proxy +
+                    ", lastError=" + lastError +
+                    ", phases=" + describePhases() +
+                    '}';
+        }
+    }
+
+    private final List<Endpoint> endpoints;
+    private final int samples;
+    private final int timeout;
+    private int method = METHOD_GET;
+    private boolean keepAlive = false;
+    private HostnameVerifier hostnameVerifier;
+
+    private DiagnoseTrace trace;
+    private volatile boolean cancelled = false;
+    private final List<Future<?>> tasks = new ArrayList<>();
+    /**
+     * 正在使用的连接，取消时关闭
+     */
+    private final Set<Socket> openSockets = new HashSet<>();
+
+    /**
+     * @param endpoints 探测地址
+     * @param samples 每个地址的探测次数
+     * @param timeout 连接及读取超时时间，单位毫秒
+     */
+    public NetworkProbe(List<Endpoint> endpoints, int samples, int timeout) {
+        if (samples <= 0) {
+            throw new IllegalArgumentException("samples must be positive");
+        }
+        this.endpoints = Collections.unmodifiableList(new ArrayList<>(endpoints));
+        this.samples = samples;
+        this.timeout = timeout;
+    }
+
+    /**
+     * 设置探测请求方式，默认为{@link #METHOD_GET}，必须在探测开始前调用
+     * @param method METHOD_*
+     */
+    public void setMethod(int method) {
+        if (method != METHOD_GET && method != METHOD_HEAD && method != METHOD_RANGE) {
+            throw new IllegalArgumentException("unknown method: " + method);
+        }
+        this.method = method;
+    }
+
+    /**
+     * 设置同一地址的多次探测是否复用连接，默认不复用，必须在探测开始前调用
+     *
+     * 复用连接时需要读完整个响应，建议同时使用{@link #METHOD_HEAD}或{@link #METHOD_RANGE}；服务器要求关闭
+     * 连接或响应体过长时，下一次探测重新建立连接
+     *
+     * @param keepAlive 是否复用连接
+     */
+    public void setKeepAlive(boolean keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
+    /**
+     * 设置https地址的域名校验，必须在探测开始前调用
+     *
+     * 默认为null，由TLS握手按HTTPS的规则校验证书中的域名（{@link SSLParameters#setEndpointIdentificationAlgorithm(String)}），
+     * JVM中可以直接使用；Android 7.0以下不支持该方法，在Android中需要传入
+     * {@link javax.net.ssl.HttpsURLConnection#getDefaultHostnameVerifier()}，见{@link DefaultLocNetDiagnoser}
+     *
+     * @param hostnameVerifier 握手完成后校验域名，为null时在握手过程中校验
+     */
+    public void setHostnameVerifier(HostnameVerifier hostnameVerifier) {
+        this.hostnameVerifier = hostnameVerifier;
+    }
+
+    /**
+     * 设置耗时记录，必须在探测开始前调用；每个地址的每次探测及其DNS解析、TCP连接、TLS握手、首字节、读取响应
+     * 阶段记录在以地址名称命名的轨道上
+     * @param trace 耗时记录，为null时不记录
+     */
+    public void setTrace(DiagnoseTrace trace) {
+        this.trace = trace;
+    }
+
+    /**
+     * 并行探测所有地址，不阻塞当前线程
+     *
+     * 每个地址占用一个任务，任务之间不会相互等待，可以使用{@link DiagnoseExecutor}等线程数有限的线程池
+     *
+     * @param executor 执行探测的线程池
+     * @param listener 探测完成的回调
+     */
+    public void start(Executor executor, final Listener listener) {
+        final int count = endpoints.size();
+        if (count == 0) {
+            listener.onProbeFinish(Collections.<EndpointResult>emptyList());
+            return;
+        }
+        final EndpointResult[] results = new EndpointResult[count];
+        final AtomicInteger remaining = new AtomicInteger(count);
+        for (int i = 0; i < count; i++) {
+            final int index = i;
+            FutureTask<Void> task = new FutureTask<>(new Runnable() {
+                @Override
+                public void run() {
+                    Endpoint endpoint = endpoints.get(index);
+                    try {
+                        results[index] = probe(endpoint);
+                    } catch (RuntimeException e) {
+                        results[index] = failedResult(endpoint, e);
+                    }
+                    if (remaining.decrementAndGet() == 0 && !cancelled) {
+                        listener.onProbeFinish(Arrays.asList(results));
+                    }
+                }
+            }, null);
+            synchronized (tasks) {
+                tasks.add(task);
+            }
+            executor.execute(task);
+        }
+    }
+
+    /**
+     * 取消探测，尚未开始的探测不再进行，正在使用的连接会被关闭，可以在任意线程中调用
+     */
+    public void cancel() {
+        cancelled = true;
+        synchronized (tasks) {
+            for (Future<?> task : tasks) {
+                task.cancel(false);
+            }
+        }
+        synchronized (openSockets) {
+            for (Socket socket : openSockets) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+            openSockets.clear();
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * 并行探测所有地址，阻塞直到所有地址都探测完成，不能在主线程中调用
+     *
+     * 当前线程在等待期间不会执行探测，不要在executor的线程中调用，否则线程全部被占用时会相互等待
+     * @param executor 执行探测的线程池，每个地址占用一个任务
+     * @return 探测结果，与探测地址的顺序一致
+     * @throws InterruptedException 等待时线程被中断
+     */
+    public List<EndpointResult> run(Executor executor) throws InterruptedException {
+        List<FutureTask<EndpointResult>> tasks = new ArrayList<>(endpoints.size());
+        for (final Endpoint endpoint : endpoints) {
+            FutureTask<EndpointResult> task = new FutureTask<>(new Callable<EndpointResult>() {
+                @Override
+                public EndpointResult call() {
+                    return probe(endpoint);
+                }
+            });
+            tasks.add(task);
+            executor.execute(task);
+        }
+        List<EndpointResult> results = new ArrayList<>(endpoints.size());
+        for (int i = 0; i < tasks.size(); i++) {
+            try {
+                results.add(tasks.get(i).get());
+            } catch (ExecutionException e) {
+                results.add(failedResult(endpoints.get(i), e.getCause()));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * 在当前线程中对一个地址依次探测多次
+     * @param endpoint 探测地址
+     * @return 探测结果
+     */
+    public EndpointResult probe(Endpoint endpoint) {
+        EndpointResult result = new EndpointResult(endpoint);
+        PhaseRecorder cold = new PhaseRecorder(samples);
+        PhaseRecorder warm = new PhaseRecorder(samples);
+        Proxy proxy = selectProxy(endpoint);
+        result.proxy = proxy;
+        byte[] request = buildRequest(endpoint, proxy.type() == Proxy.Type.HTTP && !endpoint.isHttps());
+        // 第一次建立连接时解析的地址，之后的连接复用
+        InetAddress[] resolved = new InetAddress[1];
+        long[] sample = new long[PHASE_COUNT];
+        Connection connection = null;
+        try {
+            for (int i = 0; i < samples && !cancelled; i++) {
+                boolean done = false;
+                if (connection != null) {
+                    long start = System.nanoTime();
+                    try {
+                        Arrays.fill(sample, -1);
+                        result.responseCode = exchange(connection, request, sample, start);
+                        result.successCount++;
+                        warm.add(sample);
+                        done = true;
+                        trace(endpoint, "sample " + i + " warm", start, System.nanoTime(), result.responseCode);
+                    } catch (IOException e) {
+                        // 复用的连接可能已经被服务器关闭，重新建立连接后再探测
+                        connection = release(connection, result);
+                    }
+                }
+                if (!done) {
+                    long start = System.nanoTime();
+                    try {
+                        Arrays.fill(sample, -1);
+                        connection = connect(endpoint, proxy, resolved, sample, start);
+                        result.responseCode = exchange(connection, request, sample, start);
+                        result.successCount++;
+                        cold.add(sample);
+                        trace(endpoint, "sample " + i + " cold", start, System.nanoTime(), result.responseCode);
+                    } catch (IOException e) {
+                        result.failCount++;
+                        result.lastError = e;
+                        connection = release(connection, result);
+                        trace(endpoint, "sample " + i + " failed", start, System.nanoTime(), -1);
+                    }
+                }
+                if (connection != null && !connection.reusable) {
+                    connection = release(connection, result);
+                }
+            }
+        } finally {
+            release(connection, result);
+        }
+        cold.toStats(result.phases);
+        warm.toStats(result.warmPhases);
+        return result;
+    }
+
+    /**
+     * 建立连接，DNS解析、TCP连接（包括代理隧道）、TLS握手的耗时写入out
+     * @param resolved 已经解析的地址，第一次解析后保存在其中，HTTP代理时为代理的地址
+     */
+    private Connection connect(Endpoint endpoint, Proxy proxy, InetAddress[] resolved, long[] out, long start)
+            throws IOException {
+        String host = endpoint.url.getHost();
+        long dnsEnd = start;
+        InetSocketAddress target;
+        if (proxy.type() == Proxy.Type.SOCKS) {
+            // 由代理解析目标地址
+            target = InetSocketAddress.createUnresolved(host, endpoint.port());
+        } else {
+            InetSocketAddress proxyAddress = proxy.type() == Proxy.Type.HTTP ? (InetSocketAddress) proxy.address() : null;
+            if (resolved[0] == null) {
+                resolved[0] = proxyAddress != null ? resolve(proxyAddress) : InetAddress.getAllByName(host)[0];
+                dnsEnd = System.nanoTime();
+                out[PHASE_DNS] = toMillis(dnsEnd - start);
+                trace(endpoint, "dns", start, dnsEnd, 0);
+            }
+            target = new InetSocketAddress(resolved[0], proxyAddress != null ? proxyAddress.getPort() : endpoint.port());
+        }
+
+        Socket socket = proxy.type() == Proxy.Type.SOCKS ? new Socket(proxy) : new Socket();
+        Socket rawSocket = socket;
+        try {
+            register(socket);
+            socket.setSoTimeout(timeout);
+            socket.connect(target, timeout);
+            if (proxy.type() == Proxy.Type.HTTP && endpoint.isHttps()) {
+                openTunnel(socket, endpoint);
+            }
+            long connectEnd = System.nanoTime();
+            out[PHASE_CONNECT] = toMillis(connectEnd - dnsEnd);
+            trace(endpoint, "connect", dnsEnd, connectEnd, 0);
+
+            if (endpoint.isHttps()) {
+                SSLSocketFactory factory = (SSLSocketFactory) SSLSocketFactory.getDefault();
+                SSLSocket sslSocket = (SSLSocket) factory.createSocket(socket, host, endpoint.port(), true);
+                socket = sslSocket;
+                if (hostnameVerifier == null) {
+                    enableEndpointIdentification(sslSocket);
+                }
+                sslSocket.startHandshake();
+                if (hostnameVerifier != null && !hostnameVerifier.verify(host, sslSocket.getSession())) {
+                    throw new SSLPeerUnverifiedException("hostname not verified: " + host);
+                }
+                long tlsEnd = System.nanoTime();
+                out[PHASE_TLS] = toMillis(tlsEnd - connectEnd);
+                trace(endpoint, "tls", connectEnd, tlsEnd, 0);
+            }
+            return new Connection(endpoint, socket, rawSocket);
+        } catch (IOException e) {
+            closeSocket(rawSocket);
+            throw e;
+        }
+    }
+
+    /**
+     * 在TLS握手时按HTTPS的规则校验证书中的域名，Android中需要API 24
+     */
+    @SuppressWarnings("NewApi")
+    private static void enableEndpointIdentification(SSLSocket sslSocket) {
+        SSLParameters parameters = sslSocket.getSSLParameters();
+        parameters.setEndpointIdentificationAlgorithm("HTTPS");
+        sslSocket.setSSLParameters(parameters);
+    }
+
+    /**
+     * 通过HTTP代理的CONNECT请求建立到目标地址的隧道
+     */
+    private static void openTunnel(Socket socket, Endpoint endpoint) throws IOException {
+        String authority = endpoint.url.getHost() + ":" + endpoint.port();
+        String request = "CONNECT " + authority + " HTTP/1.1\r\nHost: " + authority + "\r\n\r\n";
+        OutputStream out = socket.getOutputStream();
+        out.write(request.getBytes("US-ASCII"));
+        out.flush();
+        // 逐字节读取，不能读到隧道建立后TLS握手的数据
+        InputStream in = socket.getInputStream();
+        String statusLine = readLine(in, in.read());
+        int responseCode = parseResponseCode(statusLine);
+        for (int i = 0; ; i++) {
+            if (i >= MAX_HEADER_COUNT) {
+                throw new IOException("too many headers");
+            }
+            if (readLine(in, in.read()).isEmpty()) {
+                break;
+            }
+        }
+        if (responseCode != 200) {
+            throw new IOException("proxy tunnel failed: " + statusLine);
+        }
+    }
+
+    /**
+     * @return 系统为该地址选择的第一个代理，没有代理或选择失败时为{@link Proxy#NO_PROXY}
+     */
+    private static Proxy selectProxy(Endpoint endpoint) {
+        try {
+            ProxySelector selector = ProxySelector.getDefault();
+            if (selector == null) {
+                return Proxy.NO_PROXY;
+            }
+            List<Proxy> proxies = selector.select(endpoint.url.toURI());
+            if (proxies == null || proxies.isEmpty() || proxies.get(0) == null) {
+                return Proxy.NO_PROXY;
+            }
+            Proxy proxy = proxies.get(0);
+            if (proxy.type() != Proxy.Type.DIRECT && !(proxy.address() instanceof InetSocketAddress)) {
+                return Proxy.NO_PROXY;
+            }
+            return proxy;
+        } catch (Exception e) {
+            return Proxy.NO_PROXY;
+        }
+    }
+
+    private static InetAddress resolve(InetSocketAddress address) throws IOException {
+        return address.isUnresolved() ? InetAddress.getAllByName(address.getHostName())[0] : address.getAddress();
+    }
+
+    /**
+     * 在连接上发送一次请求，首字节时间和总耗时写入out
+     * @param start 总耗时的起始时间，新建的连接为开始DNS解析的时间，复用的连接为发送请求的时间
+     * @return HTTP状态码
+     */
+    private int exchange(Connection connection, byte[] request, long[] out, long start) throws IOException {
+        long requestStart = System.nanoTime();
+        connection.out.write(request);
+        connection.out.flush();
+        int first = connection.in.read();
+        if (first == -1) {
+            throw new IOException("connection closed before response");
+        }
+        long firstByte = System.nanoTime();
+        out[PHASE_FIRST_BYTE] = toMillis(firstByte - requestStart);
+        trace(connection.endpoint, "first byte", requestStart, firstByte, 0);
+        String statusLine = readLine(connection.in, first);
+        int responseCode = parseResponseCode(statusLine);
+        out[PHASE_TOTAL] = toMillis(System.nanoTime() - start);
+        // 不复用连接时不需要读取响应头和响应体
+        if (keepAlive) {
+            long readStart = System.nanoTime();
+            connection.reusable = readToEnd(connection.in, statusLine, responseCode);
+            trace(connection.endpoint, "read", readStart, System.nanoTime(), 0);
+        } else {
+            connection.reusable = false;
+        }
+        return responseCode;
+    }
+
+    /**
+     * 读取响应头和响应体，使连接可以发送下一个请求
+     * @return 连接是否可以复用
+     */
+    boolean readToEnd(InputStream is, String statusLine, int responseCode) throws IOException {
+        boolean close = statusLine.startsWith("HTTP/1.0");
+        boolean chunked = false;
+        long contentLength = -1;
+        for (int i = 0; ; i++) {
+            if (i >= MAX_HEADER_COUNT) {
+                throw new IOException("too many headers");
+            }
+            String line = readLine(is, is.read());
+            if (line.isEmpty()) {
+                break;
+            }
+            int colon = line.indexOf(':');
+            if (colon <= 0) {
+                continue;
+            }
+            String name = line.substring(0, colon).trim().toLowerCase(Locale.US);
+            String value = line.substring(colon + 1).trim().toLowerCase(Locale.US);
+            if ("connection".equals(name)) {
+                if (value.contains("close")) {
+                    close = true;
+                } else if (value.contains("keep-alive")) {
+                    close = false;
+                }
+            } else if ("transfer-encoding".equals(name)) {
+                chunked = value.contains("chunked");
+            } else if ("content-length".equals(name)) {
+                try {
+                    contentLength = Long.parseLong(value);
+                } catch (NumberFormatException e) {
+                    throw new IOException("invalid content-length: " + value);
+                }
+            }
+        }
+        if (method == METHOD_HEAD || responseCode / 100 == 1 || responseCode == 204 || responseCode == 304) {
+            return !close;
+        }
+        if (chunked) {
+            return drainChunked(is) && !close;
+        }
+        if (contentLength >= 0) {
+            if (contentLength > MAX_DRAIN_LENGTH) {
+                return false;
+            }
+            skipFully(is, contentLength);
+            return !close;
+        }
+        // 响应体以关闭连接作为结束，无法复用
+        return false;
+    }
+
+    /**
+     * 读完chunked编码的响应体
+     * @return 是否读完，响应体过长时返回false
+     */
+    private static boolean drainChunked(InputStream is) throws IOException {
+        long total = 0;
+        while (true) {
+            String line = readLine(is, is.read());
+            int extension = line.indexOf(';');
+            long size;
+            try {
+                size = Long.parseLong((extension >= 0 ? line.substring(0, extension) : line).trim(), 16);
+            } catch (NumberFormatException e) {
+                throw new IOException("invalid chunk size: " + line);
+            }
+            if (size == 0) {
+                // trailer，以空行结束
+                for (int i = 0; i < MAX_HEADER_COUNT; i++) {
+                    if (readLine(is, is.read()).isEmpty()) {
+                        return true;
+                    }
+                }
+                throw new IOException("too many trailers");
+            }
+            total += size;
+            if (total > MAX_DRAIN_LENGTH) {
+                return false;
+            }
+            skipFully(is, size);
+            readLine(is, is.read());
+        }
+    }
+
+    private static void skipFully(InputStream is, long length) throws IOException {
+        while (length > 0) {
+            long skipped = is.skip(length);
+            if (skipped <= 0) {
+                if (is.read() == -1) {
+                    throw new IOException("unexpected end of stream");
+                }
+                skipped = 1;
+            }
+            length -= skipped;
+        }
+    }
+
+    /**
+     * 按字节读取一行，响应头只包含ASCII字符，不需要经过字符集解码
+     * @param first 已经读取的第一个字节
+     * @return 去掉行尾CRLF的内容
+     */
+    static String readLine(InputStream is, int first) throws IOException {
+        if (first == -1) {
+            throw new IOException("unexpected end of stream");
+        }
+        StringBuilder line = new StringBuilder();
+        int b = first;
+        while (b != '\n') {
+            if (b == -1) {
+                throw new IOException("unexpected end of stream");
+            }
+            if (line.length() >= MAX_LINE_LENGTH) {
+                throw new IOException("line too long");
+            }
+            line.append((char) b);
+            b = is.read();
+        }
+        int length = line.length();
+        if (length > 0 && line.charAt(length - 1) == '\r') {
+            line.setLength(length - 1);
+        }
+        return line.toString();
+    }
+
+    /**
+     * @param absolute 是否使用绝对路径，通过HTTP代理请求http地址时使用
+     */
+    private byte[] buildRequest(Endpoint endpoint, boolean absolute) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(method == METHOD_HEAD ? "HEAD " : "GET ");
+        if (absolute) {
+            sb.append(endpoint.url.getProtocol()).append("://").append(endpoint.hostHeader());
+        }
+        sb.append(endpoint.path()).append(" HTTP/1.1\r\n");
+        sb.append("Host: ").append(endpoint.hostHeader()).append("\r\n");
+        if (method == METHOD_RANGE) {
+            sb.append("Range: bytes=0-0\r\n");
+        }
+        sb.append("Accept-Encoding: identity\r\n");
+        sb.append("Connection: ").append(keepAlive ? "keep-alive" : "close").append("\r\n");
+        sb.append("\r\n");
+        byte[] bytes = new byte[sb.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) sb.charAt(i);
+        }
+        return bytes;
+    }
+
+    /**
+     * 解析状态行中的状态码，如"HTTP/1.1 200 OK"
+     */
+    static int parseResponseCode(String statusLine) throws IOException {
+        if (!statusLine.startsWith("HTTP/")) {
+            throw new IOException("invalid status line: " + statusLine);
+        }
+        int codeStart = statusLine.indexOf(' ');
+        if (codeStart < 0 || statusLine.length() < codeStart + 4) {
+            throw new IOException("invalid status line: " + statusLine);
+        }
+        try {
+            return Integer.parseInt(statusLine.substring(codeStart + 1, codeStart + 4));
+        } catch (NumberFormatException e) {
+            throw new IOException("invalid status line: " + statusLine);
+        }
+    }
+
+    /**
+     * 关闭连接并累计接收的字节数
+     * @return null，便于调用处清空连接
+     */
+    private Connection release(Connection connection, EndpointResult result) {
+        if (connection != null) {
+            result.bytesReceived += connection.counter.count;
+            closeSocket(connection.socket);
+            closeSocket(connection.rawSocket);
+        }
+        return null;
+    }
+
+    /**
+     * 记录正在使用的连接，已经取消时直接结束探测
+     */
+    private void register(Socket socket) throws IOException {
+        synchronized (openSockets) {
+            if (cancelled) {
+                throw new IOException("cancelled");
+            }
+            openSockets.add(socket);
+        }
+    }
+
+    private void closeSocket(Socket socket) {
+        synchronized (openSockets) {
+            openSockets.remove(socket);
+        }
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    private EndpointResult failedResult(Endpoint endpoint, Throwable error) {
+        EndpointResult result = new EndpointResult(endpoint);
+        result.failCount = samples;
+        result.lastError = error;
+        return result;
+    }
+
+    private static long toMillis(long nanos) {
+        return nanos / 1000000;
+    }
+
+    /**
+     * 最近秩法计算百分位数
+     */
+    static long percentile(long[] sorted, int percent) {
+        if (sorted.length == 0) {
+            return -1;
+        }
+        int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    /**
+     * 记录一个阶段，时间为{@link System#nanoTime()}，转换为trace的时间基准
+     * @param responseCode 大于0时作为说明记录，-1表示失败
+     */
+    private void trace(Endpoint endpoint, String name, long startNanos, long endNanos, int responseCode) {
+        DiagnoseTrace t = trace;
+        if (t == null) {
+            return;
+        }
+        long offset = t.nowNanos() - System.nanoTime();
+        t.complete(DiagnoseTrace.CATEGORY_NETWORK, name, "net " + endpoint.name, startNanos + offset,
+                endNanos + offset, responseCode > 0 ? String.valueOf(responseCode)
+                        : (responseCode < 0 ? "failed" : null));
+    }
+
+    private static class Connection {
+        final Endpoint endpoint;
+        final Socket socket;
+        /**
+         * TLS连接下层的TCP连接，非TLS连接时与socket相同
+         */
+        final Socket rawSocket;
+        final CountingInputStream counter;
+        final InputStream in;
+        final OutputStream out;
+        boolean reusable = false;
+
+        Connection(Endpoint endpoint, Socket socket, Socket rawSocket) throws IOException {
+            this.endpoint = endpoint;
+            this.socket = socket;
+            this.rawSocket = rawSocket;
+            this.counter = new CountingInputStream(socket.getInputStream());
+            this.in = new BufferedInputStream(counter);
+            this.out = socket.getOutputStream();
+        }
+    }
+
+    /**
+     * 统计从Socket中实际读取的字节数
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            if (skipped > 0) {
+                count += skipped;
+            }
+            return skipped;
+        }
+    }
+
+    /**
+     * 按阶段收集多次探测的耗时
+     */
+    private static class PhaseRecorder {
+        private final long[][] samples;
+        private final int[] counts = new int[PHASE_COUNT];
+
+        PhaseRecorder(int capacity) {
+            samples = new long[PHASE_COUNT][capacity];
+        }
+
+        void add(long[] sample) {
+            for (int phase = 0; phase < PHASE_COUNT; phase++) {
+                if (sample[phase] >= 0) {
+                    samples[phase][counts[phase]++] = sample[phase];
+                }
+            }
+        }
+
+        void toStats(PhaseStats[] out) {
+            for (int phase = 0; phase < PHASE_COUNT; phase++) {
+                if (counts[phase] > 0) {
+                    out[phase] = new PhaseStats(samples[phase], counts[phase]);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package com.amap.loc.diagnose.problem;
+
+import com.amap.loc.diagnose.platform.SatelliteStatus;
+
+/**
+ * GPS检测过程中的卫星统计，包括各卫星系统的卫星数、信号强度（C/N0）分布、卫星在天空中的分布以及参与定位的比例
+ *
+ * 所有统计保存在创建时分配的基本类型数组中，{@link #add(SatelliteStatus)}不分配内存，可以在长时间的卫星状态回调中
+ * 持续调用。非线程安全，应在卫星状态回调所在的线程中使用
+ */
+public class SatelliteStatistics {
+
+    /**
+     * 信号强度分布的区间宽度，单位dB-Hz
+     */
+    public static final int CN0_BIN_WIDTH = 5;
+    /**
+     * 信号强度分布的区间数，最后一个区间包含所有不低于50dB-Hz的卫星
+     */
+    public static final int CN0_BIN_COUNT = 11;
+    /**
+     * 天空按方位角分为8个扇区，按高度角分为0~30、30~60、60~90度三层
+     */
+    public static final int AZIMUTH_SECTORS = 8;
+    public static final int ELEVATION_BANDS = 3;
+    public static final int SKY_CELLS = AZIMUTH_SECTORS * ELEVATION_BANDS;
+    /**
+     * 保留最近多少次卫星状态回调的卫星数
+     */
+    public static final int HISTORY_SIZE = 60;
+
+    private int eventCount;
+
+    private final int[] visible = new int[SatelliteStatus.CONSTELLATION_COUNT];
+    private final int[] used = new int[SatelliteStatus.CONSTELLATION_COUNT];
+    private final long[] visibleTotal = new long[SatelliteStatus.CONSTELLATION_COUNT];
+    private final long[] usedTotal = new long[SatelliteStatus.CONSTELLATION_COUNT];
+    private int latestVisible;
+    private int latestUsed;
+
+    private final long[] cn0Histogram = new long[CN0_BIN_COUNT];
+    private final long[] usedCn0Histogram = new long[CN0_BIN_COUNT];
+
+    private final long[] skyCellCount = new long[SKY_CELLS];
+    /**
+     * 最近一次回调及所有回调中有卫星的天空区域，每位对应一个区域
+     */
+    private int latestSkyMask;
+    private int skyMaskUnion;
+
+    private final short[] historyVisible = new short[HISTORY_SIZE];
+    private final short[] historyUsed = new short[HISTORY_SIZE];
+    /**
+     * 下一次写入的位置
+     */
+    private int historyNext;
+
+    /**
+     * 统计一次卫星状态回调
+     */
+    public void add(SatelliteStatus status) {
+        int count = status.getCount();
+        for (int c = 0; c < SatelliteStatus.CONSTELLATION_COUNT; c++) {
+            visible[c] = 0;
+            used[c] = 0;
+        }
+        latestUsed = 0;
+        latestSkyMask = 0;
+        for (int i = 0; i < count; i++) {
+            int constellation = status.getConstellation(i);
+            boolean usedInFix = status.usedInFix(i);
+            int bin = cn0Bin(status.getCn0DbHz(i));
+            visible[constellation]++;
+            cn0Histogram[bin]++;
+            if (usedInFix) {
+                used[constellation]++;
+                usedCn0Histogram[bin]++;
+                latestUsed++;
+            }
+            int cell = skyCell(status.getAzimuthDegrees(i), status.getElevationDegrees(i));
+            if (cell >= 0) {
+                skyCellCount[cell]++;
+                latestSkyMask |= 1 << cell;
+            }
+        }
+        for (int c = 0; c < SatelliteStatus.CONSTELLATION_COUNT; c++) {
+            visibleTotal[c] += visible[c];
+            usedTotal[c] += used[c];
+        }
+        latestVisible = count;
+        skyMaskUnion |= latestSkyMask;
+        historyVisible[historyNext] = (short) Math.min(count, Short.MAX_VALUE);
+        historyUsed[historyNext] = (short) Math.min(latestUsed, Short.MAX_VALUE);
+        historyNext = (historyNext + 1) % HISTORY_SIZE;
+        eventCount++;
+    }
+
+    /**
+     * 清空所有统计，不分配内存
+     */
+    public void reset() {
+        eventCount = 0;
+        latestVisible = 0;
+        latestUsed = 0;
+        latestSkyMask = 0;
+        skyMaskUnion = 0;
+        historyNext = 0;
+        for (int c = 0; c < SatelliteStatus.CONSTELLATION_COUNT; c++) {
+            visible[c] = 0;
+            used[c] = 0;
+            visibleTotal[c] = 0;
+            usedTotal[c] = 0;
+        }
+        for (int i = 0; i < CN0_BIN_COUNT; i++) {
+            cn0Histogram[i] = 0;
+            usedCn0Histogram[i] = 0;
+        }
+        for (int i = 0; i < SKY_CELLS; i++) {
+            skyCellCount[i] = 0;
+        }
+    }
+
+    /**
+     * @return 已统计的卫星状态回调次数
+     */
+    public int getEventCount() {
+        return eventCount;
+    }
+
+    /**
+     * @return 最近一次回调中搜索到的卫星数
+     */
+    public int getVisibleCount() {
+        return latestVisible;
+    }
+
+    /**
+     * @return 最近一次回调中参与定位的卫星数
+     */
+    public int getUsedCount() {
+        return latestUsed;
+    }
+
+    /**
+     * @param constellation SatelliteStatus.CONSTELLATION_*
+     * @return 最近一次回调中该卫星系统搜索到的卫星数
+     */
+    public int getVisibleCount(int constellation) {
+        return visible[constellation];
+    }
+
+    /**
+     * @param constellation SatelliteStatus.CONSTELLATION_*
+     * @return 最近一次回调中该卫星系统参与定位的卫星数
+     */
+    public int getUsedCount(int constellation) {
+        return used[constellation];
+    }
+
+    /**
+     * @return 最近一次回调中有卫星参与定位的卫星系统数，不含CONSTELLATION_UNKNOWN
+     */
+    public int getUsedConstellationCount() {
+        int n = 0;
+        for (int c = 1; c < SatelliteStatus.CONSTELLATION_COUNT; c++) {
+            if (used[c] > 0) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * @param constellation SatelliteStatus.CONSTELLATION_*
+     * @return 所有回调中该卫星系统的卫星参与定位的比例，没有搜索到卫星时为0
+     */
+    public double getUsedRatio(int constellation) {
+        return visibleTotal[constellation] == 0 ? 0 : (double) usedTotal[constellation] / visibleTotal[constellation];
+    }
+
+    /**
+     * @return 所有回调中卫星参与定位的比例，没有搜索到卫星时为0
+     */
+    public double getUsedRatio() {
+        long visibleSum = 0;
+        long usedSum = 0;
+        for (int c = 0; c < SatelliteStatus.CONSTELLATION_COUNT; c++) {
+            visibleSum += visibleTotal[c];
+            usedSum += usedTotal[c];
+        }
+        return visibleSum == 0 ? 0 : (double) usedSum / visibleSum;
+    }
+
+    /**
+     * @param bin 区间，[bin * CN0_BIN_WIDTH, (bin + 1) * CN0_BIN_WIDTH)
+     * @return 所有回调中信号强度落在该区间的卫星次数
+     */
+    public long getCn0Histogram(int bin) {
+        return cn0Histogram[bin];
+    }
+
+    /**
+     * @return 所有回调中信号强度落在该区间且参与定位的卫星次数
+     */
+    public long getUsedCn0Histogram(int bin) {
+        return usedCn0Histogram[bin];
+    }
+
+    /**
+     * @param cell 天空区域，高度角层 * AZIMUTH_SECTORS + 方位角扇区
+     * @return 所有回调中出现在该区域的卫星次数
+     */
+    public long getSkyCellCount(int cell) {
+        return skyCellCount[cell];
+    }
+
+    /**
+     * @return 最近一次回调中有卫星的天空区域比例，0~1；卫星方位未知时为0
+     */
+    public double getSkyCoverage() {
+        return (double) Integer.bitCount(latestSkyMask) / SKY_CELLS;
+    }
+
+    /**
+     * @return 所有回调中出现过卫星的天空区域比例，0~1；区域长期没有卫星通常说明该方向被遮挡
+     */
+    public double getCumulativeSkyCoverage() {
+        return (double) Integer.bitCount(skyMaskUnion) / SKY_CELLS;
+    }
+
+    /**
+     * @return 保留的历史回调次数，不超过HISTORY_SIZE
+     */
+    public int getHistorySize() {
+        return Math.min(eventCount, HISTORY_SIZE);
+    }
+
+    /**
+     * @param index 0为保留的最早一次回调
+     * @return 该次回调中搜索到的卫星数
+     */
+    public int getHistoryVisible(int index) {
+        return historyVisible[historyIndex(index)];
+    }
+
+    /**
+     * @param index 0为保留的最早一次回调
+     * @return 该次回调中参与定位的卫星数
+     */
+    public int getHistoryUsed(int index) {
+        return historyUsed[historyIndex(index)];
+    }
+
+    /**
+     * 将主要统计写入检测指标，没有卫星状态回调时不写入
+     */
+    public void writeTo(DiagnoseMetrics metrics) {
+        if (eventCount == 0) {
+            return;
+        }
+        metrics.put(DiagnoseMetrics.GPS_STATUS_EVENTS, eventCount)
+                .put(DiagnoseMetrics.GPS_CONSTELLATIONS, getUsedConstellationCount())
+                .putDouble(DiagnoseMetrics.GPS_USED_RATIO, getUsedRatio())
+                .putDouble(DiagnoseMetrics.GPS_SKY_COVERAGE, getCumulativeSkyCoverage());
+    }
+
+    private int historyIndex(int index) {
+        if (index < 0 || index >= getHistorySize()) {
+            throw new IndexOutOfBoundsException("index " + index + ", size " + getHistorySize());
+        }
+        int oldest = eventCount < HISTORY_SIZE ? 0 : historyNext;
+        return (oldest + index) % HISTORY_SIZE;
+    }
+
+    private static int cn0Bin(float cn0DbHz) {
+        if (!(cn0DbHz > 0)) {
+            return 0;
+        }
+        return Math.min((int) (cn0DbHz / CN0_BIN_WIDTH), CN0_BIN_COUNT - 1);
+    }
+
+    /**
+     * @return 天空区域，方位未知或在地平线以下时为-1
+     */
+    private static int skyCell(float azimuthDegrees, float elevationDegrees) {
+        if (Float.isNaN(azimuthDegrees) || Float.isNaN(elevationDegrees) || elevationDegrees < 0) {
+            return -1;
+        }
+        float azimuth = azimuthDegrees % 360;
+        if (azimuth < 0) {
+            azimuth += 360;
+        }
+        int sector = Math.min((int) (azimuth / (360 / AZIMUTH_SECTORS)), AZIMUTH_SECTORS - 1);
+        int band = Math.min((int) (elevationDegrees / (90 / ELEVATION_BANDS)), ELEVATION_BANDS - 1);
+        return band * AZIMUTH_SECTORS + sector;
+    }
+}